@@ -0,0 +1,571 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/*
+        节点存放在并行数组中的红黑树(arena), 节点用int下标表示, NIL(-1)表示空:
+            left/right/parent   子节点与父节点的下标
+            red                 颜色位, 每个long存放64个节点的颜色
+            keys/values         key与value列
+        每个节点不再是一个对象, 没有对象头、三个引用与boolean的对齐填充, 每个元素为3个int加上key/value两个引用,
+        约为RBTreeMap的一半; 整棵树只有6个数组, GC需要追踪的对象只剩数组与其中的key/value
+        删除的位置串成空闲链表(借用left数组存放下一个空闲位置), 新增时优先复用, 数组只在没有空闲位置时按1.5倍扩容
+        插入/删除的平衡逻辑与RBTreeMap一一对应, 只是把节点引用换成下标, 说明见RBTreeMap
+ */
+class ArenaRBTreeMap<K extends Comparable<K>, V> {
+
+    private static final int NIL = -1;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] left;
+    private int[] right;
+    private int[] parent;
+    private long[] red;
+    private Object[] keys;
+    private Object[] values;
+    private int root = NIL;
+    private int size;
+    // 从未使用过的第一个位置, [0, used)为使用中或者在空闲链表中
+    private int used;
+    private int freeHead = NIL;
+    // 旋转次数, 一直记录, 通过metrics导出
+    long rotationCount;
+    private final TreeMetrics metrics = new TreeMetrics(this::structure);
+
+    public ArenaRBTreeMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // capacity为预先分配的节点个数
+    public ArenaRBTreeMap(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.left = new int[capacity];
+        this.right = new int[capacity];
+        this.parent = new int[capacity];
+        this.red = new long[(capacity + 63) >>> 6];
+        this.keys = new Object[capacity];
+        this.values = new Object[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // 已分配的节点个数
+    public int capacity() {
+        return keys.length;
+    }
+
+    public TreeMetrics metrics() {
+        return metrics;
+    }
+
+    // ---------------------------------------- 节点分配
+
+    private int allocate(K key, V value, boolean isRed) {
+        int node;
+        if (freeHead != NIL) {
+            node = freeHead;
+            freeHead = left[node];
+        } else {
+            if (used == keys.length) grow();
+            node = used++;
+        }
+        left[node] = NIL;
+        right[node] = NIL;
+        parent[node] = NIL;
+        keys[node] = key;
+        values[node] = value;
+        setColor(node, isRed);
+        return node;
+    }
+
+    // 释放已经从树中摘除的节点, 清空key/value让GC可以回收
+    private void free(int node) {
+        keys[node] = null;
+        values[node] = null;
+        left[node] = freeHead;
+        freeHead = node;
+    }
+
+    private void grow() {
+        int capacity = keys.length + (keys.length >> 1) + 1;
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        red = Arrays.copyOf(red, (capacity + 63) >>> 6);
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    private K key(int node) {
+        return (K) keys[node];
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int node) {
+        return (V) values[node];
+    }
+
+    private boolean isRed(int node) {
+        return (red[node >>> 6] & (1L << node)) != 0;
+    }
+
+    private boolean isBlack(int node) {
+        return !isRed(node);
+    }
+
+    private void setColor(int node, boolean isRed) {
+        if (isRed) red[node >>> 6] |= 1L << node;
+        else red[node >>> 6] &= ~(1L << node);
+    }
+
+    private void setRed(int node) {
+        setColor(node, true);
+    }
+
+    private void setBlack(int node) {
+        setColor(node, false);
+    }
+
+    private void setLeft(int node, int child) {
+        left[node] = child;
+        if (child != NIL) parent[child] = node;
+    }
+
+    private void setRight(int node, int child) {
+        right[node] = child;
+        if (child != NIL) parent[child] = node;
+    }
+
+    private int getSonNumber(int node) {
+        int res = 0;
+        if (left[node] != NIL) res++;
+        if (right[node] != NIL) res++;
+        return res;
+    }
+
+    private void setRoot(int node) {
+        this.root = node;
+        parent[node] = NIL;
+    }
+
+    // ---------------------------------------- 旋转
+
+    // 旋转树前置操作，如果cur为根节点，将根节点替换为pivot，如果cur不是根节点，用pivot替换cur的位置
+    private void beforeRotate(int pivot, int cur) {
+        if (cur == root) {
+            this.setRoot(pivot);
+            return;
+        }
+        if (isParentLeft(cur)) setLeft(parent[cur], pivot);
+        else setRight(parent[cur], pivot);
+    }
+
+    // 右旋操作
+    private void rotateRight(int pivot, int cur) {
+        rotationCount++;
+        beforeRotate(pivot, cur);
+        int tempRight = right[pivot];
+        setRight(pivot, cur);
+        setLeft(cur, tempRight);
+    }
+
+    // 左旋操作
+    private void rotateLeft(int pivot, int cur) {
+        rotationCount++;
+        beforeRotate(pivot, cur);
+        int tempLeft = left[pivot];
+        setLeft(pivot, cur);
+        setRight(cur, tempLeft);
+    }
+
+    private int grandpa(int node) {
+        if (parent[node] == NIL) return NIL;
+        return parent[parent[node]];
+    }
+
+    private boolean isParentLeft(int node) {
+        if (parent[node] == NIL) return false;
+        return left[parent[node]] == node;
+    }
+
+    private boolean isParentRight(int node) {
+        if (parent[node] == NIL) return false;
+        return right[parent[node]] == node;
+    }
+
+    private int brother(int node) {
+        if (parent[node] == NIL) return NIL;
+        if (isParentLeft(node)) return right[parent[node]];
+        return left[parent[node]];
+    }
+
+    private int uncle(int node) {
+        if (parent[node] == NIL) return NIL;
+        return brother(parent[node]);
+    }
+
+    // ---------------------------------------- 查找
+
+    public V get(K key) {
+        long start = TreeMetrics.ENABLED ? System.nanoTime() : 0;
+        int node = findNode(key);
+        if (TreeMetrics.ENABLED) metrics.record(TreeMetrics.Op.GET, start);
+        return node == NIL ? null : value(node);
+    }
+
+    public boolean containsKey(K key) {
+        return findNode(key) != NIL;
+    }
+
+    private int findNode(K key) {
+        Objects.requireNonNull(key);
+        int cur = root;
+        int comparisons = 0;
+        while (cur != NIL) {
+            if (TreeMetrics.ENABLED) comparisons++;
+            int compare = key(cur).compareTo(key);
+            if (compare == 0) break;
+            cur = compare < 0 ? right[cur] : left[cur];
+        }
+        if (TreeMetrics.ENABLED) metrics.search(comparisons);
+        return cur;
+    }
+
+    private static int leftmost(int[] left, int node) {
+        while (left[node] != NIL) node = left[node];
+        return node;
+    }
+
+    // 寻找后置节点: 有右子树时为右子树中最小的节点, 否则向上找到第一个从左侧到达的祖先
+    private int successor(int node) {
+        if (right[node] != NIL) return leftmost(left, right[node]);
+        int cur = node;
+        while (parent[cur] != NIL && right[parent[cur]] == cur) cur = parent[cur];
+        return parent[cur];
+    }
+
+    // 按key递增的顺序遍历, 不分配对象
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (root == NIL) return;
+        for (int cur = leftmost(left, root); cur != NIL; cur = successor(cur)) {
+            action.accept(key(cur), value(cur));
+        }
+    }
+
+    public List<K> keySet() {
+        List<K> res = new ArrayList<>(size);
+        forEach((key, value) -> res.add(key));
+        return res;
+    }
+
+    // ---------------------------------------- 插入
+
+    public V put(K key, V value) {
+        Objects.requireNonNull(key);
+        long start = TreeMetrics.ENABLED ? System.nanoTime() : 0;
+        V res;
+        if (root == NIL) {
+            setRoot(allocate(key, value, false));
+            size++;
+            res = null;
+        } else {
+            res = putVal(key, value);
+        }
+        if (TreeMetrics.ENABLED) metrics.record(TreeMetrics.Op.PUT, start);
+        return res;
+    }
+
+    private V putVal(K key, V value) {
+        int current = root;
+        int comparisons = 1;
+        int compare;
+        while ((compare = key(current).compareTo(key)) != 0) {
+            if (compare < 0) {
+                if (right[current] == NIL) {
+                    if (TreeMetrics.ENABLED) metrics.search(comparisons);
+                    int node = allocate(key, value, true);
+                    setRight(current, node);
+                    size++;
+                    balanceInsertion(node);
+                    return null;
+                }
+                current = right[current];
+            } else {
+                if (left[current] == NIL) {
+                    if (TreeMetrics.ENABLED) metrics.search(comparisons);
+                    int node = allocate(key, value, true);
+                    setLeft(current, node);
+                    size++;
+                    balanceInsertion(node);
+                    return null;
+                }
+                current = left[current];
+            }
+            if (TreeMetrics.ENABLED) comparisons++;
+        }
+        if (TreeMetrics.ENABLED) metrics.search(comparisons);
+        V tempValue = value(current);
+        values[current] = value;
+        return tempValue;
+    }
+
+    private void balanceInsertion(int cur) {
+        while (cur != NIL) {
+            int nextStep;
+            int parent = this.parent[cur];
+            if (isParentLeft(parent)) {
+                if (isParentLeft(cur)) nextStep = balanceLeftLeft(cur, parent);
+                else nextStep = balanceLeftRight(cur, parent);
+            } else {
+                if (isParentRight(cur)) nextStep = balanceRightRight(cur, parent);
+                else nextStep = balanceRightLeft(cur, parent);
+            }
+            if (nextStep == root) {
+                setBlack(nextStep);
+                return;
+            }
+            cur = nextStep;
+        }
+    }
+
+    private int balanceRightRight(int cur, int parent) {
+        return balanceInsertionTemp(cur, parent, false);
+    }
+
+    private int balanceRightLeft(int cur, int parent) {
+        if (isRed(cur) && isRed(parent)) {
+            rotateRight(cur, parent);
+            return balanceRightRight(parent, cur);
+        }
+        return NIL;
+    }
+
+    private int balanceLeftRight(int cur, int parent) {
+        if (isRed(cur) && isRed(parent)) {
+            rotateLeft(cur, parent);
+            return balanceLeftLeft(parent, cur);
+        }
+        return NIL;
+    }
+
+    private int balanceLeftLeft(int cur, int parent) {
+        return balanceInsertionTemp(cur, parent, true);
+    }
+
+    // uncle为黑色时旋转后结束, uncle为红色时染色后从grandpa继续
+    private int balanceInsertionTemp(int cur, int parent, boolean rotateRight) {
+        if (isRed(cur) && isRed(parent)) {
+            int uncle = uncle(cur);
+            int grandpa = grandpa(cur);
+            if (uncle == NIL || isBlack(uncle)) {
+                if (rotateRight) rotateRight(parent, grandpa);
+                else rotateLeft(parent, grandpa);
+                setBlack(parent);
+                setRed(grandpa);
+                return NIL;
+            }
+            setBlack(uncle);
+            setBlack(parent);
+            setRed(grandpa);
+            return grandpa;
+        }
+        return NIL;
+    }
+
+    // ---------------------------------------- 删除
+
+    public V remove(K key) {
+        if (root == NIL) return null;
+        long start = TreeMetrics.ENABLED ? System.nanoTime() : 0;
+        int node = findNode(key);
+        V res = node == NIL ? null : deleteNode(node);
+        if (TreeMetrics.ENABLED) metrics.record(TreeMetrics.Op.REMOVE, start);
+        return res;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0, used, null);
+        Arrays.fill(values, 0, used, null);
+        root = NIL;
+        size = 0;
+        used = 0;
+        freeHead = NIL;
+    }
+
+    // 每种情况都会释放实际从树中摘除的节点
+    private V deleteNode(int waitDelete) {
+        size--;
+        V tempValue = value(waitDelete);
+        int sonNumber = getSonNumber(waitDelete);
+        if (isRed(waitDelete) && sonNumber == 0) {
+            deleteRedNoSon(waitDelete);
+        } else if (isBlack(waitDelete) && sonNumber == 1) {
+            deleteBlackOneSon(waitDelete);
+        } else if (sonNumber == 2) {
+            deleteTwoSon(waitDelete);
+        } else {
+            deleteBlackNoSon(waitDelete);
+        }
+        return tempValue;
+    }
+
+    private void deleteRedNoSon(int node) {
+        int parent = this.parent[node];
+        if (node == left[parent]) left[parent] = NIL;
+        else right[parent] = NIL;
+        free(node);
+    }
+
+    private void deleteBlackOneSon(int node) {
+        int replaceNode = left[node];
+        if (replaceNode == NIL) replaceNode = right[node];
+        setBlack(replaceNode);
+        if (node == root) {
+            setRoot(replaceNode);
+        } else {
+            int parent = this.parent[node];
+            if (left[parent] == node) setLeft(parent, replaceNode);
+            else setRight(parent, replaceNode);
+        }
+        free(node);
+    }
+
+    private void deleteBlackNoSon(int node) {
+        if (node == root) {
+            root = NIL;
+            free(node);
+            return;
+        }
+        deleteBlackNoSonTemp(node);
+        int parent = this.parent[node];
+        if (left[parent] == node) left[parent] = NIL;
+        else right[parent] = NIL;
+        free(node);
+    }
+
+    private void solveDeleteBlackNoSonTempBrotherRed(int node, int brother, int parent) {
+        setBlack(brother);
+        setRed(parent);
+        if (isParentLeft(node)) {
+            rotateLeft(brother, parent);
+            return;
+        }
+        rotateRight(brother, parent);
+    }
+
+    private boolean judgeBlackNoSonOut(int node, int brother, int parent) {
+        // 兄弟节点为黑色且有红色儿子时, 借用红色儿子达到平衡
+        if (isParentLeft(node)) {
+            if (right[brother] != NIL && isRed(right[brother])) {
+                balanceDeleteRightRight(brother, parent);
+                return true;
+            }
+            if (left[brother] != NIL && isRed(left[brother])) {
+                balanceDeleteRightLeft(brother, parent);
+                return true;
+            }
+        } else {
+            if (left[brother] != NIL && isRed(left[brother])) {
+                balanceDeleteLeftLeft(brother, parent);
+                return true;
+            }
+            if (right[brother] != NIL && isRed(right[brother])) {
+                balanceDeleteLeftRight(brother, parent);
+                return true;
+            }
+        }
+        // 没有红色儿子且父亲为红色, 一次染色结束
+        if (isRed(parent)) {
+            setBlack(parent);
+            setRed(brother);
+            return true;
+        }
+        return false;
+    }
+
+    private void deleteBlackNoSonTemp(int node) {
+        while (node != root) {
+            int brother = brother(node);
+            int parent = this.parent[node];
+            if (isRed(brother)) {
+                solveDeleteBlackNoSonTempBrotherRed(node, brother, parent);
+                continue;
+            }
+            if (judgeBlackNoSonOut(node, brother, parent)) {
+                return;
+            }
+            // 本层不能解决时染色后上推不平衡因子
+            node = parent;
+            setRed(brother);
+        }
+    }
+
+    private void balanceDeleteLeftLeft(int brother, int parent) {
+        setColor(brother, isRed(parent));
+        setBlack(parent);
+        setBlack(left[brother]);
+        rotateRight(brother, parent);
+    }
+
+    private void balanceDeleteLeftRight(int brother, int parent) {
+        int record = right[brother];
+        setBlack(record);
+        setRed(brother);
+        rotateLeft(record, brother);
+        balanceDeleteLeftLeft(record, parent);
+    }
+
+    private void balanceDeleteRightRight(int brother, int parent) {
+        setColor(brother, isRed(parent));
+        setBlack(parent);
+        setBlack(right[brother]);
+        rotateLeft(brother, parent);
+    }
+
+    private void balanceDeleteRightLeft(int brother, int parent) {
+        int record = left[brother];
+        setBlack(record);
+        setRed(brother);
+        rotateRight(record, brother);
+        balanceDeleteRightRight(record, parent);
+    }
+
+    // 有两个儿子时把后继节点的key/value移入该节点, 转换为删除后继节点
+    private void deleteTwoSon(int node) {
+        int replaceNode = successor(node);
+        keys[node] = keys[replaceNode];
+        values[node] = values[replaceNode];
+        if (isRed(replaceNode)) {
+            deleteRedNoSon(replaceNode);
+            return;
+        }
+        if (right[replaceNode] == NIL) deleteBlackNoSon(replaceNode);
+        else deleteBlackOneSon(replaceNode);
+    }
+
+    // 按层遍历统计高度与节点个数, 与写线程并发时深度超过上限放弃本次统计
+    private TreeMetrics.Structure structure() {
+        int height = 0;
+        long nodeCount = 0;
+        int[] level = root == NIL ? new int[0] : new int[]{root};
+        while (level.length > 0) {
+            if (++height > 128) throw new IllegalStateException("tree changed during traversal");
+            int[] next = new int[level.length * 2];
+            int count = 0;
+            for (int node : level) {
+                nodeCount++;
+                if (left[node] != NIL) next[count++] = left[node];
+                if (right[node] != NIL) next[count++] = right[node];
+            }
+            level = Arrays.copyOf(next, count);
+        }
+        return new TreeMetrics.Structure(height, nodeCount, 1, 1, 0, 0, 0, rotationCount);
+    }
+}
@@ -1,39 +1,534 @@
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/*
+        节点使用并行数组存放(struct-of-arrays), 不再为每个元素创建Node/Leaf对象
+        叶子节点:  keys[0, size)与values[0, size)一一对应
+        索引节点:  keys[i] >= children[i]中所有的key, keys[i] < children[i + 1]中所有的key
+                   children[size]为最右侧的子节点
+        二分搜索只访问连续的keys数组, 分裂与合并都转换为System.arraycopy
+
+        快照(snapshot): 每个节点记录创建时的epoch, 创建快照只记录root并把epoch + 1, 不复制任何节点
+            sharedEpoch为仍然打开的快照中最大的epoch, epoch <= sharedEpoch的节点可能被快照读取, 不能再修改
+            修改节点之前先调用writable: 需要时复制该节点, 并把复制出的节点替换到父节点(父节点同样先writable)中,
+            即从修改的节点到root的路径复制(path copying), 每个节点在每个快照之后最多复制一次
+            快照只通过children自顶向下读取, 不使用parent/left/right, 因此修改共享节点的这三个字段不影响快照
+            没有打开的快照时sharedEpoch为-1, writable只多一次比较; 快照关闭后旧节点不再被引用, 由GC回收
+
+        阶数自动调整(无参构造方法): 每RETUNE_WINDOW次操作统计一次读写比例, 读占多数时使用更大的阶数(层数更少),
+            写较多时使用插入移动较少的阶数; 需要改变阶数时:
+                1. 创建快照, 在后台线程中用bulkLoad以新的阶数重建整棵树, 当前树继续正常读写
+                2. 重建期间的修改记录在rebuildDelta中(每个key只保留最后一次修改)
+                3. 后续操作发现重建完成后, 把新树的节点换入, 再重放rebuildDelta
+            读写都不需要等待重建, 换入时的停顿只与重建期间修改的key个数有关
+
+        finger: 记录上一次search到达的叶子节点, 下一次search先判断key是否落在该叶子中, 是则不再从root向下搜索
+            判断只使用叶子自身的key: key(0) <= key <= 最后一个key, 最左/最右的叶子分别不检查下界/上界
+            叶子中的key一定在父节点的分隔key之间, 因此通过判断的key一定属于该叶子, 不需要保存分隔key, 分裂/借用后也不会失效
+            叶子被合并删除、被快照复制或整棵树被替换时更新finger; 时间递增的key总是落在最右侧的叶子, 每次put都命中
+        顺序追加时的分裂: 插入位置在最右侧叶子的末尾时, 右边沿上的节点分裂时左侧保留APPEND_SPLIT_RATIO的元素,
+            右侧只留下剩余部分继续接收追加, 单调递增插入时叶子约为90%满, 而不是一半
+ */
 class BPlusTreeMap<K extends Comparable<K>, V> {
 
     NodeGroup<K, V> root;
     NodeGroup<K, V> head;
     int order;
     int halfOrder;
+    int minNumber;
+    // 节点个数小于deleteThreshold时才做合并/借用, 默认等于minNumber
+    int deleteThreshold;
+    int size;
+    long splitCount;
+    long mergeCount;
+    long borrowCount;
+    long copyCount;
+    long epoch;
+    volatile long sharedEpoch = -1;
+    private final TreeSet<Long> openSnapshots = new TreeSet<>();
+    private final TreeMetrics metrics = new TreeMetrics(this::structure);
+
+    /*
+            自动模式的初始阶数与候选阶数, 来自TreeBenchmark(Integer key, 10^5 ~ 10^6个元素, uniform):
+                只读时阶数越大越快, 512比128快约15%; 写占多数时128最好, 512慢约10%
+            key/value都以引用存放在数组中, 节点布局与key的类型无关, 因此只按读写比例选择
+     */
+    static final int AUTO_ORDER = 128;
+    static final int AUTO_READ_ORDER = 512;
+    static final double AUTO_READ_RATIO = 0.9;
+    static final int RETUNE_WINDOW = 1 << 16;
+    // 元素太少时阶数对性能影响很小, 不重建
+    static final int RETUNE_MIN_SIZE = 1 << 12;
+    private static final Object REMOVED = new Object();
+    static final double APPEND_SPLIT_RATIO = 0.9;
+
+    private NodeGroup<K, V> finger;
+    private long fingerHitCount;
+
+    private boolean autoOrder;
+    private long windowReads;
+    private long windowWrites;
+    private long retuneCount;
+    private CompletableFuture<BPlusTreeMap<K, V>> rebuild;
+    private TreeMap<K, Object> rebuildDelta;
+
+    // 自动选择阶数, 并根据读写比例在后台重新调整
+    public BPlusTreeMap() {
+        this(AUTO_ORDER);
+        this.autoOrder = true;
+    }
 
     public BPlusTreeMap(int order) {
         this.order = order;
         this.halfOrder = (this.order + 1) / 2;
+        this.minNumber = this.order / 2;
+        this.deleteThreshold = this.minNumber;
         root = new NodeGroup<>(order, true);
         this.head = root;
     }
 
+    /*
+            宽松删除: 删除时允许节点个数降到deleteThreshold(1 <= deleteThreshold <= order / 2)以下才合并/借用
+            节点在order / 2附近反复删除插入时, 不会每次都在合并和分裂之间来回
+            节点永远不会为空, 搜索不受影响; 需要时调用compact恢复每个节点至少order / 2个元素
+     */
+    public BPlusTreeMap(int order, int deleteThreshold) {
+        this(order);
+        if (deleteThreshold < 1 || deleteThreshold > minNumber) {
+            throw new IllegalArgumentException("deleteThreshold must be in [1, " + minNumber + "]: " + deleteThreshold);
+        }
+        this.deleteThreshold = deleteThreshold;
+    }
+
+    public static <K extends Comparable<K>, V> BPlusTreeMap<K, V> bulkLoad(int order, K[] keys, V[] values, double fillFactor) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length");
+        }
+        return bulkLoad(order, new Iterator<>() {
+            int position;
+
+            @Override
+            public boolean hasNext() {
+                return position < keys.length;
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>(keys[position], values[position]);
+                position++;
+                return entry;
+            }
+        }, fillFactor);
+    }
+
+    /*
+            从严格递增的输入自底向上构建b+树, 只扫描一遍输入:
+                1. 依次填满叶子节点(每个节点order * fillFactor个元素), 同时串起叶子链表
+                2. 逐层向上, 每fill + 1个子节点组成一个索引节点, 直到只剩一个节点作为根
+            最后一个节点不足order / 2时与前一个节点合并或平分, 保证除根节点外都满足最小个数
+     */
+    public static <K extends Comparable<K>, V> BPlusTreeMap<K, V> bulkLoad(int order, Iterator<? extends Map.Entry<K, V>> sorted, double fillFactor) {
+        return bulkLoad(order, sorted, fillFactor, 0);
+    }
+
+    // 所有节点的epoch为epoch
+    private static <K extends Comparable<K>, V> BPlusTreeMap<K, V> bulkLoad(int order, Iterator<? extends Map.Entry<K, V>> sorted, double fillFactor, long epoch) {
+        if (!(fillFactor > 0 && fillFactor <= 1)) {
+            throw new IllegalArgumentException("fillFactor must be in (0, 1]: " + fillFactor);
+        }
+        BPlusTreeMap<K, V> tree = new BPlusTreeMap<>(order);
+        tree.epoch = epoch;
+        tree.root.epoch = epoch;
+        int fill = Math.max(Math.max(tree.minNumber, 1), Math.min(order, (int) Math.round(order * fillFactor)));
+        List<NodeGroup<K, V>> level = new ArrayList<>();
+        NodeGroup<K, V> cur = tree.root;
+        K last = null;
+        while (sorted.hasNext()) {
+            Map.Entry<K, V> entry = sorted.next();
+            K key = entry.getKey();
+            if (last != null && last.compareTo(key) >= 0) {
+                throw new IllegalArgumentException("input is not strictly ascending at key " + key);
+            }
+            if (cur.size == fill) {
+                level.add(cur);
+                NodeGroup<K, V> next = tree.createNodeGroup(true);
+                cur.right = next;
+                next.left = cur;
+                cur = next;
+            }
+            cur.keys[cur.size] = key;
+            cur.values[cur.size] = entry.getValue();
+            cur.size++;
+            tree.size++;
+            last = key;
+        }
+        level.add(cur);
+        if (level.size() > 1 && cur.size < tree.minNumber) {
+            tree.balanceLastLeaf(level);
+        }
+        while (level.size() > 1) {
+            level = tree.buildIndexLevel(level, fill);
+        }
+        tree.root = level.get(0);
+        return tree;
+    }
+
+    private void balanceLastLeaf(List<NodeGroup<K, V>> leaves) {
+        NodeGroup<K, V> last = leaves.get(leaves.size() - 1);
+        NodeGroup<K, V> prev = leaves.get(leaves.size() - 2);
+        if (prev.size + last.size <= order) {
+            System.arraycopy(last.keys, 0, prev.keys, prev.size, last.size);
+            System.arraycopy(last.values, 0, prev.values, prev.size, last.size);
+            prev.size += last.size;
+            prev.right = null;
+            leaves.remove(leaves.size() - 1);
+            return;
+        }
+        int number = (prev.size + last.size) / 2 - last.size;
+        int from = prev.size - number;
+        System.arraycopy(last.keys, 0, last.keys, number, last.size);
+        System.arraycopy(last.values, 0, last.values, number, last.size);
+        System.arraycopy(prev.keys, from, last.keys, 0, number);
+        System.arraycopy(prev.values, from, last.values, 0, number);
+        prev.clear(from, prev.size);
+        prev.size = from;
+        last.size += number;
+    }
+
+    private List<NodeGroup<K, V>> buildIndexLevel(List<NodeGroup<K, V>> children, int fill) {
+        int total = children.size();
+        int per = fill + 1;
+        // 每个索引节点的子节点个数, 最后两个节点在不满足最小个数时重新平分
+        List<Integer> counts = new ArrayList<>();
+        for (int i = 0; i < total; i += per) {
+            counts.add(Math.min(per, total - i));
+        }
+        int lastCount = counts.get(counts.size() - 1);
+        if (counts.size() > 1 && lastCount < minNumber + 1) {
+            int merged = counts.remove(counts.size() - 1) + counts.remove(counts.size() - 1);
+            if (merged <= order + 1) {
+                counts.add(merged);
+            } else {
+                counts.add(merged - merged / 2);
+                counts.add(merged / 2);
+            }
+        }
+        List<NodeGroup<K, V>> parents = new ArrayList<>(counts.size());
+        NodeGroup<K, V> prev = null;
+        int position = 0;
+        for (int count : counts) {
+            NodeGroup<K, V> parent = createNodeGroup(false);
+            for (int i = 0; i < count; i++) {
+                NodeGroup<K, V> child = children.get(position + i);
+                parent.children[i] = child;
+                child.parent = parent;
+                if (i > 0) {
+                    parent.keys[i - 1] = lastKey(children.get(position + i - 1));
+                }
+            }
+            parent.size = count - 1;
+            position += count;
+            parent.left = prev;
+            if (prev != null) {
+                prev.right = parent;
+            }
+            prev = parent;
+            parents.add(parent);
+        }
+        return parents;
+    }
+
+    // 子树中最大的key
+    private K lastKey(NodeGroup<K, V> nodeGroup) {
+        NodeGroup<K, V> cur = nodeGroup;
+        while (!cur.bottom) {
+            cur = cur.children[cur.size];
+        }
+        return cur.key(cur.size - 1);
+    }
+
     public V put(K key, V value) {
-        return putVal(key, value);
+        tick(true);
+        if (rebuild != null) {
+            rebuildDelta.put(key, value);
+        }
+        if (!TreeMetrics.ENABLED) {
+            return putVal(key, value);
+        }
+        long start = System.nanoTime();
+        V res = putVal(key, value);
+        metrics.record(TreeMetrics.Op.PUT, start);
+        return res;
     }
 
     public V remove(K key) {
-        return removeKey(key);
+        tick(true);
+        if (rebuild != null) {
+            rebuildDelta.put(key, REMOVED);
+        }
+        if (!TreeMetrics.ENABLED) {
+            return removeKey(key);
+        }
+        long start = System.nanoTime();
+        V res = removeKey(key);
+        metrics.record(TreeMetrics.Op.REMOVE, start);
+        return res;
     }
 
     public V get(K key) {
-        return getVal(key);
+        tick(false);
+        if (!TreeMetrics.ENABLED) {
+            return getVal(key);
+        }
+        long start = System.nanoTime();
+        V res = getVal(key);
+        metrics.record(TreeMetrics.Op.GET, start);
+        return res;
+    }
+
+    public TreeMetrics metrics() {
+        return metrics;
+    }
+
+    public int order() {
+        return order;
+    }
+
+    // 重建阶数的次数
+    public long retuneCount() {
+        return retuneCount;
+    }
+
+    // 每次操作之前调用: 换入已经完成的重建, 自动模式下统计读写比例
+    private void tick(boolean write) {
+        if (rebuild != null && rebuild.isDone()) {
+            finishRebuild();
+        }
+        if (!autoOrder) {
+            return;
+        }
+        if (write) {
+            windowWrites++;
+        } else {
+            windowReads++;
+        }
+        if (windowReads + windowWrites < RETUNE_WINDOW) {
+            return;
+        }
+        boolean readMostly = windowReads >= AUTO_READ_RATIO * (windowReads + windowWrites);
+        windowReads = 0;
+        windowWrites = 0;
+        int target = readMostly ? AUTO_READ_ORDER : AUTO_ORDER;
+        if (rebuild == null && target != order && size >= RETUNE_MIN_SIZE) {
+            // 读为主时节点填满, 否则留出插入的空间
+            retune(target, readMostly ? 1.0 : 0.75);
+        }
+    }
+
+    /*
+            在后台以newOrder重建整棵树, 不阻塞当前的读写, 之后的某次操作(或awaitRetune)发现重建完成时换入
+            已经有重建在进行时忽略
+     */
+    public void retune(int newOrder, double fillFactor) {
+        if (newOrder < 3) {
+            throw new IllegalArgumentException("order must be at least 3: " + newOrder);
+        }
+        if (!(fillFactor > 0 && fillFactor <= 1)) {
+            throw new IllegalArgumentException("fillFactor must be in (0, 1]: " + fillFactor);
+        }
+        if (rebuild != null) {
+            return;
+        }
+        Snapshot snapshot = snapshot();
+        // 新节点的epoch大于该快照, 换入后不会因为这个快照而被复制
+        long buildEpoch = epoch;
+        rebuildDelta = new TreeMap<>();
+        rebuild = CompletableFuture.supplyAsync(() -> {
+            try (snapshot) {
+                return bulkLoad(newOrder, snapshot.iterator(), fillFactor, buildEpoch);
+            }
+        });
+    }
+
+    // 等待正在进行的重建完成并换入, 重建失败时继续使用当前的树, 并抛出IllegalStateException
+    public void awaitRetune() {
+        if (rebuild == null) {
+            return;
+        }
+        CompletableFuture<BPlusTreeMap<K, V>> pending = rebuild;
+        pending.handle((tree, e) -> null).join();
+        finishRebuild();
+        try {
+            pending.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("background rebuild failed", e.getCause());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void finishRebuild() {
+        BPlusTreeMap<K, V> built;
+        TreeMap<K, Object> delta = rebuildDelta;
+        try {
+            built = rebuild.join();
+        } catch (CompletionException e) {
+            // 重建失败时继续使用当前的树
+            built = null;
+        }
+        rebuild = null;
+        rebuildDelta = null;
+        if (built == null) {
+            return;
+        }
+        boolean defaultThreshold = deleteThreshold == minNumber;
+        this.order = built.order;
+        this.halfOrder = built.halfOrder;
+        this.minNumber = built.minNumber;
+        this.deleteThreshold = defaultThreshold ? minNumber : Math.min(deleteThreshold, minNumber);
+        this.root = built.root;
+        this.head = built.head;
+        this.finger = null;
+        this.size = built.size;
+        retuneCount++;
+        for (Map.Entry<K, Object> entry : delta.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                removeKey(entry.getKey());
+            } else {
+                putVal(entry.getKey(), (V) entry.getValue());
+            }
+        }
+    }
+
+    // 自顶向下遍历统计高度、节点个数与填充率
+    private TreeMetrics.Structure structure() {
+        int height = 0;
+        long nodeCount = 0;
+        long elements = 0;
+        double minFill = 1;
+        List<NodeGroup<K, V>> level = List.of(root);
+        while (!level.isEmpty()) {
+            height++;
+            List<NodeGroup<K, V>> next = new ArrayList<>();
+            for (NodeGroup<K, V> cur : level) {
+                nodeCount++;
+                elements += cur.size;
+                if (cur != root) {
+                    minFill = Math.min(minFill, (double) cur.size / order);
+                }
+                if (!cur.bottom) {
+                    next.addAll(Arrays.asList(cur.children).subList(0, cur.size + 1));
+                }
+            }
+            level = next;
+        }
+        return new TreeMetrics.Structure(height, nodeCount, (double) elements / (nodeCount * order), minFill,
+                splitCount, mergeCount, borrowCount, 0);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long splitCount() {
+        return splitCount;
+    }
+
+    public long mergeCount() {
+        return mergeCount;
+    }
+
+    public long borrowCount() {
+        return borrowCount;
+    }
+
+    // 因为快照而复制的节点个数
+    public long copyCount() {
+        return copyCount;
+    }
+
+    // search直接命中finger的次数
+    public long fingerHitCount() {
+        return fingerHitCount;
+    }
+
+    /*
+            创建当前时刻的只读快照, O(1), 之后对树的修改对快照不可见
+            快照可以交给其他线程读取, 与写线程并发; 用完之后必须close, 否则写操作会一直复制被共享的节点
+     */
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot(root, size, epoch);
+        synchronized (openSnapshots) {
+            openSnapshots.add(epoch);
+            sharedEpoch = epoch;
+        }
+        epoch++;
+        return snapshot;
+    }
+
+    private void closeSnapshot(long snapshotEpoch) {
+        synchronized (openSnapshots) {
+            openSnapshots.remove(snapshotEpoch);
+            sharedEpoch = openSnapshots.isEmpty() ? -1 : openSnapshots.last();
+        }
+    }
+
+    /*
+            返回可以修改的节点: 节点没有被快照共享时直接返回, 否则复制该节点并替换到树中
+                父节点先变为可修改的, 再把children中对应的位置指向复制出的节点
+                子节点的parent、相邻节点的left/right、head与finger都改为指向复制出的节点
+            调用方之前持有的旧节点引用不能再用于修改
+     */
+    private NodeGroup<K, V> writable(NodeGroup<K, V> nodeGroup) {
+        if (nodeGroup.epoch > sharedEpoch) {
+            return nodeGroup;
+        }
+        NodeGroup<K, V> copy = nodeGroup.copy(epoch);
+        copyCount++;
+        if (nodeGroup.parent == null) {
+            this.root = copy;
+        } else {
+            NodeGroup<K, V> parent = writable(nodeGroup.parent);
+            parent.children[parent.indexOf(nodeGroup)] = copy;
+            copy.parent = parent;
+        }
+        if (!copy.bottom) {
+            copy.adoptChildren(0, copy.size + 1);
+        }
+        if (copy.left != null) {
+            copy.left.right = copy;
+        }
+        if (copy.right != null) {
+            copy.right.left = copy;
+        }
+        if (nodeGroup == this.head) {
+            this.head = copy;
+        }
+        if (nodeGroup == this.finger) {
+            this.finger = copy;
+        }
+        return copy;
+    }
+
+    private NodeGroup<K, V> createNodeGroup(boolean bottom) {
+        NodeGroup<K, V> nodeGroup = new NodeGroup<>(order, bottom);
+        nodeGroup.epoch = epoch;
+        return nodeGroup;
     }
 
     private V removeKey(K key) {
         SearchRes<K, V> search = search(key);
-        Node<K, V> temp = getValTemp(search, key);
-        if (temp == null) {
+        if (!search.found(key)) {
             return null;
         }
-        V value = ((Leaf<K, V>) temp).value;
-        solveDelete(search.nodeGroup, search.position);
+        NodeGroup<K, V> nodeGroup = writable(search.nodeGroup);
+        V value = nodeGroup.value(search.position);
+        nodeGroup.removeLeaf(search.position);
+        size--;
+        solveDelete(nodeGroup);
         return value;
     }
 
@@ -54,193 +549,451 @@ class BPlusTreeMap<K extends Comparable<K>, V> {
 
      */
 
-    private void solveDelete(NodeGroup<K, V> nodeGroup, int position) {
-        nodeGroup.nodeList.remove(position);
+    private void solveDelete(NodeGroup<K, V> nodeGroup) {
         NodeGroup<K, V> cur = nodeGroup;
-        while (cur != root && cur.nodeList.size() < halfOrder) {
-            NodeGroup<K, V> left = cur;
-            NodeGroup<K, V> right = cur.right;
-            if (right == null) {
-                left = cur.left;
-                right = cur;
-            }
-            if (left.nodeList.size() + right.nodeList.size() <= order) {
-                cur = solveMerge(left, right);
-                continue;
+        while (cur != root && cur.size < deleteThreshold) {
+            NodeGroup<K, V> survivor = solveUnderflow(cur);
+            if (survivor == null) {
+                break;
             }
-            solveGetNodeFromNeighbor(cur, left);
-            cur = left;
-            break;
+            cur = survivor.parent;
         }
-        solveLastIndexChange(cur);
-        if (cur == root && cur.nodeList.isEmpty() && cur.next != null) {
-            this.root = cur.next;
+        solveShrinkRoot();
+    }
+
+    /*
+            处理一个个数不足的节点, 不向上传递:
+            合并时返回合并后保留的左侧节点(父节点少了一个key), 借用时返回null
+     */
+    private NodeGroup<K, V> solveUnderflow(NodeGroup<K, V> nodeGroup) {
+        NodeGroup<K, V> cur = writable(nodeGroup);
+        NodeGroup<K, V> parent = writable(cur.parent);
+        int index = parent.indexOf(cur);
+        // 只与同一父节点下的相邻节点合并或借用, 优先选择左侧节点
+        NodeGroup<K, V> left = cur;
+        int indexPosition = index;
+        if (index > 0) {
+            left = writable(parent.children[index - 1]);
+            indexPosition = index - 1;
+        }
+        NodeGroup<K, V> right = indexPosition + 1 == index ? cur : writable(parent.children[indexPosition + 1]);
+        int mergeSize = left.size + right.size + (cur.bottom ? 0 : 1);
+        if (mergeSize <= order) {
+            solveMerge(left, right, indexPosition);
+            return left;
+        }
+        solveGetNodeFromNeighbor(cur, left, right, indexPosition);
+        return null;
+    }
+
+    private void solveShrinkRoot() {
+        while (root.size == 0 && !root.bottom) {
+            this.root = root.children[0];
             this.root.parent = null;
         }
     }
 
+    /*
+            整理宽松删除留下的不足order / 2的节点, 从叶子开始逐层向上沿着left/right链表扫描,
+            对每个不足的节点做一次合并或借用, 合并后继续检查合并得到的节点
+            合并后父节点可能只剩一个子节点, 此时立即按删除的规则向上处理, 保证每个节点都有相邻节点
+            每层的起点从当前的root向下查找, 快照存在时节点可能被复制, 不能事先记录
+            整理之后所有非根节点都至少有order / 2个元素
+     */
+    public void compact() {
+        for (int height = 0; height < height(root); height++) {
+            NodeGroup<K, V> cur = root;
+            for (int i = height(root); i > height; i--) {
+                cur = cur.children[0];
+            }
+            while (cur != null) {
+                // 父节点只有一个子节点时父节点一定是根节点, 最后会被移除
+                if (cur != root && cur.size < minNumber && cur.parent.size > 0) {
+                    // 先复制被快照共享的节点, 借用之后cur仍然在树中, 可以继续沿right扫描
+                    cur = writable(cur);
+                    NodeGroup<K, V> survivor = solveUnderflow(cur);
+                    if (survivor != null) {
+                        solveDelete(survivor.parent);
+                        cur = survivor;
+                        continue;
+                    }
+                }
+                cur = cur.right;
+            }
+        }
+        solveShrinkRoot();
+    }
+
+    // 节点到叶子节点的层数, 叶子节点为0
+    private static <K extends Comparable<K>, V> int height(NodeGroup<K, V> nodeGroup) {
+        int height = 0;
+        for (NodeGroup<K, V> cur = nodeGroup; !cur.bottom; cur = cur.children[0]) {
+            height++;
+        }
+        return height;
+    }
 
-    private void solveGetNodeFromNeighbor(NodeGroup<K, V> cur, NodeGroup<K, V> left) {
+    private void solveGetNodeFromNeighbor(NodeGroup<K, V> cur, NodeGroup<K, V> left, NodeGroup<K, V> right, int indexPosition) {
+        borrowCount++;
         if (left == cur) {
-            getNodeFromRight(cur);
+            getNodeFromRight(cur, right, indexPosition);
             return ;
         }
-        getNodeFromLeft(cur);
+        getNodeFromLeft(cur, left, indexPosition);
     }
 
 
-    private void getNodeFromLeft(NodeGroup<K, V> current) {
-        NodeGroup<K, V> left = current.left;
-        int number = halfOrder - current.nodeList.size();
-        List<Node<K, V>> currentRes = new ArrayList<>();
-        for (int i = left.nodeList.size() - number; i < left.nodeList.size(); i++) {
-            Node<K, V> node = left.nodeList.get(i);
-            currentRes.add(node);
-            if (node.next != null) {
-                node.next.parent = current;
-            }
+    private void getNodeFromLeft(NodeGroup<K, V> current, NodeGroup<K, V> left, int indexPosition) {
+        NodeGroup<K, V> parent = current.parent;
+        int number = minNumber - current.size;
+        if (current.bottom) {
+            int from = left.size - number;
+            System.arraycopy(current.keys, 0, current.keys, number, current.size);
+            System.arraycopy(current.values, 0, current.values, number, current.size);
+            System.arraycopy(left.keys, from, current.keys, 0, number);
+            System.arraycopy(left.values, from, current.values, 0, number);
+            left.clear(from, left.size);
+            left.size = from;
+            current.size += number;
+            parent.keys[indexPosition] = left.keys[left.size - 1];
+            return;
+        }
+        // 父节点中的key下移, 左侧节点的key上移
+        int from = left.size - number + 1;
+        System.arraycopy(current.keys, 0, current.keys, number, current.size);
+        System.arraycopy(current.children, 0, current.children, number, current.size + 1);
+        current.keys[number - 1] = parent.keys[indexPosition];
+        System.arraycopy(left.keys, from, current.keys, 0, number - 1);
+        System.arraycopy(left.children, from, current.children, 0, number);
+        parent.keys[indexPosition] = left.keys[from - 1];
+        left.clear(from - 1, left.size);
+        left.size = from - 1;
+        current.size += number;
+        current.adoptChildren(0, number);
+    }
+
+    private void getNodeFromRight(NodeGroup<K, V> current, NodeGroup<K, V> right, int indexPosition) {
+        NodeGroup<K, V> parent = current.parent;
+        int number = minNumber - current.size;
+        if (current.bottom) {
+            System.arraycopy(right.keys, 0, current.keys, current.size, number);
+            System.arraycopy(right.values, 0, current.values, current.size, number);
+            current.size += number;
+            right.removeLeafRange(0, number);
+            parent.keys[indexPosition] = current.keys[current.size - 1];
+            return;
+        }
+        int start = current.size;
+        current.keys[start] = parent.keys[indexPosition];
+        System.arraycopy(right.keys, 0, current.keys, start + 1, number - 1);
+        System.arraycopy(right.children, 0, current.children, start + 1, number);
+        current.size += number;
+        current.adoptChildren(start + 1, start + 1 + number);
+        parent.keys[indexPosition] = right.keys[number - 1];
+        int rest = right.size - number;
+        System.arraycopy(right.keys, number, right.keys, 0, rest);
+        System.arraycopy(right.children, number, right.children, 0, rest + 1);
+        right.clear(rest, right.size);
+        right.size = rest;
+    }
+
+    // 将right合并进left, 删除父节点中两者之间的key
+    private void solveMerge(NodeGroup<K, V> left, NodeGroup<K, V> right, int indexPosition) {
+        mergeCount++;
+        NodeGroup<K, V> parent = left.parent;
+        if (left.bottom) {
+            System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+            System.arraycopy(right.values, 0, left.values, left.size, right.size);
+            left.size += right.size;
+        } else {
+            int start = left.size;
+            left.keys[start] = parent.keys[indexPosition];
+            System.arraycopy(right.keys, 0, left.keys, start + 1, right.size);
+            System.arraycopy(right.children, 0, left.children, start + 1, right.size + 1);
+            left.size += right.size + 1;
+            left.adoptChildren(start + 1, left.size + 1);
+        }
+        left.right = right.right;
+        if (right.right != null) {
+            right.right.left = left;
+        }
+        if (right == finger) {
+            finger = left;
         }
-        currentRes.addAll(current.nodeList);
-        current.nodeList = currentRes;
-        left.nodeList = left.nodeList.subList(0, left.nodeList.size() - number);
+        parent.removeIndex(indexPosition);
     }
 
-    private void getNodeFromRight(NodeGroup<K, V> current) {
-        NodeGroup<K, V> right = current.right;
-        int number = halfOrder - current.nodeList.size();
-        for (int i = 0; i < number; i++) {
-            Node<K, V> node = right.nodeList.get(i);
-            current.nodeList.add(node);
-            if (node.next != null) {
-                node.next.parent = current;
+    /*
+            批量插入: 先按key排序, 每次定位一个叶子节点后, 把落在该叶子范围内的所有key一次性合并进去,
+            然后对该叶子只做一次分裂处理, 不需要每个key都从root向下搜索
+     */
+    public void putAll(Map<? extends K, ? extends V> map) {
+        tick(true);
+        List<Map.Entry<K, V>> batch = new ArrayList<>(map.size());
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            if (rebuild != null) {
+                rebuildDelta.put(entry.getKey(), entry.getValue());
             }
+            batch.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+        }
+        // 自然顺序的SortedMap已经有序且没有重复, 不需要再排序
+        if (!(map instanceof SortedMap && ((SortedMap<?, ?>) map).comparator() == null)) {
+            Comparator<Map.Entry<K, V>> comparator = Map.Entry.comparingByKey();
+            batch.sort(comparator);
+            removeDuplicateKeys(batch, comparator);
+        }
+        int i = 0;
+        while (i < batch.size()) {
+            SearchRes<K, V> searchRes = searchWithUpperBound(batch.get(i).getKey());
+            NodeGroup<K, V> leaf = writable(searchRes.nodeGroup);
+            searchRes.nodeGroup = leaf;
+            K upper = searchRes.upper;
+            int j = i + 1;
+            while (j < batch.size() && (upper == null || batch.get(j).getKey().compareTo(upper) <= 0)) {
+                j++;
+            }
+            if (j - i == 1) {
+                insertNode(batch.get(i).getKey(), batch.get(i).getValue(), searchRes);
+            } else {
+                mergeIntoLeaf(leaf, batch.subList(i, j));
+            }
+            fixAfterInsertion(leaf, false);
+            i = j;
         }
-        right.nodeList = right.nodeList.subList(number, right.nodeList.size());
     }
 
-    private void solveLastIndexChange(NodeGroup<K, V> nodeGroup) {
-        while (nodeGroup != root) {
-            NodeGroup<K, V> parent = nodeGroup.parent;
-            Node<K, V> parentNode = nodeGroup.parentNode;
-            if (parentNode == null) {
-                return;
+    /*
+            批量删除: 同样按叶子节点分组, 一次压缩删除该叶子中所有的key, 再做一次合并/借用
+            返回实际删除的个数
+     */
+    public int removeAll(Collection<? extends K> keys) {
+        tick(true);
+        if (rebuild != null) {
+            for (K key : keys) {
+                rebuildDelta.put(key, REMOVED);
             }
-            K key = nodeGroup.lastNode().key;
-            if (parentNode.key == key) {
-                return ;
+        }
+        List<K> batch = new ArrayList<>(keys);
+        batch.sort(Comparator.naturalOrder());
+        removeDuplicateKeys(batch, Comparator.naturalOrder());
+        int removed = 0;
+        int i = 0;
+        while (i < batch.size()) {
+            SearchRes<K, V> searchRes = searchWithUpperBound(batch.get(i));
+            NodeGroup<K, V> leaf = writable(searchRes.nodeGroup);
+            searchRes.nodeGroup = leaf;
+            K upper = searchRes.upper;
+            int j = i + 1;
+            while (j < batch.size() && (upper == null || batch.get(j).compareTo(upper) <= 0)) {
+                j++;
             }
-            parentNode.key = key;
-            nodeGroup = parent;
+            int number;
+            if (j - i == 1) {
+                number = searchRes.found(batch.get(i)) ? 1 : 0;
+                if (number > 0) {
+                    leaf.removeLeaf(searchRes.position);
+                }
+            } else {
+                number = removeFromLeaf(leaf, batch.subList(i, j));
+            }
+            if (number > 0) {
+                removed += number;
+                size -= number;
+                solveDelete(leaf);
+            }
+            i = j;
         }
+        return removed;
     }
 
-    private NodeGroup<K, V> solveMerge(NodeGroup<K, V> left, NodeGroup<K, V> right) {
-        List<Node<K, V>> temp = new ArrayList<>();
-        temp.addAll(left.nodeList);
-        temp.addAll(right.nodeList);
-        right.nodeList = temp;
-        for (Node<K, V> node : left.nodeList) {
-            if (node.next != null) {
-                node.next.parent = right;
+    // 排序后相邻的相同key只保留最后一个
+    private static <T> void removeDuplicateKeys(List<T> sorted, Comparator<? super T> comparator) {
+        int count = 0;
+        for (T item : sorted) {
+            if (count > 0 && comparator.compare(sorted.get(count - 1), item) == 0) {
+                sorted.set(count - 1, item);
+                continue;
             }
+            sorted.set(count++, item);
         }
-        right.left = left.left;
-        if (left == head) {
-            this.head = right;
+        sorted.subList(count, sorted.size()).clear();
+    }
+
+    // 与search相同, 同时记录叶子节点的上界(路径上最后一个右侧的索引key), 叶子内的key都 <= 上界
+    private SearchRes<K, V> searchWithUpperBound(K key) {
+        NodeGroup<K, V> cur = root;
+        K upper = null;
+        while (!cur.bottom) {
+            int position = cur.searchInsertPosition(key);
+            if (position < cur.size) {
+                upper = cur.key(position);
+            }
+            cur = cur.children[position];
         }
-        if (left.left != null) {
-            left.left.right = right;
+        SearchRes<K, V> searchRes = new SearchRes<>(cur.searchInsertPosition(key), cur);
+        searchRes.upper = upper;
+        return searchRes;
+    }
+
+    // batch已排序且没有重复的key, 先统计新增个数, 再从后向前原地合并
+    private void mergeIntoLeaf(NodeGroup<K, V> leaf, List<Map.Entry<K, V>> batch) {
+        int added = 0;
+        int i = 0;
+        for (Map.Entry<K, V> entry : batch) {
+            while (i < leaf.size && leaf.key(i).compareTo(entry.getKey()) < 0) {
+                i++;
+            }
+            if (i == leaf.size || leaf.key(i).compareTo(entry.getKey()) != 0) {
+                added++;
+            }
         }
-        NodeGroup<K, V> parent = left.parent;
-        int deletePos = parent.searchInsertPosition(left.parentNode.key);
-        parent.nodeList.remove(deletePos);
-        return parent;
+        leaf.ensureCapacity(leaf.size + added);
+        i = leaf.size - 1;
+        int count = leaf.size + added;
+        for (int j = batch.size() - 1; j >= 0; j--) {
+            Map.Entry<K, V> entry = batch.get(j);
+            int compare = -1;
+            while (i >= 0 && (compare = leaf.key(i).compareTo(entry.getKey())) > 0) {
+                count--;
+                leaf.keys[count] = leaf.keys[i];
+                leaf.values[count] = leaf.values[i];
+                i--;
+            }
+            if (i >= 0 && compare == 0) {
+                i--;
+            }
+            count--;
+            leaf.keys[count] = entry.getKey();
+            leaf.values[count] = entry.getValue();
+        }
+        leaf.size += added;
+        size += added;
     }
 
-    private V getVal(K key) {
-        SearchRes<K, V> search = search(key);
-        Node<K, V> temp = getValTemp(search, key);
-        if (temp == null) {
-            return null;
+    private int removeFromLeaf(NodeGroup<K, V> leaf, List<K> batch) {
+        int count = 0;
+        int j = 0;
+        for (int i = 0; i < leaf.size; i++) {
+            K key = leaf.key(i);
+            while (j < batch.size() && batch.get(j).compareTo(key) < 0) {
+                j++;
+            }
+            if (j < batch.size() && batch.get(j).compareTo(key) == 0) {
+                continue;
+            }
+            leaf.keys[count] = leaf.keys[i];
+            leaf.values[count++] = leaf.values[i];
         }
-        return ((Leaf<K, V>) temp).value;
+        int removed = leaf.size - count;
+        leaf.clear(count, leaf.size);
+        leaf.size = count;
+        return removed;
     }
 
-    private Node<K, V> getValTemp(SearchRes<K, V> search, K key) {
-        int position = search.position;
-        NodeGroup<K, V> nodeGroup = search.nodeGroup;
-        if (position >= nodeGroup.nodeList.size()) {
+    private V getVal(K key) {
+        SearchRes<K, V> search = search(key);
+        if (!search.found(key)) {
             return null;
         }
-        if (nodeGroup.nodeList.get(position).key.compareTo(key) == 0) {
-            return nodeGroup.nodeList.get(position);
-        }
-        return null;
+        return search.nodeGroup.value(search.position);
     }
 
     private V putVal(K key, V value) {
-        Leaf<K, V> node = new Leaf<>(key, value);
         SearchRes<K, V> searchRes = search(key);
-        V returnValue = insertNode(node, searchRes.nodeGroup, searchRes.position);
-        this.fixAfterInsertion(searchRes.nodeGroup);
+        boolean append = searchRes.nodeGroup.right == null && searchRes.position == searchRes.nodeGroup.size;
+        V returnValue = insertNode(key, value, searchRes);
+        this.fixAfterInsertion(searchRes.nodeGroup, append);
         return returnValue;
     }
 
     private SearchRes<K, V> search(K key) {
-        NodeGroup<K, V> cur = root;
-        int insertPosition;
-        while (true) {
-            insertPosition = cur.searchInsertPosition(key);
-            if (cur.bottom) {
-                break;
+        NodeGroup<K, V> leaf = finger;
+        if (leaf != null && (leaf.left == null || leaf.key(0).compareTo(key) <= 0)
+                && (leaf.right == null || leaf.key(leaf.size - 1).compareTo(key) >= 0)) {
+            fingerHitCount++;
+            if (TreeMetrics.ENABLED) {
+                metrics.search(2 + TreeMetrics.binarySearchComparisons(leaf.size));
             }
-            if (insertPosition >= cur.nodeList.size()) {
-                cur = cur.next;
-                continue;
+            return new SearchRes<>(leaf.searchInsertPosition(key), leaf);
+        }
+        NodeGroup<K, V> cur = root;
+        int comparisons = 0;
+        while (!cur.bottom) {
+            if (TreeMetrics.ENABLED) {
+                comparisons += TreeMetrics.binarySearchComparisons(cur.size);
             }
-            cur = cur.nodeList.get(insertPosition).next;
+            cur = cur.children[cur.searchInsertPosition(key)];
         }
-        return new SearchRes<>(insertPosition, cur);
+        if (TreeMetrics.ENABLED) {
+            metrics.search(comparisons + TreeMetrics.binarySearchComparisons(cur.size));
+        }
+        finger = cur;
+        return new SearchRes<>(cur.searchInsertPosition(key), cur);
     }
 
     private static class SearchRes<K extends Comparable<K>, V> {
         int position;
         NodeGroup<K, V> nodeGroup;
+        K upper;
 
         public SearchRes(int position, NodeGroup<K, V> nodeGroup) {
             this.position = position;
             this.nodeGroup = nodeGroup;
         }
-    }
 
-    private V insertNode(Node<K, V> node, NodeGroup<K, V> group, int insertPosition) {
-        // 直接加入节点
-        if (insertPosition >= group.nodeList.size()) {
-            group.nodeList.add(node);
-            return null;
+        boolean found(K key) {
+            return position < nodeGroup.size && nodeGroup.key(position).compareTo(key) == 0;
         }
+    }
+
+    // searchRes.nodeGroup会被替换为可以修改的节点, 之后的fixAfterInsertion使用替换后的节点
+    private V insertNode(K key, V value, SearchRes<K, V> searchRes) {
+        NodeGroup<K, V> group = writable(searchRes.nodeGroup);
+        searchRes.nodeGroup = group;
+        int insertPosition = searchRes.position;
         // 替换节点
-        if (group.nodeList.get(insertPosition).key.compareTo(node.key) == 0) {
-            V temp = ((Leaf<K, V>) group.nodeList.get(insertPosition)).value;
-            group.nodeList.set(insertPosition, node);
+        if (searchRes.found(key)) {
+            V temp = group.value(insertPosition);
+            group.values[insertPosition] = value;
             return temp;
         }
         // 插入节点
-        group.nodeList.add(insertPosition, node);
+        group.insertLeaf(insertPosition, key, value);
+        size++;
         return null;
     }
 
-    private List<Node<K, V>> getSplitNodeListLeft(NodeGroup<K, V> cur) {
-        List<Node<K, V>> leftList = new ArrayList<>();
-        List<Node<K, V>> rightList = new ArrayList<>();
-        for (int i = 0; i < halfOrder; i++) {
-            leftList.add(cur.nodeList.get(i));
+    /*
+            将前halfOrder个元素移入左侧节点, 返回需要上移到父节点的key
+            append为true时(最右侧节点只多出末尾的一个元素)左侧节点保留APPEND_SPLIT_RATIO的元素
+     */
+    private K getSplitNodeListLeft(NodeGroup<K, V> cur, NodeGroup<K, V> left, boolean append) {
+        splitCount++;
+        int number = halfOrder;
+        if (cur.size > 2 * order) {
+            // 批量插入后节点可能超出很多, 此时直接切出装满的左侧节点
+            number = order;
+        } else if (append) {
+            number = Math.max(halfOrder, Math.min(cur.size - 1, (int) (order * APPEND_SPLIT_RATIO)));
         }
-        for (int i = halfOrder; i < cur.nodeList.size(); i++) {
-            rightList.add(cur.nodeList.get(i));
+        if (cur.bottom) {
+            System.arraycopy(cur.keys, 0, left.keys, 0, number);
+            System.arraycopy(cur.values, 0, left.values, 0, number);
+            left.size = number;
+            cur.removeLeafRange(0, number);
+            return left.key(number - 1);
         }
-        cur.nodeList = rightList;
-        return leftList;
+        K indexKey = cur.key(number);
+        System.arraycopy(cur.keys, 0, left.keys, 0, number);
+        System.arraycopy(cur.children, 0, left.children, 0, number + 1);
+        left.size = number;
+        left.adoptChildren(0, number + 1);
+        int rest = cur.size - number - 1;
+        System.arraycopy(cur.keys, number + 1, cur.keys, 0, rest);
+        System.arraycopy(cur.children, number + 1, cur.children, 0, rest + 1);
+        cur.clear(rest, cur.size);
+        cur.size = rest;
+        return indexKey;
     }
 
     /*
@@ -248,52 +1001,52 @@ class BPlusTreeMap<K extends Comparable<K>, V> {
 
         (0, 1, 2, 3)        ->                 (1)
                                         （0, 1）-> (2, 3）
+                批量插入时一个节点可能超出很多, 在本层连续分裂直到满足限制后再处理父节点,
+                这样每个节点只需要处理一次
+                append表示key追加在最右侧叶子的末尾, 此时右边沿上的节点按顺序追加的方式分裂
      */
-    private void fixAfterInsertion(NodeGroup<K, V> nodeGroup) {
+    private void fixAfterInsertion(NodeGroup<K, V> nodeGroup, boolean append) {
         NodeGroup<K, V> cur = nodeGroup;
         // 确保每个节点中元素都 < 度数
-        while (cur.nodeList.size() > this.order) {
-            // 分裂节点
-            List<Node<K, V>> splitNodeListLeft = getSplitNodeListLeft(cur);
-            NodeGroup<K, V> nodeGroupLeft = createSplitNodeGroup(cur, splitNodeListLeft);
-            Node<K, V> indexNode = createIndexNode(nodeGroupLeft);
-            if (cur.parent == null) {
-                // 创建新的根节点
-                solveCreateNewRoot(indexNode, cur);
-                return;
+        while (cur != null && cur.size > this.order) {
+            while (cur.size > this.order) {
+                // 分裂节点
+                NodeGroup<K, V> nodeGroupLeft = createSplitNodeGroup(cur);
+                K indexKey = getSplitNodeListLeft(cur, nodeGroupLeft, append && cur.right == null && cur.size == order + 1);
+                if (cur.parent == null) {
+                    // 创建新的根节点
+                    solveCreateNewRoot(indexKey, nodeGroupLeft, cur);
+                    continue;
+                }
+                solveInsertIndexNodeToParentGroup(cur, indexKey, nodeGroupLeft);
             }
+            cur.trim(order);
             // 向上传递
-            cur = solveInsertIndexNodeToParentGroup(cur.parent, indexNode);
+            cur = cur.parent;
         }
     }
 
-    private NodeGroup<K, V> solveInsertIndexNodeToParentGroup(NodeGroup<K, V> parent, Node<K, V> indexNode) {
-        int insertPosition = parent.searchInsertPosition(indexNode.key);
-        parent.nodeList.add(insertPosition, indexNode);
-        indexNode.next.parent = parent;
+    private NodeGroup<K, V> solveInsertIndexNodeToParentGroup(NodeGroup<K, V> cur, K indexKey, NodeGroup<K, V> nodeGroupLeft) {
+        NodeGroup<K, V> parent = writable(cur.parent);
+        parent.insertIndex(parent.indexOf(cur), indexKey, nodeGroupLeft);
+        nodeGroupLeft.parent = parent;
         return parent;
     }
 
 
-    private void solveCreateNewRoot(Node<K, V> indexNode, NodeGroup<K, V> rightGroup) {
-        NodeGroup<K, V> newRoot = new NodeGroup<>(order, false);
-        newRoot.nodeList = new ArrayList<>();
-        newRoot.nodeList.add(indexNode);
-        indexNode.next.parent = newRoot;
-        newRoot.next = rightGroup;
+    private void solveCreateNewRoot(K indexKey, NodeGroup<K, V> leftGroup, NodeGroup<K, V> rightGroup) {
+        NodeGroup<K, V> newRoot = createNodeGroup(false);
+        newRoot.keys[0] = indexKey;
+        newRoot.children[0] = leftGroup;
+        newRoot.children[1] = rightGroup;
+        newRoot.size = 1;
+        leftGroup.parent = newRoot;
         rightGroup.parent = newRoot;
         this.root = newRoot;
     }
 
-    private Node<K, V> createIndexNode(NodeGroup<K, V> nodeGroupLeft) {
-        Node<K, V> node = new Node<>();
-        node.key = nodeGroupLeft.lastNode().key;
-        node.setNext(nodeGroupLeft);
-        return node;
-    }
-
-    private NodeGroup<K, V> createSplitNodeGroup(NodeGroup<K, V> cur, List<Node<K, V>> nodeList) {
-        NodeGroup<K, V> nodeGroupLeft = new NodeGroup<>(order, cur.bottom);
+    private NodeGroup<K, V> createSplitNodeGroup(NodeGroup<K, V> cur) {
+        NodeGroup<K, V> nodeGroupLeft = createNodeGroup(cur.bottom);
         NodeGroup<K, V> temp = cur.left;
         nodeGroupLeft.right = cur;
         // 维护双向链表
@@ -302,31 +1055,521 @@ class BPlusTreeMap<K extends Comparable<K>, V> {
         if (temp != null) {
             temp.right = nodeGroupLeft;
         }
-        nodeGroupLeft.nodeList = nodeList;
         if (cur == this.head) {
             this.head = nodeGroupLeft;
         }
-        // 更新parent指针
-        for (Node<K, V> node : nodeGroupLeft.nodeList) {
-            if (node.next != null) {
-                node.next.parent = nodeGroupLeft;
-            }
-        }
         return nodeGroupLeft;
     }
 
     public List<K> keySet() {
-        List<K> res = new ArrayList<>();
+        List<K> res = new ArrayList<>(size);
         NodeGroup<K, V> cur = head;
         while (cur != null) {
-            for (Node<K, V> node : cur.nodeList) {
-                res.add(node.key);
+            for (int i = 0; i < cur.size; i++) {
+                res.add(cur.key(i));
             }
             cur = cur.right;
         }
         return res;
     }
 
+    // [from, to)
+    public RangeView subMap(K from, K to) {
+        return new RangeView(from, to);
+    }
+
+    // [head, to)
+    public RangeView headMap(K to) {
+        return new RangeView(null, to);
+    }
+
+    // [from, tail]
+    public RangeView tailMap(K from) {
+        return new RangeView(from, null);
+    }
+
+    public Cursor cursor() {
+        return new Cursor(null, null);
+    }
+
+    // 可以分裂的遍历, 用于并行流; 遍历期间修改树, 行为是未定义的
+    public Spliterator<Map.Entry<K, V>> spliterator() {
+        return new EntrySpliterator<>(root, null, null, size);
+    }
+
+    public Stream<Map.Entry<K, V>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /*
+            区间视图, 不复制任何数据, 每次遍历都是一次search定位加上沿叶子链表的顺序扫描
+            from为null表示没有下界, to为null表示没有上界
+     */
+    public class RangeView implements Iterable<Map.Entry<K, V>> {
+        private final K from;
+        private final K to;
+
+        private RangeView(K from, K to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        // 构造时已经定位到第一个元素之前
+        public Cursor cursor() {
+            return new Cursor(from, to);
+        }
+
+        // 先与边界比较, 只有范围内的key才做一次查找
+        public V get(K key) {
+            if ((from != null && key.compareTo(from) < 0) || (to != null && key.compareTo(to) >= 0)) {
+                return null;
+            }
+            return BPlusTreeMap.this.get(key);
+        }
+
+        @Override
+        public Spliterator<Map.Entry<K, V>> spliterator() {
+            return new EntrySpliterator<>(root, from, to, size);
+        }
+
+        public Stream<Map.Entry<K, V>> stream() {
+            return StreamSupport.stream(spliterator(), false);
+        }
+
+        public List<K> keySet() {
+            List<K> res = new ArrayList<>();
+            Cursor cursor = cursor();
+            while (cursor.next()) {
+                res.add(cursor.key());
+            }
+            return res;
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            Cursor cursor = cursor();
+            return new Iterator<>() {
+                boolean ready;
+                boolean hasNext;
+
+                @Override
+                public boolean hasNext() {
+                    if (!ready) {
+                        hasNext = cursor.next();
+                        ready = true;
+                    }
+                    return hasNext;
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    ready = false;
+                    return new AbstractMap.SimpleImmutableEntry<>(cursor.key(), cursor.value());
+                }
+            };
+        }
+    }
+
+    /*
+            双向游标, 位置处于两个元素之间:
+                next() 越过右侧元素并停在该元素上, prev() 越过左侧元素并停在该元素上
+                key()/value() 返回最近一次越过的元素
+            seek只做一次自顶向下的search, 之后沿着叶子节点的left/right链表移动, 不会复制数据
+            游标存在期间修改树, 游标的行为是未定义的
+     */
+    public class Cursor {
+        private final K low;
+        private final K high;
+        private NodeGroup<K, V> group;
+        private int position;
+        private NodeGroup<K, V> currentGroup;
+        private int current;
+
+        private Cursor(K low, K high) {
+            this.low = low;
+            this.high = high;
+            seekFirst();
+        }
+
+        // 定位到第一个 >= key 的元素之前
+        public void seek(K key) {
+            if (low != null && key.compareTo(low) < 0) {
+                key = low;
+            }
+            SearchRes<K, V> search = search(key);
+            this.group = search.nodeGroup;
+            this.position = search.position;
+            this.currentGroup = null;
+        }
+
+        public void seekFirst() {
+            if (low != null) {
+                seek(low);
+                return;
+            }
+            this.group = head;
+            this.position = 0;
+            this.currentGroup = null;
+        }
+
+        public void seekLast() {
+            if (high != null) {
+                seek(high);
+                return;
+            }
+            NodeGroup<K, V> cur = root;
+            while (!cur.bottom) {
+                cur = cur.children[cur.size];
+            }
+            this.group = cur;
+            this.position = cur.size;
+            this.currentGroup = null;
+        }
+
+        public boolean next() {
+            while (position >= group.size) {
+                if (group.right == null) {
+                    return false;
+                }
+                group = group.right;
+                position = 0;
+            }
+            if (high != null && group.key(position).compareTo(high) >= 0) {
+                return false;
+            }
+            currentGroup = group;
+            current = position++;
+            return true;
+        }
+
+        public boolean prev() {
+            while (position <= 0) {
+                if (group.left == null) {
+                    return false;
+                }
+                group = group.left;
+                position = group.size;
+            }
+            if (low != null && group.key(position - 1).compareTo(low) < 0) {
+                return false;
+            }
+            currentGroup = group;
+            current = --position;
+            return true;
+        }
+
+        public K key() {
+            checkCurrent();
+            return currentGroup.key(current);
+        }
+
+        public V value() {
+            checkCurrent();
+            return currentGroup.value(current);
+        }
+
+        private void checkCurrent() {
+            if (currentGroup == null) {
+                throw new NoSuchElementException();
+            }
+        }
+    }
+
+    /*
+            按内部节点的边界分裂的Spliterator, 只通过children自顶向下访问, 也可以用于快照
+            栈中第i层为nodes[i]中[positions[i], ends[i])还没有访问的部分, 索引节点是children的下标, 叶子节点是元素的下标
+            越深的层越靠前; 分裂时找到还有剩余的最浅的一层, 把它的前一半和更深的层一起分出去:
+                (root, 1, 5) (a, 2, 3) (leaf, 0, 7)  ->  前一半: (root, 1, 3) (a, 2, 3) (leaf, 0, 7)
+                                                         剩余:   (root, 3, 5)
+                该层只剩一个子节点时只分出更深的层, 没有更深的层时进入该子节点再分裂
+            [from, to)为key的范围, null表示没有限制; 初始化时按from定位, 与to的查找路径相同的层直接截断,
+            其余部分在遍历时与to比较
+     */
+    private static final class EntrySpliterator<K extends Comparable<K>, V> implements Spliterator<Map.Entry<K, V>> {
+        private final NodeGroup<K, V>[] nodes;
+        private final int[] positions;
+        private final int[] ends;
+        private int depth;
+        private final K to;
+        private long est;
+
+        @SuppressWarnings("unchecked")
+        private EntrySpliterator(int levels, K to, long est) {
+            this.nodes = (NodeGroup<K, V>[]) new NodeGroup<?, ?>[levels];
+            this.positions = new int[levels];
+            this.ends = new int[levels];
+            this.to = to;
+            this.est = est;
+        }
+
+        EntrySpliterator(NodeGroup<K, V> root, K from, K to, long est) {
+            this(height(root) + 1, to, est);
+            NodeGroup<K, V> cur = root;
+            boolean onToPath = to != null;
+            while (true) {
+                int position = from == null ? 0 : cur.searchInsertPosition(from);
+                int end = cur.bottom ? cur.size : cur.size + 1;
+                if (onToPath) {
+                    int toPosition = cur.searchInsertPosition(to);
+                    end = cur.bottom ? toPosition : toPosition + 1;
+                    onToPath = toPosition == position;
+                }
+                if (cur.bottom) {
+                    push(cur, position, end);
+                    return;
+                }
+                push(cur, position + 1, end);
+                if (position >= end) {
+                    return;
+                }
+                cur = cur.children[position];
+            }
+        }
+
+        private void push(NodeGroup<K, V> nodeGroup, int position, int end) {
+            nodes[depth] = nodeGroup;
+            positions[depth] = position;
+            ends[depth] = end;
+            depth++;
+        }
+
+        // 栈顶为叶子节点并且还有元素时返回true, 否则弹出访问完的节点, 进入下一个子节点
+        private boolean toLeaf() {
+            while (depth > 0) {
+                int top = depth - 1;
+                NodeGroup<K, V> cur = nodes[top];
+                if (positions[top] >= ends[top]) {
+                    nodes[top] = null;
+                    depth--;
+                    continue;
+                }
+                if (cur.bottom) {
+                    return true;
+                }
+                NodeGroup<K, V> child = cur.children[positions[top]++];
+                push(child, 0, child.bottom ? child.size : child.size + 1);
+            }
+            return false;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action) {
+            if (!toLeaf()) {
+                return false;
+            }
+            int top = depth - 1;
+            NodeGroup<K, V> leaf = nodes[top];
+            int position = positions[top]++;
+            K key = leaf.key(position);
+            if (to != null && key.compareTo(to) >= 0) {
+                depth = 0;
+                return false;
+            }
+            action.accept(new AbstractMap.SimpleImmutableEntry<>(key, leaf.value(position)));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action) {
+            while (toLeaf()) {
+                int top = depth - 1;
+                NodeGroup<K, V> leaf = nodes[top];
+                int end = ends[top];
+                for (int i = positions[top]; i < end; i++) {
+                    K key = leaf.key(i);
+                    if (to != null && key.compareTo(to) >= 0) {
+                        depth = 0;
+                        return;
+                    }
+                    action.accept(new AbstractMap.SimpleImmutableEntry<>(key, leaf.value(i)));
+                }
+                positions[top] = end;
+            }
+        }
+
+        @Override
+        public Spliterator<Map.Entry<K, V>> trySplit() {
+            // 最浅的还有剩余的一层, 越浅的层一个子节点包含的元素越多
+            int level = 0;
+            while (level < depth && positions[level] >= ends[level]) {
+                level++;
+            }
+            if (level == depth) {
+                return null;
+            }
+            EntrySpliterator<K, V> prefix = new EntrySpliterator<>(nodes.length, to, est >>>= 1);
+            if (ends[level] - positions[level] >= 2) {
+                int mid = (positions[level] + ends[level]) >>> 1;
+                prefix.push(nodes[level], positions[level], mid);
+                positions[level] = mid;
+            } else if (!hasDeeper(level)) {
+                // 只剩下一个子节点时进入该子节点再分裂
+                depth = level + 1;
+                if (nodes[level].bottom) {
+                    return null;
+                }
+                est <<= 1;
+                NodeGroup<K, V> child = nodes[level].children[positions[level]++];
+                push(child, 0, child.bottom ? child.size : child.size + 1);
+                return trySplit();
+            }
+            // 更深的层都在前面, 与前一半一起分出去; 这一层只剩一个子节点时只分出更深的层
+            for (int i = level + 1; i < depth; i++) {
+                prefix.push(nodes[i], positions[i], ends[i]);
+                nodes[i] = null;
+            }
+            depth = level + 1;
+            return prefix;
+        }
+
+        private boolean hasDeeper(int level) {
+            for (int i = level + 1; i < depth; i++) {
+                if (positions[i] < ends[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public long estimateSize() {
+            return est;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL;
+        }
+
+        @Override
+        public Comparator<? super Map.Entry<K, V>> getComparator() {
+            return Map.Entry.comparingByKey();
+        }
+    }
+
+    /*
+            只读快照, 保存创建时的root, 节点不会再被修改, 可以与写线程并发读取
+            只通过children自顶向下访问, 遍历使用保存了祖先节点的栈, 不使用parent/left/right
+            close之后不能再使用
+     */
+    public class Snapshot implements AutoCloseable, Iterable<Map.Entry<K, V>> {
+        private final NodeGroup<K, V> root;
+        private final int size;
+        private final long epoch;
+        private volatile boolean closed;
+
+        private Snapshot(NodeGroup<K, V> root, int size, long epoch) {
+            this.root = root;
+            this.size = size;
+            this.epoch = epoch;
+        }
+
+        public V get(K key) {
+            checkOpen();
+            NodeGroup<K, V> cur = root;
+            while (!cur.bottom) {
+                cur = cur.children[cur.searchInsertPosition(key)];
+            }
+            int position = cur.searchInsertPosition(key);
+            if (position < cur.size && cur.key(position).compareTo(key) == 0) {
+                return cur.value(position);
+            }
+            return null;
+        }
+
+        public int size() {
+            checkOpen();
+            return size;
+        }
+
+        public List<K> keySet() {
+            List<K> res = new ArrayList<>(size);
+            for (Map.Entry<K, V> entry : this) {
+                res.add(entry.getKey());
+            }
+            return res;
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            checkOpen();
+            return new Iterator<>() {
+                // stack[i]为第i层的节点, positions[i]为该节点中下一个访问的位置
+                final List<NodeGroup<K, V>> stack = new ArrayList<>();
+                final List<Integer> positions = new ArrayList<>();
+
+                {
+                    push(root);
+                }
+
+                private void push(NodeGroup<K, V> nodeGroup) {
+                    stack.add(nodeGroup);
+                    positions.add(0);
+                }
+
+                @Override
+                public boolean hasNext() {
+                    checkOpen();
+                    while (!stack.isEmpty()) {
+                        int last = stack.size() - 1;
+                        NodeGroup<K, V> cur = stack.get(last);
+                        int position = positions.get(last);
+                        if (cur.bottom ? position < cur.size : position <= cur.size) {
+                            if (cur.bottom) {
+                                return true;
+                            }
+                            positions.set(last, position + 1);
+                            push(cur.children[position]);
+                            continue;
+                        }
+                        stack.remove(last);
+                        positions.remove(last);
+                    }
+                    return false;
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    int last = stack.size() - 1;
+                    NodeGroup<K, V> leaf = stack.get(last);
+                    int position = positions.get(last);
+                    positions.set(last, position + 1);
+                    return new AbstractMap.SimpleImmutableEntry<>(leaf.key(position), leaf.value(position));
+                }
+            };
+        }
+
+        @Override
+        public Spliterator<Map.Entry<K, V>> spliterator() {
+            checkOpen();
+            return new EntrySpliterator<>(root, null, null, size);
+        }
+
+        public Stream<Map.Entry<K, V>> stream() {
+            return StreamSupport.stream(spliterator(), false);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                closeSnapshot(epoch);
+            }
+        }
+
+        private void checkOpen() {
+            if (closed) {
+                throw new IllegalStateException("snapshot is closed");
+            }
+        }
+    }
+
     public void print() {
         List<NodeGroup<K, V>> queue = new ArrayList<>();
         queue.add(root);
@@ -334,101 +1577,95 @@ class BPlusTreeMap<K extends Comparable<K>, V> {
         while (!queue.isEmpty()) {
             List<NodeGroup<K, V>> temp = new ArrayList<>();
             for (NodeGroup<K, V> nodeGroup : queue) {
-                if (nodeGroup.nodeList != null) {
-                    for (Node<K, V> node : nodeGroup.nodeList) {
-                        if (node.next != null) {
-                            System.out.print(node.next);
-                            temp.add(node.next);
-                        }
-                    }
+                if (nodeGroup.bottom) {
+                    continue;
                 }
-                if (nodeGroup.next != null) {
-                    System.out.print(nodeGroup.next);
-                    temp.add(nodeGroup.next);
+                for (int i = 0; i <= nodeGroup.size; i++) {
+                    System.out.print(nodeGroup.children[i]);
+                    temp.add(nodeGroup.children[i]);
                 }
             }
             System.out.print("\n");
             queue = temp;
         }
     }
-
+    // 性能测试见TreeBenchmark
     public static void main(String[] args) {
-
-        BPlusTreeMap<Integer, Integer> bPlusTreeMap = new BPlusTreeMap<>(100);
-        List<Integer> mockData = new ArrayList<>();
-        int testNumber = 2000000;
-        System.out.println("-------------------------------性能测试：" + testNumber + "个元素随机插入，查询，删除----------------------------------" );
-        for (int i = 0; i < testNumber; i++) {
-            mockData.add(i);
-        }
-        Collections.shuffle(mockData);
-        long startTime = System.currentTimeMillis();
-        for (Integer item : mockData) {
-            bPlusTreeMap.put(item, item);
-        }
-        System.out.println("b+树插入用时:" + (System.currentTimeMillis() - startTime));
-        Collections.shuffle(mockData);
-        startTime = System.currentTimeMillis();
-        for (Integer item : mockData) {
-            bPlusTreeMap.get(item);
-        }
-        System.out.println("b+树查询用时:" + (System.currentTimeMillis() - startTime));
-        Collections.shuffle(mockData);
-        startTime = System.currentTimeMillis();
-        for (int i = 0; i < mockData.size() - 20; i++) {
-            bPlusTreeMap.remove(mockData.get(i));
-        }
-        System.out.println("b+树删除用时:" + (System.currentTimeMillis() - startTime));
-        List<Integer> res = mockData.subList(mockData.size() - 20, mockData.size());
-        res.sort(Comparator.comparingInt(integer -> integer));
-        System.out.println(res);
-        System.out.println(bPlusTreeMap.keySet());
-
+        TreeBenchmark.main(new String[]{"impl=BPlusTreeMap,TreeMap"});
     }
 
 
     private static class NodeGroup<K extends Comparable<K>, V> {
-        List<Node<K, V>> nodeList;
+        Object[] keys;
+        Object[] values;
+        NodeGroup<K, V>[] children;
+        int size;
         NodeGroup<K, V> parent;
-        NodeGroup<K, V> next;
         NodeGroup<K, V> left;
         NodeGroup<K, V> right;
-        Node<K, V> parentNode;
-        int order;
         boolean bottom;
+        // 创建节点时树的epoch, 不大于sharedEpoch时可能被快照共享
+        long epoch;
 
         @Override
         public String toString() {
-            return nodeList.toString();
+            return Arrays.toString(Arrays.copyOf(keys, size));
         }
 
+        @SuppressWarnings("unchecked")
         public NodeGroup(int order, boolean bottom) {
-            this.order = order;
-            this.nodeList = new ArrayList<>();
+            // 允许临时多出一个元素, 随后在fixAfterInsertion中分裂
+            this.keys = new Object[order + 1];
             this.bottom = bottom;
+            if (bottom) {
+                this.values = new Object[order + 1];
+            } else {
+                this.children = (NodeGroup<K, V>[]) new NodeGroup<?, ?>[order + 2];
+            }
+        }
+
+        private NodeGroup(NodeGroup<K, V> source) {
+            this.bottom = source.bottom;
         }
 
-        public Node<K, V> lastNode() {
-            // 正常来讲不可能出现这种情况
-            if (nodeList == null || nodeList.isEmpty()) {
-                System.out.println("error");
-                return new Node<>();
+        // 复制keys/values/children, parent/left/right由调用方重新连接
+        NodeGroup<K, V> copy(long epoch) {
+            NodeGroup<K, V> copy = new NodeGroup<>(this);
+            copy.keys = keys.clone();
+            if (bottom) {
+                copy.values = values.clone();
+            } else {
+                copy.children = children.clone();
             }
-            return nodeList.get(nodeList.size() - 1);
+            copy.size = size;
+            copy.parent = parent;
+            copy.left = left;
+            copy.right = right;
+            copy.epoch = epoch;
+            return copy;
         }
 
+        @SuppressWarnings("unchecked")
+        K key(int position) {
+            return (K) keys[position];
+        }
+
+        @SuppressWarnings("unchecked")
+        V value(int position) {
+            return (V) values[position];
+        }
 
         private int searchInsertPosition(K key) {
             // 二分搜索，搜索最左侧出现的位置
             int left = 0;
-            int right = nodeList.size();
+            int right = size;
             while (left < right) {
-                int mid = (left + right) / 2;
-                K midKey = nodeList.get(mid).key;
+                int mid = (left + right) >>> 1;
+                K midKey = key(mid);
                 if (midKey == key) {
                     return mid;
                 }
-                if (midKey.compareTo(key) > 0) {
+                if (midKey.compareTo(key) >= 0) {
                     right = mid;
                     continue;
                 }
@@ -436,32 +1673,94 @@ class BPlusTreeMap<K extends Comparable<K>, V> {
             }
             return right;
         }
-    }
 
-    private static class Node<K extends Comparable<K>, V> {
-        K key;
-        NodeGroup<K, V> next;
+        int indexOf(NodeGroup<K, V> child) {
+            for (int i = 0; i <= size; i++) {
+                if (children[i] == child) {
+                    return i;
+                }
+            }
+            return -1;
+        }
 
-        @Override
-        public String toString() {
-            return key.toString();
+        void insertLeaf(int position, K key, V value) {
+            System.arraycopy(keys, position, keys, position + 1, size - position);
+            System.arraycopy(values, position, values, position + 1, size - position);
+            keys[position] = key;
+            values[position] = value;
+            size++;
         }
 
-        private void setNext(NodeGroup<K, V> nodeGroup) {
-            this.next = nodeGroup;
-            if (nodeGroup != null) {
-                nodeGroup.parentNode = this;
+        void removeLeaf(int position) {
+            removeLeafRange(position, position + 1);
+        }
+
+        void removeLeafRange(int from, int to) {
+            System.arraycopy(keys, to, keys, from, size - to);
+            System.arraycopy(values, to, values, from, size - to);
+            int newSize = size - (to - from);
+            clear(newSize, size);
+            size = newSize;
+        }
+
+        // 在position处插入key, child作为key左侧的子节点
+        void insertIndex(int position, K key, NodeGroup<K, V> child) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                children = Arrays.copyOf(children, size * 2 + 1);
+            }
+            System.arraycopy(keys, position, keys, position + 1, size - position);
+            System.arraycopy(children, position, children, position + 1, size + 1 - position);
+            keys[position] = key;
+            children[position] = child;
+            size++;
+        }
+
+        // 删除position处的key以及其右侧的子节点
+        void removeIndex(int position) {
+            System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+            System.arraycopy(children, position + 2, children, position + 1, size - position - 1);
+            keys[size - 1] = null;
+            children[size] = null;
+            size--;
+        }
+
+        void adoptChildren(int from, int to) {
+            for (int i = from; i < to; i++) {
+                children[i].parent = this;
             }
         }
-    }
 
-    private static class Leaf<K extends Comparable<K>, V> extends Node<K, V> {
-        V value;
+        void ensureCapacity(int capacity) {
+            if (capacity <= keys.length) {
+                return;
+            }
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
 
-        public Leaf(K key, V value) {
-            this.key = key;
-            this.value = value;
+        // 批量插入时数组可能被扩容, 分裂完成后恢复到正常大小
+        void trim(int order) {
+            if (keys.length <= order + 1) {
+                return;
+            }
+            keys = Arrays.copyOf(keys, order + 1);
+            if (bottom) {
+                values = Arrays.copyOf(values, order + 1);
+            } else {
+                children = Arrays.copyOf(children, order + 2);
+            }
+        }
+
+        // 清空[from, to)中的引用, 避免已经移走的key/value无法回收
+        void clear(int from, int to) {
+            Arrays.fill(keys, from, to, null);
+            if (bottom) {
+                Arrays.fill(values, from, to, null);
+            } else {
+                Arrays.fill(children, from + 1, to + 1, null);
+            }
         }
     }
 
-}
\ No newline at end of file
+}
@@ -1,5 +1,4 @@
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 public class BTreeMap<K extends Comparable<K>, V> {
@@ -12,6 +11,24 @@ public class BTreeMap<K extends Comparable<K>, V> {
 
     private NodeGroup<K, V> root = null;
 
+    // structural counters, always maintained, exported through metrics
+    private long splitCount;
+
+    private long mergeCount;
+
+    private long borrowCount;
+
+    private final TreeMetrics metrics = new TreeMetrics(this::structure);
+
+    // default order for the no-arg constructor, measured with TreeBenchmark (Integer keys, 10^6 entries, uniform):
+    // 256 is fastest for both read-only and write-heavy mixes, fewer levels means fewer pointer hops.
+    // there is no bulk build for this tree, so the order is not re-tuned later
+    static final int AUTO_ORDER = 256;
+
+    public BTreeMap() {
+        this(AUTO_ORDER);
+    }
+
     public BTreeMap(int order) {
         this.order = order;
         this.minNumber = this.order / 2;
@@ -19,11 +36,77 @@ public class BTreeMap<K extends Comparable<K>, V> {
     }
 
     public V put(K key, V value) {
-        return putVal(key, value);
+        if (!TreeMetrics.ENABLED) {
+            return putVal(key, value);
+        }
+        long start = System.nanoTime();
+        V res = putVal(key, value);
+        metrics.record(TreeMetrics.Op.PUT, start);
+        return res;
     }
 
     public V remove(K key) {
-        return removeKey(key);
+        if (!TreeMetrics.ENABLED) {
+            return removeKey(key);
+        }
+        long start = System.nanoTime();
+        V res = removeKey(key);
+        metrics.record(TreeMetrics.Op.REMOVE, start);
+        return res;
+    }
+
+    public V get(K key) {
+        if (!TreeMetrics.ENABLED) {
+            return getVal(key);
+        }
+        long start = System.nanoTime();
+        V res = getVal(key);
+        metrics.record(TreeMetrics.Op.GET, start);
+        return res;
+    }
+
+    public TreeMetrics metrics() {
+        return metrics;
+    }
+
+    private V getVal(K key) {
+        if (root == null) {
+            return null;
+        }
+        FindResult<K, V> findResult = find(new Node<>(key, null));
+        return findResult.findSame ? findResult.nodeGroup.nodeList.get(findResult.position).value : null;
+    }
+
+    // walk the tree level by level to compute height, node count and fill
+    private TreeMetrics.Structure structure() {
+        int height = 0;
+        long nodeCount = 0;
+        long elements = 0;
+        double minFill = 1;
+        List<NodeGroup<K, V>> level = root == null ? List.of() : List.of(root);
+        while (!level.isEmpty()) {
+            height++;
+            List<NodeGroup<K, V>> next = new ArrayList<>();
+            for (NodeGroup<K, V> group : level) {
+                nodeCount++;
+                elements += group.nodeList.size();
+                if (group != root) {
+                    minFill = Math.min(minFill, (double) group.nodeList.size() / maxNumber);
+                }
+                for (Node<K, V> node : group.nodeList) {
+                    if (node.minorNodeGroup != null) {
+                        next.add(node.minorNodeGroup);
+                    }
+                }
+                if (group.nextNode != null) {
+                    next.add(group.nextNode);
+                }
+            }
+            level = next;
+        }
+        double averageFill = nodeCount == 0 ? 0 : (double) elements / (nodeCount * maxNumber);
+        return new TreeMetrics.Structure(height, nodeCount, averageFill, minFill,
+                splitCount, mergeCount, borrowCount, 0);
     }
 
     private V removeKey(K key) {
@@ -81,6 +164,7 @@ public class BTreeMap<K extends Comparable<K>, V> {
 
                 // get node from brother node then we're done
                 // it just equals tree rotate
+                borrowCount++;
                 if (brotherLeft) {
                     // just get kid from left node group
                     Node<K, V> waitMove = brotherNodeGroup.nodeList.removeLast();
@@ -117,6 +201,7 @@ public class BTreeMap<K extends Comparable<K>, V> {
             }
 
             // do merge
+            mergeCount++;
             int midNodePosition;
 
             if (brotherLeft) {
@@ -297,6 +382,7 @@ public class BTreeMap<K extends Comparable<K>, V> {
                 return;
             }
 
+            splitCount++;
             NodeGroup<K, V> nodeGroupSplit = new NodeGroup<>(order);
 
             nodeGroup.nodeList.add(position, node);
@@ -359,46 +445,29 @@ public class BTreeMap<K extends Comparable<K>, V> {
         }
     }
 
+    // benchmark lives in TreeBenchmark
     public static void main(String[] args) {
-        BTreeMap<Integer, Integer> map = new BTreeMap<>(3);
-        List<Integer> data = new ArrayList<>();
-        int testNumber = 1000000;
-        for (int i = 0; i < testNumber; i++) {
-            data.add(i);
-        }
-        long startTime = System.currentTimeMillis();
-        Collections.shuffle(data);
-        for (Integer item : data) {
-            map.put(item, item);
-        }
-        System.out.println(System.currentTimeMillis() - startTime);
-
-        Collections.shuffle(data);
-        startTime = System.currentTimeMillis();
-        for (int i = 0; i < testNumber - 100; i++) {
-            map.remove(data.get(i));
-        }
-        System.out.println(System.currentTimeMillis() - startTime);
-        System.out.println(map.list());
-        List<Integer> list = data.subList(testNumber - 100, testNumber);
-        Collections.sort(list);
-        System.out.println(list);
-
+        TreeBenchmark.main(new String[]{"impl=BTreeMap,TreeMap"});
     }
 
     private FindResult<K, V> find(Node<K, V> node) {
         NodeGroup<K, V> current = root;
+        int comparisons = 0;
         for (; ; ) {
             int position = current.search(node);
+            if (TreeMetrics.ENABLED) {
+                // binary search plus the equality check below
+                comparisons += TreeMetrics.binarySearchComparisons(current.nodeList.size()) + 1;
+            }
 
             // if this result node group is empty just return
             if (current.nodeList.isEmpty()) {
-                return new FindResult<>(current, position, false);
+                return searched(new FindResult<>(current, position, false), comparisons);
             }
 
             // if we find same key node stop search and return this node
             if (position < current.nodeList.size() && judgeKeySame(current.nodeList.get(position), node)) {
-                return new FindResult<>(current, position, true);
+                return searched(new FindResult<>(current, position, true), comparisons);
             }
 
             NodeGroup<K, V> nextNodeGroup = null;
@@ -410,7 +479,7 @@ public class BTreeMap<K extends Comparable<K>, V> {
             }
 
             if (nextNodeGroup == null) {
-                return new FindResult<>(current, position, false);
+                return searched(new FindResult<>(current, position, false), comparisons);
             }
 
             // update current Node and find again
@@ -418,6 +487,13 @@ public class BTreeMap<K extends Comparable<K>, V> {
         }
     }
 
+    private FindResult<K, V> searched(FindResult<K, V> findResult, int comparisons) {
+        if (TreeMetrics.ENABLED) {
+            metrics.search(comparisons);
+        }
+        return findResult;
+    }
+
     private boolean judgeKeySame(Node<K, V> a, Node<K, V> b) {
         return a.key.compareTo(b.key) == 0;
     }
@@ -457,11 +533,11 @@ public class BTreeMap<K extends Comparable<K>, V> {
             int right = nodeList.size();
             while (left < right) {
                 int mid = (left + right) / 2;
-                K midKey = nodeList.get(mid).key;
-                if (midKey.compareTo(node.key) == 0) {
+                int compare = nodeList.get(mid).key.compareTo(node.key);
+                if (compare == 0) {
                     return mid;
                 }
-                if (midKey.compareTo(node.key) > 0) {
+                if (compare > 0) {
                     right = mid;
                     continue;
                 }
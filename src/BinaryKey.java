@@ -0,0 +1,65 @@
+import java.util.Arrays;
+
+/*
+        KeyCodec编码后的key, 按无符号字节的字典序比较, 与编码前的顺序相同
+        前8个字节预先组合成一个long(大端, 不足8个字节时补0), 多数比较只需要一次无符号long比较
+        前缀相同时: 任意一方不足8个字节说明短的一方是长的一方的前缀, 按长度比较; 否则从第8个字节开始逐字节比较
+        类为final, 树中所有key都是同一个类, compareTo调用点是单态的, 可以被JIT内联
+ */
+final class BinaryKey implements Comparable<BinaryKey> {
+
+    private final byte[] bytes;
+    private final long prefix;
+
+    BinaryKey(byte[] bytes) {
+        this.bytes = bytes;
+        long res = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            res = (res << 8) | (i < bytes.length ? bytes[i] & 0xFF : 0);
+        }
+        this.prefix = res;
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    public byte[] toByteArray() {
+        return bytes.clone();
+    }
+
+    // 供KeyCodec解码, 不复制
+    byte[] bytes() {
+        return bytes;
+    }
+
+    @Override
+    public int compareTo(BinaryKey other) {
+        if (prefix != other.prefix) {
+            return Long.compareUnsigned(prefix, other.prefix);
+        }
+        if (bytes.length <= Long.BYTES || other.bytes.length <= Long.BYTES) {
+            return Integer.compare(bytes.length, other.bytes.length);
+        }
+        return Arrays.compareUnsigned(bytes, Long.BYTES, bytes.length, other.bytes, Long.BYTES, other.bytes.length);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BinaryKey && prefix == ((BinaryKey) o).prefix && Arrays.equals(bytes, ((BinaryKey) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder res = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            res.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return res.toString();
+    }
+}
@@ -0,0 +1,242 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/*
+        有上限的页缓存, 通过FileChannel读写文件, 缓存的页数由字节预算决定, 与文件大小无关
+        所有页框(frame)在创建时一次性分配(直接内存, 按SLAB_FRAMES个页框一块), 之后不再分配
+
+        淘汰策略为LRU-2: 记录每个页最近两次被pin的时间, 淘汰倒数第二次访问最早的页
+            只被访问过一次的页(倒数第二次访问时间为0)最先被淘汰, 它们之间按最近一次访问排序
+            顺序扫描叶子节点时每个叶子只访问一次, 不会把反复访问的索引节点挤出缓存
+            相关访问: 连续两次pin同一个页(中间没有pin其他页)属于同一次访问, 只更新最近一次访问的时间,
+                例如put/remove先在搜索路径上pin叶子, 再pin它修改; 否则每次只写一个叶子也会让它看起来被访问了两次
+            被淘汰的页在history中保留最近一次访问的时间(最多capacity个页), 再次载入时作为倒数第二次访问:
+                否则刚载入的页总是先被淘汰, 永远等不到第二次访问, 缓存会一直被很久以前访问过两次的页占满
+        被pin住的页不参与淘汰, 脏页在淘汰和flush时写回文件
+        不是线程安全的, 与PagedBPlusTreeMap一样由单个线程使用
+ */
+class BufferPool implements PageStore {
+
+    private static final int SLAB_FRAMES = 1024;
+    private static final int MIN_FRAMES = 8;
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final Frame[] frames;
+    private final Map<Integer, Frame> pageTable = new HashMap<>();
+    // 可以被淘汰的页框(没有被pin住), 第一个是下一个被淘汰的
+    private final TreeSet<Frame> evictable = new TreeSet<>(Comparator.<Frame>comparingLong(frame -> frame.previousAccess)
+            .thenComparingLong(frame -> frame.lastAccess)
+            .thenComparingInt(frame -> frame.index));
+    // 被淘汰的页最近一次访问的时间, 按淘汰顺序只保留最近的frames.length个
+    private final Map<Integer, Long> history;
+    private int used;
+    private long clock;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writes;
+
+    public BufferPool(Path file, int pageSize, long budgetBytes) throws IOException {
+        long count = budgetBytes / pageSize;
+        if (count < MIN_FRAMES) {
+            throw new IllegalArgumentException("budget " + budgetBytes + " holds fewer than " + MIN_FRAMES + " pages");
+        }
+        if (count > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("budget too large: " + budgetBytes);
+        }
+        this.pageSize = pageSize;
+        this.frames = new Frame[(int) count];
+        this.history = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+                return size() > frames.length;
+            }
+        };
+        List<ByteBuffer> slabs = new ArrayList<>();
+        for (int i = 0; i < frames.length; i += SLAB_FRAMES) {
+            slabs.add(ByteBuffer.allocateDirect(Math.min(SLAB_FRAMES, frames.length - i) * pageSize));
+        }
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new Frame(i, slabs.get(i / SLAB_FRAMES).slice((i % SLAB_FRAMES) * pageSize, pageSize));
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public int pageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public ByteBuffer pin(int pageId) {
+        Frame frame = pageTable.get(pageId);
+        if (frame != null) {
+            hits++;
+            if (frame.pinCount == 0) {
+                evictable.remove(frame);
+            }
+        } else {
+            misses++;
+            frame = allocateFrame();
+            frame.pageId = pageId;
+            Long last = history.remove(pageId);
+            frame.previousAccess = 0;
+            frame.lastAccess = last == null ? 0 : last;
+            read(frame);
+            pageTable.put(pageId, frame);
+        }
+        frame.pinCount++;
+        if (frame.lastAccess != clock) {
+            frame.previousAccess = frame.lastAccess;
+        }
+        frame.lastAccess = ++clock;
+        return frame.buffer;
+    }
+
+    @Override
+    public void unpin(int pageId, boolean dirty) {
+        Frame frame = pageTable.get(pageId);
+        if (frame == null || frame.pinCount == 0) {
+            throw new IllegalStateException("page " + pageId + " is not pinned");
+        }
+        frame.dirty |= dirty;
+        if (--frame.pinCount == 0) {
+            evictable.add(frame);
+        }
+    }
+
+    // 优先使用空闲页框, 没有时淘汰一个没有被pin住的页
+    private Frame allocateFrame() {
+        if (used < frames.length) {
+            return frames[used++];
+        }
+        Frame victim = evictable.pollFirst();
+        if (victim == null) {
+            throw new IllegalStateException("all " + frames.length + " pages are pinned");
+        }
+        evictions++;
+        if (victim.dirty) {
+            write(victim);
+        }
+        pageTable.remove(victim.pageId);
+        history.put(victim.pageId, victim.lastAccess);
+        return victim;
+    }
+
+    // 超出文件长度的部分读作0
+    private void read(Frame frame) {
+        ByteBuffer buffer = frame.buffer.clear();
+        long position = (long) frame.pageId * pageSize;
+        try {
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, position + buffer.position());
+                if (n < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        buffer.clear();
+    }
+
+    private void write(Frame frame) {
+        ByteBuffer buffer = frame.buffer.duplicate().clear();
+        long position = (long) frame.pageId * pageSize;
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        frame.dirty = false;
+        writes++;
+    }
+
+    @Override
+    public void flush() {
+        for (int i = 0; i < used; i++) {
+            if (frames[i].dirty) {
+                write(frames[i]);
+            }
+        }
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int capacity() {
+        return frames.length;
+    }
+
+    public long hitCount() {
+        return hits;
+    }
+
+    public long missCount() {
+        return misses;
+    }
+
+    public long evictionCount() {
+        return evictions;
+    }
+
+    public long writeCount() {
+        return writes;
+    }
+
+    public double hitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{capacity=" + frames.length + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", writes=" + writes + "}";
+    }
+
+    private static final class Frame {
+        final int index;
+        final ByteBuffer buffer;
+        int pageId;
+        int pinCount;
+        boolean dirty;
+        // 最近两次被pin的时间, 0表示没有
+        long previousAccess;
+        long lastAccess;
+
+        Frame(int index, ByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,503 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+        线程安全的b+树, 使用乐观锁耦合(optimistic lock coupling)
+        每个节点有一个版本号(最低位为写锁标记):
+            读: 记录版本号 -> 读取节点内容 -> 校验版本号, 版本变化说明读取期间被修改, 重新读取当前节点
+                读操作全程不加锁, 也不写任何共享数据
+            写: 只把需要修改的节点的版本号通过CAS升级为写锁, 解锁时版本号 + 2
+        B-link: 每层节点都通过right串成链表, 并记录high key(节点中key的上界, 包括high key, 最右侧的节点为null)
+            分裂只会把节点的后半部分移到右侧的新节点, 节点的下界不变, 所以读操作在节点被修改后不需要回到根节点:
+            重新读取当前节点, key大于high key时沿right向右移动即可, 分裂不会让查找从头开始
+        插入时沿路径提前分裂已满的节点, 每次分裂只锁住父节点和当前节点, 分裂后写操作重新开始,
+        因此不会出现连锁分裂需要同时锁住多层节点的情况
+        keySet沿叶子链表扫描, 不会阻塞写操作
+        删除: 叶子节点变空时并入同一个父节点下的左兄弟(见removeLast), 父节点的第一个叶子节点没有这样的左兄弟, 变空后保留;
+            非空的叶子节点不合并, 索引节点不合并也不回收, 因此每个索引节点下最多留下一个空叶子节点
+        key必须是不可变对象
+ */
+class ConcurrentBPlusTreeMap<K extends Comparable<K>, V> {
+
+    private static final Object RESTART = new Object();
+
+    private final int order;
+    private final LongAdder size = new LongAdder();
+    private volatile Node<K, V> root;
+
+    public ConcurrentBPlusTreeMap(int order) {
+        if (order < 3) {
+            throw new IllegalArgumentException("order must be at least 3: " + order);
+        }
+        this.order = order;
+        this.root = new Node<>(order, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        for (; ; ) {
+            Object res = tryGet(key);
+            if (res != RESTART) {
+                return (V) res;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        for (; ; ) {
+            Object res = tryPut(key, value);
+            if (res != RESTART) {
+                return (V) res;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(K key) {
+        for (; ; ) {
+            Object res = tryRemove(key);
+            if (res != RESTART) {
+                return (V) res;
+            }
+        }
+    }
+
+    public int size() {
+        return size.intValue();
+    }
+
+    /*
+            只有到达被回收的空叶子节点时才从根节点重新开始, 其余情况都在当前节点重试或者向右移动
+     */
+    private Object tryGet(K key) {
+        Node<K, V> node = root;
+        long version = node.readLock();
+        for (; ; ) {
+            if (node.dead) {
+                return RESTART;
+            }
+            boolean beyond = node.beyond(key);
+            if (node.bottom && !beyond) {
+                int position = node.searchInsertPosition(key);
+                Object value = position >= 0 && node.sameKey(position, key) ? node.values[position] : null;
+                if (position >= 0 && node.validate(version)) {
+                    return value;
+                }
+                version = node.readLock();
+                continue;
+            }
+            Node<K, V> next = beyond ? node.right : node.child(key);
+            // 锁耦合: 先拿到下一个节点的版本号, 再校验当前节点, 保证下一个节点是在当前节点的这个版本中读到的
+            long nextVersion = next == null ? 0 : next.readLock();
+            if (next == null || !node.validate(version)) {
+                version = node.readLock();
+                continue;
+            }
+            node = next;
+            version = nextVersion;
+        }
+    }
+
+    private Object tryPut(K key, V value) {
+        Node<K, V> node = root;
+        long version = node.readLock();
+        if (node != root) {
+            return RESTART;
+        }
+        Node<K, V> parent = null;
+        long parentVersion = 0;
+        for (; ; ) {
+            if (node.size == order) {
+                solveSplit(node, version, parent, parentVersion);
+                return RESTART;
+            }
+            if (node.bottom) {
+                break;
+            }
+            Node<K, V> child = node.child(key);
+            if (child == null) {
+                return RESTART;
+            }
+            long childVersion = child.readLock();
+            if (!node.validate(version)) {
+                return RESTART;
+            }
+            parent = node;
+            parentVersion = version;
+            node = child;
+            version = childVersion;
+        }
+        if (!node.tryWriteLock(version)) {
+            return RESTART;
+        }
+        int position = node.searchInsertPosition(key);
+        Object old = null;
+        if (position < node.size && node.sameKey(position, key)) {
+            old = node.values[position];
+            node.values[position] = value;
+        } else {
+            node.insertLeaf(position, key, value);
+            size.increment();
+        }
+        node.writeUnlock();
+        return old;
+    }
+
+    private Object tryRemove(K key) {
+        Node<K, V> node = root;
+        long version = node.readLock();
+        if (node != root) {
+            return RESTART;
+        }
+        Node<K, V> parent = null;
+        long parentVersion = 0;
+        while (!node.bottom) {
+            Node<K, V> child = node.child(key);
+            if (child == null) {
+                return RESTART;
+            }
+            long childVersion = child.readLock();
+            if (!node.validate(version)) {
+                return RESTART;
+            }
+            parent = node;
+            parentVersion = version;
+            node = child;
+            version = childVersion;
+        }
+        if (parent != null && node.size == 1) {
+            return removeLast(node, version, parent, parentVersion, key);
+        }
+        if (!node.tryWriteLock(version)) {
+            return RESTART;
+        }
+        int position = node.searchInsertPosition(key);
+        Object old = null;
+        if (position < node.size && node.sameKey(position, key)) {
+            old = node.values[position];
+            node.removeLeaf(position);
+            size.decrement();
+        }
+        node.writeUnlock();
+        return old;
+    }
+
+    /*
+            删除叶子节点中可能是最后一个的元素, 节点变空时并入左兄弟:
+                左兄弟的high key扩大为该节点的high key, right跳过该节点, 父节点删除两者之间的索引key
+                该节点标记为dead, 之后读到它的读操作从根节点重新开始; 节点保留自己的right, 正在扫描的keySet仍然可以继续
+            左兄弟在父节点中确定, 锁住父节点时两者之间不会插入新的节点; 节点是父节点的第一个子节点时只删除元素
+            按父节点, 左兄弟, 当前节点的顺序加锁, 加锁都不等待, 任意一个失败就释放已经持有的锁并重新开始
+     */
+    private Object removeLast(Node<K, V> leaf, long version, Node<K, V> parent, long parentVersion, K key) {
+        if (!parent.tryWriteLock(parentVersion)) {
+            return RESTART;
+        }
+        int index = parent.indexOf(leaf);
+        Node<K, V> left = index > 0 ? parent.children[index - 1] : null;
+        if (left != null && !left.tryWriteLock()) {
+            parent.writeUnlock();
+            return RESTART;
+        }
+        if (!leaf.tryWriteLock(version)) {
+            if (left != null) {
+                left.writeUnlock();
+            }
+            parent.writeUnlock();
+            return RESTART;
+        }
+        int position = leaf.searchInsertPosition(key);
+        Object old = null;
+        if (position < leaf.size && leaf.sameKey(position, key)) {
+            old = leaf.values[position];
+            leaf.removeLeaf(position);
+            size.decrement();
+            if (left != null && leaf.size == 0) {
+                left.highKey = leaf.highKey;
+                left.right = leaf.right;
+                leaf.dead = true;
+                parent.removeIndex(index - 1);
+            }
+        }
+        leaf.writeUnlock();
+        if (left != null) {
+            left.writeUnlock();
+        }
+        parent.writeUnlock();
+        return old;
+    }
+
+    /*
+            分裂已满的节点: 先锁父节点再锁当前节点, 任意一个版本号已经变化就放弃, 由调用方重新开始
+            新节点放在右侧, 父节点在路径上已经保证不满, 一定能放下新的索引key
+     */
+    private void solveSplit(Node<K, V> node, long version, Node<K, V> parent, long parentVersion) {
+        if (parent != null && !parent.tryWriteLock(parentVersion)) {
+            return;
+        }
+        if (!node.tryWriteLock(version)) {
+            if (parent != null) {
+                parent.writeUnlock();
+            }
+            return;
+        }
+        if (parent == null && node != root) {
+            node.writeUnlock();
+            return;
+        }
+        Node<K, V> right = new Node<>(order, node.bottom);
+        Object indexKey = node.bottom ? node.splitLeaf(right) : node.splitIndex(right);
+        if (parent == null) {
+            Node<K, V> newRoot = new Node<>(order, false);
+            newRoot.keys[0] = indexKey;
+            newRoot.children[0] = node;
+            newRoot.children[1] = right;
+            newRoot.size = 1;
+            // 旧的根节点已经有了high key和right, 还停留在旧根节点上的读操作向右移动即可
+            root = newRoot;
+        } else {
+            parent.insertIndex(parent.indexOf(node), indexKey, right);
+        }
+        node.writeUnlock();
+        if (parent != null) {
+            parent.writeUnlock();
+        }
+    }
+
+    /*
+            弱一致的有序遍历: 沿叶子链表逐个读取节点, 每个节点单独校验版本号
+            遍历期间的并发修改可能看到也可能看不到, 但结果始终有序且没有重复
+     */
+    public List<K> keySet() {
+        List<K> res = new ArrayList<>();
+        Node<K, V> leaf = firstLeaf();
+        K last = null;
+        while (leaf != null) {
+            long version = leaf.readLock();
+            int count = Math.min(leaf.size, leaf.keys.length);
+            Object[] keys = Arrays.copyOf(leaf.keys, count);
+            Node<K, V> next = leaf.right;
+            if (!leaf.validate(version)) {
+                continue;
+            }
+            for (Object item : keys) {
+                @SuppressWarnings("unchecked")
+                K key = (K) item;
+                if (last == null || key.compareTo(last) > 0) {
+                    res.add(key);
+                    last = key;
+                }
+            }
+            leaf = next;
+        }
+        return res;
+    }
+
+    private Node<K, V> firstLeaf() {
+        for (; ; ) {
+            Node<K, V> node = root;
+            long version = node.readLock();
+            while (node != null && !node.bottom) {
+                Node<K, V> child = node.children[0];
+                long childVersion = child == null ? 0 : child.readLock();
+                if (child == null || !node.validate(version)) {
+                    node = null;
+                    break;
+                }
+                node = child;
+                version = childVersion;
+            }
+            if (node != null) {
+                return node;
+            }
+        }
+    }
+
+    private static final class Node<K extends Comparable<K>, V> {
+
+        private static final VarHandle VERSION;
+
+        static {
+            try {
+                VERSION = MethodHandles.lookup().findVarHandle(Node.class, "version", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        // 最低位为1表示被写锁锁住
+        volatile long version;
+        final boolean bottom;
+        final Object[] keys;
+        final Object[] values;
+        final Node<K, V>[] children;
+        int size;
+        // 同一层右侧的节点, 以及节点中key的上界(null表示没有上界)
+        Node<K, V> right;
+        Object highKey;
+        // 空叶子节点被并入左兄弟后为true, 不再变回false
+        boolean dead;
+
+        @SuppressWarnings("unchecked")
+        Node(int order, boolean bottom) {
+            this.bottom = bottom;
+            this.keys = new Object[order];
+            this.values = bottom ? new Object[order] : null;
+            this.children = bottom ? null : (Node<K, V>[]) new Node<?, ?>[order + 1];
+        }
+
+        long readLock() {
+            long current;
+            while (((current = version) & 1) != 0) {
+                Thread.onSpinWait();
+            }
+            return current;
+        }
+
+        // 先保证之前的读取不会被重排到校验之后, 再比较版本号
+        boolean validate(long expected) {
+            VarHandle.acquireFence();
+            return version == expected;
+        }
+
+        boolean tryWriteLock(long expected) {
+            return VERSION.compareAndSet(this, expected, expected + 1);
+        }
+
+        // 不知道版本号时加锁, 已经被锁住时直接失败
+        boolean tryWriteLock() {
+            long current = version;
+            return (current & 1) == 0 && VERSION.compareAndSet(this, current, current + 1);
+        }
+
+        void writeUnlock() {
+            version = version + 1;
+        }
+
+        /*
+                二分搜索第一个 >= key 的位置
+                读取时节点可能正在被修改, 看到未写入的空位时返回-1, 由调用方重新开始
+         */
+        @SuppressWarnings("unchecked")
+        int searchInsertPosition(K key) {
+            int left = 0;
+            int right = Math.min(size, keys.length);
+            while (left < right) {
+                int mid = (left + right) >>> 1;
+                K midKey = (K) keys[mid];
+                if (midKey == null) {
+                    return -1;
+                }
+                if (midKey.compareTo(key) < 0) {
+                    left = mid + 1;
+                } else {
+                    right = mid;
+                }
+            }
+            return left;
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean sameKey(int position, K key) {
+            if (position >= Math.min(size, keys.length)) {
+                return false;
+            }
+            K cur = (K) keys[position];
+            return cur != null && cur.compareTo(key) == 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean beyond(K key) {
+            Object high = highKey;
+            return high != null && key.compareTo((K) high) > 0;
+        }
+
+        Node<K, V> child(K key) {
+            int position = searchInsertPosition(key);
+            return position < 0 ? null : children[position];
+        }
+
+        int indexOf(Node<K, V> child) {
+            for (int i = 0; i <= size; i++) {
+                if (children[i] == child) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void insertLeaf(int position, K key, V value) {
+            System.arraycopy(keys, position, keys, position + 1, size - position);
+            System.arraycopy(values, position, values, position + 1, size - position);
+            keys[position] = key;
+            values[position] = value;
+            size++;
+        }
+
+        void removeLeaf(int position) {
+            System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+            System.arraycopy(values, position + 1, values, position, size - position - 1);
+            size--;
+            keys[size] = null;
+            values[size] = null;
+        }
+
+        // 索引key插入position, child放在key的右侧
+        void insertIndex(int position, Object key, Node<K, V> child) {
+            System.arraycopy(keys, position, keys, position + 1, size - position);
+            System.arraycopy(children, position + 1, children, position + 2, size - position);
+            keys[position] = key;
+            children[position + 1] = child;
+            size++;
+        }
+
+        // 删除索引key以及它右侧的子节点
+        void removeIndex(int position) {
+            System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+            System.arraycopy(children, position + 2, children, position + 1, size - position - 1);
+            size--;
+            keys[size] = null;
+            children[size + 1] = null;
+        }
+
+        // 后半部分移入right, 返回上移到父节点的key, 也是分裂后当前节点的high key
+        Object splitLeaf(Node<K, V> right) {
+            int half = size / 2;
+            int number = size - half;
+            System.arraycopy(keys, half, right.keys, 0, number);
+            System.arraycopy(values, half, right.values, 0, number);
+            right.size = number;
+            right.highKey = this.highKey;
+            right.right = this.right;
+            this.right = right;
+            Arrays.fill(keys, half, size, null);
+            Arrays.fill(values, half, size, null);
+            size = half;
+            this.highKey = keys[half - 1];
+            return highKey;
+        }
+
+        Object splitIndex(Node<K, V> right) {
+            int half = size / 2;
+            Object indexKey = keys[half];
+            int number = size - half - 1;
+            System.arraycopy(keys, half + 1, right.keys, 0, number);
+            System.arraycopy(children, half + 1, right.children, 0, number + 1);
+            right.size = number;
+            right.highKey = this.highKey;
+            right.right = this.right;
+            this.right = right;
+            Arrays.fill(keys, half, size, null);
+            Arrays.fill(children, half + 1, size + 1, null);
+            size = half;
+            this.highKey = indexKey;
+            return indexKey;
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+        堆外内存中的页, 不对应任何文件, 按块(slab)分配直接内存, 每块SLAB_PAGES个页
+        堆上只保留每块一个ByteBuffer对象, 元素再多堆占用也几乎不变, GC不需要扫描任何key/value
+        flush不做任何事情, close之后内存在ByteBuffer被回收时释放
+ */
+class DirectPageStore implements PageStore {
+
+    private static final int SLAB_PAGES = 1024;
+
+    private final int pageSize;
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+
+    public DirectPageStore(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public int pageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public ByteBuffer pin(int pageId) {
+        int index = pageId / SLAB_PAGES;
+        while (slabs.size() <= index) {
+            slabs.add(ByteBuffer.allocateDirect(SLAB_PAGES * pageSize));
+        }
+        return slabs.get(index).slice((pageId % SLAB_PAGES) * pageSize, pageSize);
+    }
+
+    @Override
+    public void unpin(int pageId, boolean dirty) {
+    }
+
+    // 已分配的堆外内存字节数
+    public long allocatedBytes() {
+        return (long) slabs.size() * SLAB_PAGES * pageSize;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+        slabs.clear();
+    }
+}
@@ -0,0 +1,208 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/*
+        带预写日志的BPlusTreeMap, 目录中有两个文件:
+            snapshot: 最近一次checkpoint时的全部元素, 按key递增排列
+            wal:      checkpoint之后的全部修改
+        put/remove先在锁内追加日志再修改内存中的树, 追加失败时树不变; 释放锁之后再等待日志落盘, 多个线程的写入合并为一次force
+        修改在落盘之前就对其他线程可见, 但调用返回时一定已经落盘
+
+        checkpoint: 把全部元素写入临时文件并force, 原子地替换snapshot, force目录保证替换已经落盘(平台不支持时跳过), 最后清空日志
+            替换之后清空之前崩溃也没有关系, 按顺序重放put/remove的结果与snapshot相同
+        日志超过checkpointBytes时由写入线程自动checkpoint, 保证日志大小有上限
+        打开时从snapshot批量构建树, 再重放日志
+ */
+class DurableBPlusTreeMap<K extends Comparable<K>, V> implements Closeable {
+
+    private static final int MAGIC = 0x42505353;
+    private static final String SNAPSHOT = "snapshot";
+    private static final String LOG = "wal";
+
+    private final Path directory;
+    private final PageSerializer<K> keySerializer;
+    private final PageSerializer<V> valueSerializer;
+    private final long checkpointBytes;
+    private final WriteAheadLog<K, V> log;
+    private BPlusTreeMap<K, V> tree;
+
+    public DurableBPlusTreeMap(Path directory, int order, PageSerializer<K> keySerializer, PageSerializer<V> valueSerializer, long checkpointBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.checkpointBytes = checkpointBytes;
+        this.tree = loadSnapshot(order);
+        this.log = new WriteAheadLog<>(directory.resolve(LOG), keySerializer, valueSerializer);
+        log.replay(tree);
+    }
+
+    public V put(K key, V value) {
+        V old;
+        long lsn;
+        synchronized (this) {
+            lsn = log.append(WriteAheadLog.PUT, key, value);
+            old = tree.put(key, value);
+        }
+        commit(lsn);
+        return old;
+    }
+
+    public V remove(K key) {
+        V old;
+        long lsn;
+        synchronized (this) {
+            lsn = log.append(WriteAheadLog.REMOVE, key, null);
+            old = tree.remove(key);
+            // key不存在时日志中多了一条重放时没有效果的记录, 不需要等待它落盘
+            if (old == null) {
+                return null;
+            }
+        }
+        commit(lsn);
+        return old;
+    }
+
+    public synchronized V get(K key) {
+        return tree.get(key);
+    }
+
+    public synchronized int size() {
+        return tree.size();
+    }
+
+    private void commit(long lsn) {
+        log.sync(lsn);
+        if (log.size() >= checkpointBytes) {
+            synchronized (this) {
+                // 可能已经被其他线程checkpoint过
+                if (log.size() >= checkpointBytes) {
+                    checkpoint();
+                }
+            }
+        }
+    }
+
+    public synchronized void checkpoint() {
+        log.sync(log.position());
+        Path tmp = directory.resolve(SNAPSHOT + ".tmp");
+        try {
+            writeSnapshot(tmp);
+            Files.move(tmp, directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        forceDirectory();
+        log.truncate();
+    }
+
+    /*
+            rename是目录的修改, 不force目录时崩溃后可能还是旧的snapshot, 而日志已经清空
+            有的平台(如Windows)不能打开或者force目录, 此时跳过这一步, 与Lucene的IOUtils.fsync相同
+     */
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // 尽力而为, 失败时不影响checkpoint
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        log.close();
+    }
+
+    // snapshot格式: magic | count(long) | key/value ...
+    private void writeSnapshot(Path file) throws IOException {
+        int entrySize = keySerializer.size() + valueSerializer.size();
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(1 << 16, entrySize + Integer.BYTES + Long.BYTES));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.putInt(MAGIC);
+            buffer.putLong(tree.size());
+            BPlusTreeMap<K, V>.Cursor cursor = tree.cursor();
+            while (cursor.next()) {
+                if (buffer.remaining() < entrySize) {
+                    drain(channel, buffer);
+                }
+                int start = buffer.position();
+                keySerializer.write(buffer, start, cursor.key());
+                valueSerializer.write(buffer, start + keySerializer.size(), cursor.value());
+                buffer.position(start + entrySize);
+            }
+            drain(channel, buffer);
+            channel.force(true);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private BPlusTreeMap<K, V> loadSnapshot(int order) throws IOException {
+        Path file = directory.resolve(SNAPSHOT);
+        if (!Files.exists(file)) {
+            return new BPlusTreeMap<>(order);
+        }
+        int entrySize = keySerializer.size() + valueSerializer.size();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(1 << 16, entrySize + Integer.BYTES + Long.BYTES));
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+            }
+            buffer.flip();
+            if (buffer.remaining() < Integer.BYTES + Long.BYTES || buffer.getInt() != MAGIC) {
+                throw new IOException("not a snapshot file: " + file);
+            }
+            long count = buffer.getLong();
+            return BPlusTreeMap.bulkLoad(order, new Iterator<Map.Entry<K, V>>() {
+                long read;
+
+                @Override
+                public boolean hasNext() {
+                    return read < count;
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    if (read == count) {
+                        throw new NoSuchElementException();
+                    }
+                    try {
+                        if (buffer.remaining() < entrySize) {
+                            buffer.compact();
+                            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                            }
+                            buffer.flip();
+                            if (buffer.remaining() < entrySize) {
+                                throw new IOException("snapshot truncated after " + read + " entries");
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    int start = buffer.position();
+                    K key = keySerializer.read(buffer, start);
+                    V value = valueSerializer.read(buffer, start + keySerializer.size());
+                    buffer.position(start + entrySize);
+                    read++;
+                    return new AbstractMap.SimpleImmutableEntry<>(key, value);
+                }
+            }, 1.0);
+        }
+    }
+
+}
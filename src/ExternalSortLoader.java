@@ -0,0 +1,337 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/*
+        外部排序导入: 输入无序并且可能大于内存时, 每runSize个元素在内存中排序后写入一个临时文件(run),
+        再把所有run多路归并成有序的流, 交给PagedBPlusTreeMap.bulkLoad自底向上构建
+        内存中只保留一个run, 归并时每个run一个读缓冲区; 读写都按BUFFER_SIZE大小的缓冲区顺序进行
+        run文件中每条记录为定长的 key | value, 由PageSerializer写入, 与页中槽位的格式相同
+
+        相同的key保留最后输入的value, 与逐个put的结果相同: run内部稳定排序后保留最后一个,
+        归并时key相同优先取较晚的run
+        run个数超过MAX_FAN_IN时逐轮归并: 每轮把相邻的MAX_FAN_IN个run归并成一个新的run并放在原来的位置,
+        run之间仍然按输入的先后排列, 直到不超过MAX_FAN_IN个; 限制同时打开的文件与缓冲区个数
+        所有元素都在一个run中时不写临时文件
+ */
+class ExternalSortLoader<K extends Comparable<K>, V> {
+
+    static final int BUFFER_SIZE = 1 << 20;
+    static final int MAX_FAN_IN = 64;
+
+    private final PageSerializer<K> keySerializer;
+    private final PageSerializer<V> valueSerializer;
+    private final Path tempDir;
+    private final int runSize;
+    private final int recordSize;
+    private int runCount;
+
+    public ExternalSortLoader(PageSerializer<K> keySerializer, PageSerializer<V> valueSerializer, Path tempDir, int runSize) {
+        if (runSize < 1) {
+            throw new IllegalArgumentException("run size must be positive: " + runSize);
+        }
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.tempDir = tempDir;
+        this.runSize = runSize;
+        this.recordSize = keySerializer.size() + valueSerializer.size();
+    }
+
+    // 排序后导入空的tree
+    public void load(Iterator<? extends Map.Entry<K, V>> input, PagedBPlusTreeMap<K, V> tree, double fillFactor) {
+        try (Sorted sorted = sort(input)) {
+            tree.bulkLoad(sorted, fillFactor);
+        }
+    }
+
+    // 读取由定长记录组成的文件(与run文件格式相同), 排序后导入空的tree
+    public void load(Path input, PagedBPlusTreeMap<K, V> tree, double fillFactor) {
+        try (RunReader reader = new RunReader(input, 0, false)) {
+            load(reader, tree, fillFactor);
+        }
+    }
+
+    // 写入过的run个数, 包括归并产生的run
+    public int runCount() {
+        return runCount;
+    }
+
+    /*
+            返回按key严格递增的流, 用完之后必须close以删除临时文件
+     */
+    public Sorted sort(Iterator<? extends Map.Entry<K, V>> input) {
+        List<Path> files = new ArrayList<>();
+        // 当前这一轮归并产生的run
+        List<Path> merged = new ArrayList<>();
+        List<Map.Entry<K, V>> run = new ArrayList<>(Math.min(runSize, 1 << 16));
+        try {
+            while (input.hasNext()) {
+                Map.Entry<K, V> entry = input.next();
+                if (run.size() == runSize) {
+                    files.add(writeRun(sortRun(run).iterator()));
+                    run.clear();
+                }
+                run.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+            }
+            if (files.isEmpty()) {
+                return new Sorted(sortRun(run).iterator());
+            }
+            if (!run.isEmpty()) {
+                files.add(writeRun(sortRun(run).iterator()));
+            }
+            run = null;
+            while (files.size() > MAX_FAN_IN) {
+                for (int i = 0; i < files.size(); i += MAX_FAN_IN) {
+                    List<Path> group = files.subList(i, Math.min(i + MAX_FAN_IN, files.size()));
+                    if (group.size() == 1) {
+                        merged.add(group.get(0));
+                        continue;
+                    }
+                    try (Sorted sorted = new Sorted(new ArrayList<>(group))) {
+                        merged.add(writeRun(sorted));
+                    }
+                }
+                files.clear();
+                files.addAll(merged);
+                merged.clear();
+            }
+            return new Sorted(files);
+        } catch (RuntimeException e) {
+            files.forEach(ExternalSortLoader::delete);
+            merged.forEach(ExternalSortLoader::delete);
+            throw e;
+        }
+    }
+
+    // 稳定排序, key相同时保留最后一个
+    private List<Map.Entry<K, V>> sortRun(List<Map.Entry<K, V>> run) {
+        run.sort(Map.Entry.comparingByKey());
+        int count = 0;
+        for (int i = 0; i < run.size(); i++) {
+            if (count > 0 && run.get(count - 1).getKey().compareTo(run.get(i).getKey()) == 0) {
+                count--;
+            }
+            run.set(count++, run.get(i));
+        }
+        run.subList(count, run.size()).clear();
+        return run;
+    }
+
+    private Path writeRun(Iterator<Map.Entry<K, V>> entries) {
+        Path file = null;
+        try {
+            file = Files.createTempFile(tempDir, "run", ".tmp");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(bufferCapacity());
+                int position = 0;
+                while (entries.hasNext()) {
+                    if (position == buffer.capacity()) {
+                        writeFully(channel, buffer, position);
+                        position = 0;
+                    }
+                    Map.Entry<K, V> entry = entries.next();
+                    keySerializer.write(buffer, position, entry.getKey());
+                    valueSerializer.write(buffer, position + keySerializer.size(), entry.getValue());
+                    position += recordSize;
+                }
+                writeFully(channel, buffer, position);
+            }
+            runCount++;
+            return file;
+        } catch (IOException e) {
+            delete(file);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, int length) throws IOException {
+        buffer.limit(length).position(0);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // 缓冲区为记录大小的整数倍, 不会出现跨缓冲区的记录
+    private int bufferCapacity() {
+        return Math.max(1, BUFFER_SIZE / recordSize) * recordSize;
+    }
+
+    private static void delete(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+            顺序读取一个run文件, key/value为当前记录
+            index为run的序号, 越大越晚, 归并时key相同优先取序号大的run
+     */
+    private final class RunReader implements Iterator<Map.Entry<K, V>>, Closeable {
+        private final Path file;
+        private final int index;
+        private final boolean temporary;
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private int position;
+        private int limit;
+        K key;
+        V value;
+
+        RunReader(Path file, int index, boolean temporary) {
+            this.file = file;
+            this.index = index;
+            this.temporary = temporary;
+            try {
+                this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.buffer = ByteBuffer.allocateDirect(bufferCapacity());
+        }
+
+        // 读取下一条记录, 文件结束时返回false
+        boolean advance() {
+            if (position == limit && !fill()) {
+                return false;
+            }
+            key = keySerializer.read(buffer, position);
+            value = valueSerializer.read(buffer, position + keySerializer.size());
+            position += recordSize;
+            return true;
+        }
+
+        private boolean fill() {
+            buffer.clear();
+            try {
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // 一直读到缓冲区满或者文件结束
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (buffer.position() % recordSize != 0) {
+                throw new IllegalStateException("truncated record in " + file);
+            }
+            position = 0;
+            limit = buffer.position();
+            return limit > 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < limit || fill();
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (!advance()) {
+                throw new NoSuchElementException();
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(key, value);
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (temporary) {
+                delete(file);
+            }
+        }
+    }
+
+    /*
+            排序结果: 所有元素在内存中时直接遍历, 否则用优先队列多路归并所有run
+            队首为key最小的run, key相同时为最晚的run; 取出队首之后跳过其他run中相同的key
+            close时关闭并删除所有run文件
+     */
+    public final class Sorted implements Iterator<Map.Entry<K, V>>, Closeable {
+        private final Iterator<Map.Entry<K, V>> memory;
+        private final List<RunReader> readers = new ArrayList<>();
+        private final PriorityQueue<RunReader> queue;
+
+        private Sorted(Iterator<Map.Entry<K, V>> memory) {
+            this.memory = memory;
+            this.queue = null;
+        }
+
+        private Sorted(List<Path> files) {
+            this.memory = null;
+            Comparator<RunReader> comparator = (a, b) -> {
+                int res = a.key.compareTo(b.key);
+                return res != 0 ? res : Integer.compare(b.index, a.index);
+            };
+            this.queue = new PriorityQueue<>(Math.max(1, files.size()), comparator);
+            try {
+                for (Path file : files) {
+                    RunReader reader = new RunReader(file, readers.size(), true);
+                    readers.add(reader);
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                }
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return memory != null ? memory.hasNext() : !queue.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (memory != null) {
+                return memory.next();
+            }
+            RunReader top = queue.poll();
+            if (top == null) {
+                throw new NoSuchElementException();
+            }
+            K key = top.key;
+            V value = top.value;
+            if (top.advance()) {
+                queue.add(top);
+            }
+            while (!queue.isEmpty() && queue.peek().key.compareTo(key) == 0) {
+                RunReader reader = queue.poll();
+                if (reader.advance()) {
+                    queue.add(reader);
+                }
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(key, value);
+        }
+
+        @Override
+        public void close() {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+            readers.clear();
+        }
+    }
+}
@@ -0,0 +1,377 @@
+import java.util.Arrays;
+
+/*
+        key为int的b+树, 语义与BPlusTreeMap相同(put/get/remove/keySet)
+        每个节点的key直接存放在int[]中, 值存放在并行的Object[]中,
+        不需要Integer装箱, 也不需要为每个元素创建Leaf对象, 比较直接使用 < 运算
+
+        索引节点: keys[i] >= children[i]中所有的key, keys[i] < children[i + 1]中所有的key
+                  children[size]为最右侧的子节点
+ */
+class IntBPlusTreeMap<V> {
+
+    NodeGroup<V> root;
+    NodeGroup<V> head;
+    int order;
+    int halfOrder;
+    int minNumber;
+    int size;
+
+    public IntBPlusTreeMap(int order) {
+        this.order = order;
+        this.halfOrder = (this.order + 1) / 2;
+        this.minNumber = this.order / 2;
+        this.root = new NodeGroup<>(order, true);
+        this.head = root;
+    }
+
+    public V put(int key, V value) {
+        NodeGroup<V> leaf = searchLeaf(key);
+        int position = leaf.searchInsertPosition(key);
+        // 替换节点
+        if (position < leaf.size && leaf.keys[position] == key) {
+            V temp = leaf.value(position);
+            leaf.values[position] = value;
+            return temp;
+        }
+        leaf.insertLeaf(position, key, value);
+        size++;
+        fixAfterInsertion(leaf);
+        return null;
+    }
+
+    public V get(int key) {
+        NodeGroup<V> leaf = searchLeaf(key);
+        int position = leaf.searchInsertPosition(key);
+        if (position < leaf.size && leaf.keys[position] == key) {
+            return leaf.value(position);
+        }
+        return null;
+    }
+
+    public boolean containsKey(int key) {
+        NodeGroup<V> leaf = searchLeaf(key);
+        int position = leaf.searchInsertPosition(key);
+        return position < leaf.size && leaf.keys[position] == key;
+    }
+
+    public V remove(int key) {
+        NodeGroup<V> leaf = searchLeaf(key);
+        int position = leaf.searchInsertPosition(key);
+        if (position >= leaf.size || leaf.keys[position] != key) {
+            return null;
+        }
+        V value = leaf.value(position);
+        leaf.removeLeaf(position);
+        size--;
+        solveDelete(leaf);
+        return value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int[] keySet() {
+        int[] res = new int[size];
+        int count = 0;
+        NodeGroup<V> cur = head;
+        while (cur != null) {
+            System.arraycopy(cur.keys, 0, res, count, cur.size);
+            count += cur.size;
+            cur = cur.right;
+        }
+        return res;
+    }
+
+    private NodeGroup<V> searchLeaf(int key) {
+        NodeGroup<V> cur = root;
+        while (!cur.bottom) {
+            cur = cur.children[cur.searchInsertPosition(key)];
+        }
+        return cur;
+    }
+
+    /*
+            节点个数超过order时分裂, 前半部分移入新建的左侧节点, 当前节点保留后半部分
+            叶子节点:   (0, 1, 2, 3)      ->            (1)
+                                               (0, 1) -> (2, 3)
+            索引节点分裂时中间的key上移到父节点
+     */
+    private void fixAfterInsertion(NodeGroup<V> nodeGroup) {
+        NodeGroup<V> cur = nodeGroup;
+        while (cur.size > this.order) {
+            NodeGroup<V> nodeGroupLeft = createSplitNodeGroup(cur);
+            int indexKey = cur.bottom ? splitLeaf(cur, nodeGroupLeft) : splitIndex(cur, nodeGroupLeft);
+            if (cur.parent == null) {
+                solveCreateNewRoot(indexKey, nodeGroupLeft, cur);
+                return;
+            }
+            NodeGroup<V> parent = cur.parent;
+            parent.insertIndex(parent.indexOf(cur), indexKey, nodeGroupLeft);
+            nodeGroupLeft.parent = parent;
+            cur = parent;
+        }
+    }
+
+    private int splitLeaf(NodeGroup<V> cur, NodeGroup<V> left) {
+        int number = halfOrder;
+        System.arraycopy(cur.keys, 0, left.keys, 0, number);
+        System.arraycopy(cur.values, 0, left.values, 0, number);
+        left.size = number;
+        cur.removeLeafRange(0, number);
+        return left.keys[number - 1];
+    }
+
+    private int splitIndex(NodeGroup<V> cur, NodeGroup<V> left) {
+        int number = halfOrder;
+        int indexKey = cur.keys[number];
+        System.arraycopy(cur.keys, 0, left.keys, 0, number);
+        System.arraycopy(cur.children, 0, left.children, 0, number + 1);
+        left.size = number;
+        left.adoptChildren(0, number + 1);
+        int rest = cur.size - number - 1;
+        System.arraycopy(cur.keys, number + 1, cur.keys, 0, rest);
+        System.arraycopy(cur.children, number + 1, cur.children, 0, rest + 1);
+        Arrays.fill(cur.children, rest + 1, cur.size + 1, null);
+        cur.size = rest;
+        return indexKey;
+    }
+
+    private void solveCreateNewRoot(int indexKey, NodeGroup<V> left, NodeGroup<V> right) {
+        NodeGroup<V> newRoot = new NodeGroup<>(order, false);
+        newRoot.keys[0] = indexKey;
+        newRoot.children[0] = left;
+        newRoot.children[1] = right;
+        newRoot.size = 1;
+        left.parent = newRoot;
+        right.parent = newRoot;
+        this.root = newRoot;
+    }
+
+    private NodeGroup<V> createSplitNodeGroup(NodeGroup<V> cur) {
+        NodeGroup<V> nodeGroupLeft = new NodeGroup<>(order, cur.bottom);
+        NodeGroup<V> temp = cur.left;
+        // 维护双向链表
+        nodeGroupLeft.right = cur;
+        cur.left = nodeGroupLeft;
+        nodeGroupLeft.left = temp;
+        if (temp != null) {
+            temp.right = nodeGroupLeft;
+        }
+        if (cur == this.head) {
+            this.head = nodeGroupLeft;
+        }
+        return nodeGroupLeft;
+    }
+
+    /*
+            节点个数小于order / 2时, 与同一父节点下的相邻节点合并, 或者从相邻节点借用
+            合并会让父节点少一个key, 需要继续向上处理
+     */
+    private void solveDelete(NodeGroup<V> nodeGroup) {
+        NodeGroup<V> cur = nodeGroup;
+        while (cur != root && cur.size < minNumber) {
+            NodeGroup<V> parent = cur.parent;
+            int index = parent.indexOf(cur);
+            NodeGroup<V> left = cur;
+            int indexPosition = index;
+            if (index > 0) {
+                left = parent.children[index - 1];
+                indexPosition = index - 1;
+            }
+            NodeGroup<V> right = parent.children[indexPosition + 1];
+            int mergeSize = left.size + right.size + (cur.bottom ? 0 : 1);
+            if (mergeSize <= order) {
+                solveMerge(left, right, indexPosition);
+                cur = parent;
+                continue;
+            }
+            if (left == cur) {
+                getNodeFromRight(cur, right, indexPosition);
+            } else {
+                getNodeFromLeft(cur, left, indexPosition);
+            }
+            break;
+        }
+        if (root.size == 0 && !root.bottom) {
+            root = root.children[0];
+            root.parent = null;
+        }
+    }
+
+    private void getNodeFromLeft(NodeGroup<V> current, NodeGroup<V> left, int indexPosition) {
+        NodeGroup<V> parent = current.parent;
+        int number = minNumber - current.size;
+        if (current.bottom) {
+            int from = left.size - number;
+            System.arraycopy(current.keys, 0, current.keys, number, current.size);
+            System.arraycopy(current.values, 0, current.values, number, current.size);
+            System.arraycopy(left.keys, from, current.keys, 0, number);
+            System.arraycopy(left.values, from, current.values, 0, number);
+            Arrays.fill(left.values, from, left.size, null);
+            left.size = from;
+            current.size += number;
+            parent.keys[indexPosition] = left.keys[left.size - 1];
+            return;
+        }
+        int from = left.size - number + 1;
+        System.arraycopy(current.keys, 0, current.keys, number, current.size);
+        System.arraycopy(current.children, 0, current.children, number, current.size + 1);
+        current.keys[number - 1] = parent.keys[indexPosition];
+        System.arraycopy(left.keys, from, current.keys, 0, number - 1);
+        System.arraycopy(left.children, from, current.children, 0, number);
+        parent.keys[indexPosition] = left.keys[from - 1];
+        Arrays.fill(left.children, from, left.size + 1, null);
+        left.size = from - 1;
+        current.size += number;
+        current.adoptChildren(0, number);
+    }
+
+    private void getNodeFromRight(NodeGroup<V> current, NodeGroup<V> right, int indexPosition) {
+        NodeGroup<V> parent = current.parent;
+        int number = minNumber - current.size;
+        if (current.bottom) {
+            System.arraycopy(right.keys, 0, current.keys, current.size, number);
+            System.arraycopy(right.values, 0, current.values, current.size, number);
+            current.size += number;
+            right.removeLeafRange(0, number);
+            parent.keys[indexPosition] = current.keys[current.size - 1];
+            return;
+        }
+        int start = current.size;
+        current.keys[start] = parent.keys[indexPosition];
+        System.arraycopy(right.keys, 0, current.keys, start + 1, number - 1);
+        System.arraycopy(right.children, 0, current.children, start + 1, number);
+        current.size += number;
+        current.adoptChildren(start + 1, start + 1 + number);
+        parent.keys[indexPosition] = right.keys[number - 1];
+        int rest = right.size - number;
+        System.arraycopy(right.keys, number, right.keys, 0, rest);
+        System.arraycopy(right.children, number, right.children, 0, rest + 1);
+        Arrays.fill(right.children, rest + 1, right.size + 1, null);
+        right.size = rest;
+    }
+
+    // 将right合并进left, 并删除父节点中对应的key
+    private void solveMerge(NodeGroup<V> left, NodeGroup<V> right, int indexPosition) {
+        NodeGroup<V> parent = left.parent;
+        if (left.bottom) {
+            System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+            System.arraycopy(right.values, 0, left.values, left.size, right.size);
+            left.size += right.size;
+        } else {
+            int start = left.size;
+            left.keys[start] = parent.keys[indexPosition];
+            System.arraycopy(right.keys, 0, left.keys, start + 1, right.size);
+            System.arraycopy(right.children, 0, left.children, start + 1, right.size + 1);
+            left.size += right.size + 1;
+            left.adoptChildren(start + 1, left.size + 1);
+        }
+        left.right = right.right;
+        if (right.right != null) {
+            right.right.left = left;
+        }
+        parent.removeIndex(indexPosition);
+    }
+
+    private static class NodeGroup<V> {
+        int[] keys;
+        Object[] values;
+        NodeGroup<V>[] children;
+        int size;
+        NodeGroup<V> parent;
+        NodeGroup<V> left;
+        NodeGroup<V> right;
+        boolean bottom;
+
+        @SuppressWarnings("unchecked")
+        public NodeGroup(int order, boolean bottom) {
+            this.keys = new int[order + 1];
+            this.bottom = bottom;
+            if (bottom) {
+                this.values = new Object[order + 1];
+            } else {
+                this.children = (NodeGroup<V>[]) new NodeGroup<?>[order + 2];
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        V value(int position) {
+            return (V) values[position];
+        }
+
+        // 二分搜索, 搜索第一个 >= key 的位置
+        int searchInsertPosition(int key) {
+            int left = 0;
+            int right = size;
+            while (left < right) {
+                int mid = (left + right) >>> 1;
+                if (keys[mid] < key) {
+                    left = mid + 1;
+                } else {
+                    right = mid;
+                }
+            }
+            return left;
+        }
+
+        int indexOf(NodeGroup<V> child) {
+            for (int i = 0; i <= size; i++) {
+                if (children[i] == child) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void insertLeaf(int position, int key, Object value) {
+            System.arraycopy(keys, position, keys, position + 1, size - position);
+            System.arraycopy(values, position, values, position + 1, size - position);
+            keys[position] = key;
+            values[position] = value;
+            size++;
+        }
+
+        void removeLeaf(int position) {
+            removeLeafRange(position, position + 1);
+        }
+
+        void removeLeafRange(int from, int to) {
+            System.arraycopy(keys, to, keys, from, size - to);
+            System.arraycopy(values, to, values, from, size - to);
+            int newSize = size - (to - from);
+            Arrays.fill(values, newSize, size, null);
+            size = newSize;
+        }
+
+        // 在position处插入key, child作为key左侧的子节点
+        void insertIndex(int position, int key, NodeGroup<V> child) {
+            System.arraycopy(keys, position, keys, position + 1, size - position);
+            System.arraycopy(children, position, children, position + 1, size + 1 - position);
+            keys[position] = key;
+            children[position] = child;
+            size++;
+        }
+
+        // 删除position处的key以及其右侧的子节点
+        void removeIndex(int position) {
+            System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+            System.arraycopy(children, position + 2, children, position + 1, size - position - 1);
+            children[size] = null;
+            size--;
+        }
+
+        void adoptChildren(int from, int to) {
+            for (int i = from; i < to; i++) {
+                children[i].parent = this;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(Arrays.copyOf(keys, size));
+        }
+    }
+
+}
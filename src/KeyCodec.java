@@ -0,0 +1,170 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+        把key编码成保序的字节序列: 编码后按无符号字节的字典序比较(BinaryKey), 结果与编码前的顺序相同
+        树中使用BinaryKey作为key时, 每次比较是一次long比较加上必要时的Arrays.compareUnsigned,
+        代价只与字节数有关, 不再经过各个key类型的compareTo
+
+        INT/LONG: 符号位取反后大端写入, 负数排在正数之前
+        STRING: UTF-8编码, 0x00写成 0x00 0xFF, 结尾写 0x00 0x00; 结尾比任何后续字符都小, 所以前缀排在前面
+            顺序为码点顺序, 与String.compareTo(UTF-16)只在同时包含增补字符与U+E000~U+FFFF时不同
+        tuple: 依次写入每个字段, 每个字段的编码都能确定自己的结束位置, 整体按字段逐个比较
+ */
+interface KeyCodec<T> {
+
+    // 把value的编码追加到out
+    void encode(T value, Writer out);
+
+    // 从in的当前位置读取一个value
+    T decode(Reader in);
+
+    default BinaryKey key(T value) {
+        Writer out = new Writer();
+        encode(value, out);
+        return new BinaryKey(out.toByteArray());
+    }
+
+    default T decode(BinaryKey key) {
+        Reader in = new Reader(key.bytes());
+        T res = decode(in);
+        if (in.position != key.length()) {
+            throw new IllegalArgumentException("trailing bytes in key " + key);
+        }
+        return res;
+    }
+
+    KeyCodec<Integer> INT = new KeyCodec<>() {
+        @Override
+        public void encode(Integer value, Writer out) {
+            out.writeLong(value ^ Integer.MIN_VALUE, Integer.BYTES);
+        }
+
+        @Override
+        public Integer decode(Reader in) {
+            return (int) in.readLong(Integer.BYTES) ^ Integer.MIN_VALUE;
+        }
+    };
+
+    KeyCodec<Long> LONG = new KeyCodec<>() {
+        @Override
+        public void encode(Long value, Writer out) {
+            out.writeLong(value ^ Long.MIN_VALUE, Long.BYTES);
+        }
+
+        @Override
+        public Long decode(Reader in) {
+            return in.readLong(Long.BYTES) ^ Long.MIN_VALUE;
+        }
+    };
+
+    KeyCodec<String> STRING = new KeyCodec<>() {
+        @Override
+        public void encode(String value, Writer out) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            for (byte b : bytes) {
+                out.write(b);
+                if (b == 0) {
+                    out.write((byte) 0xFF);
+                }
+            }
+            out.write((byte) 0);
+            out.write((byte) 0);
+        }
+
+        @Override
+        public String decode(Reader in) {
+            Writer res = new Writer();
+            for (; ; ) {
+                byte b = in.read();
+                if (b == 0) {
+                    byte next = in.read();
+                    if (next == 0) {
+                        break;
+                    }
+                    if (next != (byte) 0xFF) {
+                        throw new IllegalArgumentException("invalid string escape at " + (in.position - 1));
+                    }
+                }
+                res.write(b);
+            }
+            return new String(res.buffer, 0, res.size, StandardCharsets.UTF_8);
+        }
+    };
+
+    /*
+            组合key, value为与fields一一对应的数组, 先按第一个字段比较, 相同再比较下一个
+     */
+    @SuppressWarnings("unchecked")
+    static KeyCodec<Object[]> tuple(KeyCodec<?>... fields) {
+        KeyCodec<Object>[] codecs = (KeyCodec<Object>[]) fields.clone();
+        return new KeyCodec<>() {
+            @Override
+            public void encode(Object[] value, Writer out) {
+                if (value.length != codecs.length) {
+                    throw new IllegalArgumentException("expected " + codecs.length + " fields but got " + value.length);
+                }
+                for (int i = 0; i < codecs.length; i++) {
+                    codecs[i].encode(value[i], out);
+                }
+            }
+
+            @Override
+            public Object[] decode(Reader in) {
+                Object[] res = new Object[codecs.length];
+                for (int i = 0; i < codecs.length; i++) {
+                    res[i] = codecs[i].decode(in);
+                }
+                return res;
+            }
+        };
+    }
+
+    // 按需扩容的字节缓冲区
+    final class Writer {
+        private byte[] buffer = new byte[16];
+        private int size;
+
+        void write(byte b) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, size * 2);
+            }
+            buffer[size++] = b;
+        }
+
+        // 大端写入value的低bytes个字节
+        void writeLong(long value, int bytes) {
+            for (int i = bytes - 1; i >= 0; i--) {
+                write((byte) (value >>> (i * 8)));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    final class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        byte read() {
+            if (position == bytes.length) {
+                throw new IllegalArgumentException("truncated key at " + position);
+            }
+            return bytes[position++];
+        }
+
+        long readLong(int bytes) {
+            long res = 0;
+            for (int i = 0; i < bytes; i++) {
+                res = (res << 8) | (read() & 0xFF);
+            }
+            return res;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+        通过MappedByteBuffer访问文件中的页, 文件按段(segment)映射, 每段SEGMENT_PAGES个页
+        页的内容由操作系统按需读入(缺页时才读取), 打开文件不需要读取任何数据
+        pin/unpin不需要做任何事情, 修改直接写在映射内存上, flush时强制写回磁盘
+ */
+class MappedPageStore implements PageStore {
+
+    private static final int SEGMENT_PAGES = 1024;
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    public MappedPageStore(Path file, int pageSize) throws IOException {
+        this.pageSize = pageSize;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public int pageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public ByteBuffer pin(int pageId) {
+        MappedByteBuffer segment = segment(pageId / SEGMENT_PAGES);
+        return segment.slice((pageId % SEGMENT_PAGES) * pageSize, pageSize);
+    }
+
+    @Override
+    public void unpin(int pageId, boolean dirty) {
+    }
+
+    private MappedByteBuffer segment(int index) {
+        long segmentSize = (long) SEGMENT_PAGES * pageSize;
+        try {
+            while (segments.size() <= index) {
+                // READ_WRITE映射超出文件长度时会自动扩展文件
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE, segments.size() * segmentSize, segmentSize));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return segments.get(index);
+    }
+
+    @Override
+    public void flush() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        segments.clear();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+        把key/value写入页中的定长槽位, size为每个槽位的字节数
+        compare比较页中offset处的key与给定的key, 默认先反序列化, 基本类型可以直接比较避免创建对象
+ */
+interface PageSerializer<T> {
+
+    int size();
+
+    void write(ByteBuffer page, int offset, T value);
+
+    T read(ByteBuffer page, int offset);
+
+    @SuppressWarnings("unchecked")
+    default int compare(ByteBuffer page, int offset, T key) {
+        return ((Comparable<T>) read(page, offset)).compareTo(key);
+    }
+
+    PageSerializer<Integer> INT = new PageSerializer<>() {
+        @Override
+        public int size() {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer page, int offset, Integer value) {
+            page.putInt(offset, value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer page, int offset) {
+            return page.getInt(offset);
+        }
+
+        @Override
+        public int compare(ByteBuffer page, int offset, Integer key) {
+            return Integer.compare(page.getInt(offset), key);
+        }
+    };
+
+    PageSerializer<Long> LONG = new PageSerializer<>() {
+        @Override
+        public int size() {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer page, int offset, Long value) {
+            page.putLong(offset, value);
+        }
+
+        @Override
+        public Long read(ByteBuffer page, int offset) {
+            return page.getLong(offset);
+        }
+
+        @Override
+        public int compare(ByteBuffer page, int offset, Long key) {
+            return Long.compare(page.getLong(offset), key);
+        }
+    };
+
+    // 最多maxBytes个字节(UTF-8)的字符串, 槽位为2字节长度 + maxBytes字节内容
+    static PageSerializer<String> string(int maxBytes) {
+        return new PageSerializer<>() {
+            @Override
+            public int size() {
+                return Short.BYTES + maxBytes;
+            }
+
+            @Override
+            public void write(ByteBuffer page, int offset, String value) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > maxBytes || bytes.length > Short.MAX_VALUE) {
+                    throw new IllegalArgumentException("string longer than " + maxBytes + " bytes: " + value);
+                }
+                page.putShort(offset, (short) bytes.length);
+                page.put(offset + Short.BYTES, bytes);
+            }
+
+            @Override
+            public String read(ByteBuffer page, int offset) {
+                byte[] bytes = new byte[page.getShort(offset)];
+                page.get(offset + Short.BYTES, bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+}
@@ -0,0 +1,22 @@
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/*
+        定长页的存储, 页号从0开始
+        pin返回页的内容, 使用完之后必须unpin, dirty表示页被修改过需要写回
+        页号超出当前容量时自动扩容, 页的分配由调用方管理
+ */
+interface PageStore extends Closeable {
+
+    int pageSize();
+
+    ByteBuffer pin(int pageId);
+
+    void unpin(int pageId, boolean dirty);
+
+    // 把所有修改写入磁盘
+    void flush();
+
+    @Override
+    void close();
+}
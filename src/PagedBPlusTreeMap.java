@@ -0,0 +1,494 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/*
+        持久化的b+树, 每个节点是PageStore中的一个定长页, 节点之间用页号代替对象引用
+        key/value通过PageSerializer写入定长槽位
+
+        第0页为头部:   magic | pageSize | keySize | valueSize | root | head | pageCount | size(long)
+        节点页:        bottom(byte) | size | left | right | keys[] | values[] 或 children[]
+                       同一个页内key与value/children分开连续存放, 二分搜索只访问keys区域
+        叶子节点通过left/right页号串成链表, 不保存parent, 修改时记录从根到叶子的路径
+
+        头部只在flush/close时写入, 重新打开时只读取头部, 节点页在访问时才由PageStore载入
+        删除只从叶子节点中移除, 不做合并, 因此节点个数可以不足一半
+ */
+class PagedBPlusTreeMap<K extends Comparable<K>, V> implements Closeable {
+
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+
+    private static final int MAGIC = 0x42505452;
+    private static final int HEADER_PAGE = 0;
+    private static final int NONE = -1;
+    private static final int MAX_HEIGHT = 64;
+
+    private static final int BOTTOM = 0;
+    private static final int SIZE = 4;
+    private static final int LEFT = 8;
+    private static final int RIGHT = 12;
+    private static final int KEYS = 16;
+
+    private final PageStore store;
+    private final PageSerializer<K> keySerializer;
+    private final PageSerializer<V> valueSerializer;
+    private final int keySize;
+    private final int leafOrder;
+    private final int indexOrder;
+    private final int[] path = new int[MAX_HEIGHT];
+    private final int[] positions = new int[MAX_HEIGHT];
+    private final byte[] scratch;
+
+    int root;
+    int head;
+    int pageCount;
+    long size;
+
+    public static <K extends Comparable<K>, V> PagedBPlusTreeMap<K, V> open(Path file, PageSerializer<K> keySerializer, PageSerializer<V> valueSerializer) throws IOException {
+        return new PagedBPlusTreeMap<>(new MappedPageStore(file, DEFAULT_PAGE_SIZE), keySerializer, valueSerializer);
+    }
+
+    // 节点全部放在堆外内存中, 不持久化
+    public static <K extends Comparable<K>, V> PagedBPlusTreeMap<K, V> offHeap(PageSerializer<K> keySerializer, PageSerializer<V> valueSerializer) {
+        return new PagedBPlusTreeMap<>(new DirectPageStore(DEFAULT_PAGE_SIZE), keySerializer, valueSerializer);
+    }
+
+    public PagedBPlusTreeMap(PageStore store, PageSerializer<K> keySerializer, PageSerializer<V> valueSerializer) {
+        this.store = store;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.keySize = keySerializer.size();
+        int pageSize = store.pageSize();
+        this.leafOrder = (pageSize - KEYS) / (keySize + valueSerializer.size());
+        this.indexOrder = (pageSize - KEYS - Integer.BYTES) / (keySize + Integer.BYTES);
+        if (leafOrder < 3 || indexOrder < 3) {
+            throw new IllegalArgumentException("page size " + pageSize + " too small for key/value size");
+        }
+        this.scratch = new byte[pageSize];
+        ByteBuffer header = store.pin(HEADER_PAGE);
+        try {
+            if (header.getInt(0) == MAGIC) {
+                readHeader(header);
+                return;
+            }
+        } finally {
+            store.unpin(HEADER_PAGE, false);
+        }
+        // 新文件: 创建空的根节点
+        this.pageCount = 1;
+        this.root = allocatePage(true);
+        this.head = root;
+    }
+
+    private void readHeader(ByteBuffer header) {
+        if (header.getInt(4) != store.pageSize() || header.getInt(8) != keySize || header.getInt(12) != valueSerializer.size()) {
+            throw new IllegalArgumentException("file was created with a different page size or serializers");
+        }
+        this.root = header.getInt(16);
+        this.head = header.getInt(20);
+        this.pageCount = header.getInt(24);
+        this.size = header.getLong(28);
+    }
+
+    private void writeHeader() {
+        ByteBuffer header = store.pin(HEADER_PAGE);
+        header.putInt(0, MAGIC);
+        header.putInt(4, store.pageSize());
+        header.putInt(8, keySize);
+        header.putInt(12, valueSerializer.size());
+        header.putInt(16, root);
+        header.putInt(20, head);
+        header.putInt(24, pageCount);
+        header.putLong(28, size);
+        store.unpin(HEADER_PAGE, true);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public V get(K key) {
+        int pageId = root;
+        for (; ; ) {
+            ByteBuffer page = store.pin(pageId);
+            int count = page.getInt(SIZE);
+            int position = searchInsertPosition(page, count, key);
+            if (page.get(BOTTOM) == 1) {
+                V value = null;
+                if (position < count && keySerializer.compare(page, keyOffset(position), key) == 0) {
+                    value = valueSerializer.read(page, valueOffset(position));
+                }
+                store.unpin(pageId, false);
+                return value;
+            }
+            int child = page.getInt(childOffset(position));
+            store.unpin(pageId, false);
+            pageId = child;
+        }
+    }
+
+    public V put(K key, V value) {
+        int depth = searchPath(key);
+        int pageId = path[depth];
+        int position = positions[depth];
+        ByteBuffer page = store.pin(pageId);
+        int count = page.getInt(SIZE);
+        // 替换节点
+        if (position < count && keySerializer.compare(page, keyOffset(position), key) == 0) {
+            V old = valueSerializer.read(page, valueOffset(position));
+            valueSerializer.write(page, valueOffset(position), value);
+            store.unpin(pageId, true);
+            return old;
+        }
+        size++;
+        if (count < leafOrder) {
+            insertLeaf(page, count, position, key, value);
+            store.unpin(pageId, true);
+            return null;
+        }
+        splitLeaf(depth, page, position, key, value);
+        store.unpin(pageId, true);
+        return null;
+    }
+
+    public V remove(K key) {
+        int depth = searchPath(key);
+        int pageId = path[depth];
+        int position = positions[depth];
+        ByteBuffer page = store.pin(pageId);
+        int count = page.getInt(SIZE);
+        if (position >= count || keySerializer.compare(page, keyOffset(position), key) != 0) {
+            store.unpin(pageId, false);
+            return null;
+        }
+        V old = valueSerializer.read(page, valueOffset(position));
+        move(page, keyOffset(position + 1), keyOffset(position), (count - position - 1) * keySize);
+        move(page, valueOffset(position + 1), valueOffset(position), (count - position - 1) * valueSerializer.size());
+        page.putInt(SIZE, count - 1);
+        store.unpin(pageId, true);
+        size--;
+        return old;
+    }
+
+    /*
+            自底向上批量构建, 只能用于空树, sorted必须严格递增
+            叶子节点按页号顺序依次写入, 每个写满fillFactor比例; 叶子写完时把它最大的key与页号加入上一层
+            每层只在内存中保留最右侧还没有写满的索引节点, 写满后写入新页并继续加入上一层, 内存占用只与树高有关
+            每层最后一个节点可能不足一半; 输入不是严格递增时抛出异常, 此时树的内容是不确定的
+     */
+    public void bulkLoad(Iterator<? extends Map.Entry<K, V>> sorted, double fillFactor) {
+        if (size != 0) {
+            throw new IllegalStateException("bulk load requires an empty tree");
+        }
+        if (!(fillFactor > 0 && fillFactor <= 1)) {
+            throw new IllegalArgumentException("fill factor must be in (0, 1]: " + fillFactor);
+        }
+        int leafFill = Math.max(1, (int) (leafOrder * fillFactor));
+        int indexFill = Math.max(2, (int) ((indexOrder + 1) * fillFactor));
+        List<IndexBuilder> levels = new ArrayList<>();
+        // 空树的根节点作为第一个叶子节点
+        int leafId = head;
+        ByteBuffer leaf = store.pin(leafId);
+        int count = 0;
+        K last = null;
+        try {
+            while (sorted.hasNext()) {
+                Map.Entry<K, V> entry = sorted.next();
+                K key = entry.getKey();
+                if (last != null && last.compareTo(key) >= 0) {
+                    throw new IllegalArgumentException("input is not strictly ascending at key " + key);
+                }
+                if (count == leafFill) {
+                    int next = allocatePage(true);
+                    leaf.putInt(SIZE, count);
+                    leaf.putInt(RIGHT, next);
+                    byte[] maxKey = lastKey(leaf, count);
+                    store.unpin(leafId, true);
+                    addChild(levels, 0, maxKey, leafId, indexFill);
+                    leaf = store.pin(next);
+                    leaf.putInt(LEFT, leafId);
+                    leafId = next;
+                    count = 0;
+                }
+                keySerializer.write(leaf, keyOffset(count), key);
+                valueSerializer.write(leaf, valueOffset(count), entry.getValue());
+                count++;
+                size++;
+                last = key;
+            }
+            leaf.putInt(SIZE, count);
+        } finally {
+            store.unpin(leafId, true);
+        }
+        // 最后一个叶子还没有加入上一层, 逐层写入剩下的节点; 某一层没有其他节点时该节点就是根节点
+        byte[] maxKey = count == 0 ? null : lastKeyOf(leafId, count);
+        int child = leafId;
+        for (IndexBuilder level : levels) {
+            level.keys[level.count] = maxKey;
+            level.children[level.count] = child;
+            level.count++;
+            maxKey = level.keys[level.count - 1];
+            child = writeIndexBuilder(level);
+        }
+        this.root = child;
+    }
+
+    // 批量构建时某一层最右侧的索引节点, keys[i]为children[i]中最大的key
+    private final class IndexBuilder {
+        final byte[][] keys = new byte[indexOrder + 1][];
+        final int[] children = new int[indexOrder + 1];
+        int count;
+    }
+
+    private void addChild(List<IndexBuilder> levels, int level, byte[] maxKey, int child, int fill) {
+        if (levels.size() == level) {
+            levels.add(new IndexBuilder());
+        }
+        IndexBuilder builder = levels.get(level);
+        builder.keys[builder.count] = maxKey;
+        builder.children[builder.count] = child;
+        builder.count++;
+        if (builder.count == fill) {
+            byte[] builderMaxKey = builder.keys[builder.count - 1];
+            int pageId = writeIndexBuilder(builder);
+            addChild(levels, level + 1, builderMaxKey, pageId, fill);
+        }
+    }
+
+    // 最后一个子节点的最大key不写入页中, 由上一层保存
+    private int writeIndexBuilder(IndexBuilder builder) {
+        int pageId = allocatePage(false);
+        ByteBuffer page = store.pin(pageId);
+        writeIndex(page, builder.keys, builder.children, 0, builder.count - 1);
+        store.unpin(pageId, true);
+        builder.count = 0;
+        return pageId;
+    }
+
+    private byte[] lastKey(ByteBuffer page, int count) {
+        byte[] key = new byte[keySize];
+        page.get(keyOffset(count - 1), key);
+        return key;
+    }
+
+    private byte[] lastKeyOf(int pageId, int count) {
+        ByteBuffer page = store.pin(pageId);
+        byte[] key = lastKey(page, count);
+        store.unpin(pageId, false);
+        return key;
+    }
+
+    public List<K> keySet() {
+        List<K> res = new ArrayList<>();
+        int pageId = head;
+        while (pageId != NONE) {
+            ByteBuffer page = store.pin(pageId);
+            int count = page.getInt(SIZE);
+            for (int i = 0; i < count; i++) {
+                res.add(keySerializer.read(page, keyOffset(i)));
+            }
+            int next = page.getInt(RIGHT);
+            store.unpin(pageId, false);
+            pageId = next;
+        }
+        return res;
+    }
+
+    public void flush() {
+        writeHeader();
+        store.flush();
+    }
+
+    @Override
+    public void close() {
+        writeHeader();
+        store.close();
+    }
+
+    // 从根节点向下搜索, 记录经过的页号与位置, 返回叶子节点在path中的下标
+    private int searchPath(K key) {
+        int depth = 0;
+        int pageId = root;
+        for (; ; ) {
+            ByteBuffer page = store.pin(pageId);
+            int count = page.getInt(SIZE);
+            int position = searchInsertPosition(page, count, key);
+            boolean bottom = page.get(BOTTOM) == 1;
+            int child = bottom ? NONE : page.getInt(childOffset(position));
+            store.unpin(pageId, false);
+            path[depth] = pageId;
+            positions[depth] = position;
+            if (bottom) {
+                return depth;
+            }
+            pageId = child;
+            depth++;
+        }
+    }
+
+    // 二分搜索第一个 >= key 的位置
+    private int searchInsertPosition(ByteBuffer page, int count, K key) {
+        int left = 0;
+        int right = count;
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            if (keySerializer.compare(page, keyOffset(mid), key) < 0) {
+                left = mid + 1;
+            } else {
+                right = mid;
+            }
+        }
+        return left;
+    }
+
+    private void insertLeaf(ByteBuffer page, int count, int position, K key, V value) {
+        move(page, keyOffset(position), keyOffset(position + 1), (count - position) * keySize);
+        move(page, valueOffset(position), valueOffset(position + 1), (count - position) * valueSerializer.size());
+        keySerializer.write(page, keyOffset(position), key);
+        valueSerializer.write(page, valueOffset(position), value);
+        page.putInt(SIZE, count + 1);
+    }
+
+    /*
+            叶子节点已满: 后半部分移入新的右侧页, 再把key插入对应的一侧
+            右侧页的第一个key之前的最大key作为索引key插入父节点
+     */
+    private void splitLeaf(int depth, ByteBuffer page, int position, K key, V value) {
+        int rightId = allocatePage(true);
+        ByteBuffer right = store.pin(rightId);
+        int mid = (leafOrder + 1) / 2;
+        int number = leafOrder - mid;
+        copy(page, keyOffset(mid), right, keyOffset(0), number * keySize);
+        copy(page, valueOffset(mid), right, valueOffset(0), number * valueSerializer.size());
+        right.putInt(SIZE, number);
+        page.putInt(SIZE, mid);
+        if (position <= mid) {
+            insertLeaf(page, mid, position, key, value);
+        } else {
+            insertLeaf(right, number, position - mid, key, value);
+        }
+        // 维护双向链表
+        int oldRight = page.getInt(RIGHT);
+        right.putInt(LEFT, path[depth]);
+        right.putInt(RIGHT, oldRight);
+        page.putInt(RIGHT, rightId);
+        if (oldRight != NONE) {
+            ByteBuffer next = store.pin(oldRight);
+            next.putInt(LEFT, rightId);
+            store.unpin(oldRight, true);
+        }
+        byte[] indexKey = new byte[keySize];
+        page.get(keyOffset(page.getInt(SIZE) - 1), indexKey);
+        store.unpin(rightId, true);
+        insertIndex(depth - 1, indexKey, rightId);
+    }
+
+    /*
+            在path[depth]中positions[depth]处插入索引key, 新的子节点放在key的右侧
+            索引节点已满时先在内存中插入, 再把前半部分留在原页, 后半部分移入新页, 中间的key继续上移
+     */
+    private void insertIndex(int depth, byte[] indexKey, int child) {
+        if (depth < 0) {
+            solveCreateNewRoot(indexKey, child);
+            return;
+        }
+        int pageId = path[depth];
+        int position = positions[depth];
+        ByteBuffer page = store.pin(pageId);
+        int count = page.getInt(SIZE);
+        if (count < indexOrder) {
+            move(page, keyOffset(position), keyOffset(position + 1), (count - position) * keySize);
+            move(page, childOffset(position + 1), childOffset(position + 2), (count - position) * Integer.BYTES);
+            page.put(keyOffset(position), indexKey);
+            page.putInt(childOffset(position + 1), child);
+            page.putInt(SIZE, count + 1);
+            store.unpin(pageId, true);
+            return;
+        }
+        byte[][] keys = new byte[count + 1][];
+        int[] children = new int[count + 2];
+        for (int i = 0, j = 0; i <= count; i++) {
+            if (i == position) {
+                keys[i] = indexKey;
+                continue;
+            }
+            keys[i] = new byte[keySize];
+            page.get(keyOffset(j++), keys[i]);
+        }
+        for (int i = 0, j = 0; i <= count + 1; i++) {
+            children[i] = i == position + 1 ? child : page.getInt(childOffset(j++));
+        }
+        int mid = (count + 1) / 2;
+        int rightId = allocatePage(false);
+        ByteBuffer right = store.pin(rightId);
+        writeIndex(page, keys, children, 0, mid);
+        writeIndex(right, keys, children, mid + 1, count + 1);
+        store.unpin(rightId, true);
+        store.unpin(pageId, true);
+        insertIndex(depth - 1, keys[mid], rightId);
+    }
+
+    // 把keys[from, to)与children[from, to]写入page
+    private void writeIndex(ByteBuffer page, byte[][] keys, int[] children, int from, int to) {
+        for (int i = from; i < to; i++) {
+            page.put(keyOffset(i - from), keys[i]);
+        }
+        for (int i = from; i <= to; i++) {
+            page.putInt(childOffset(i - from), children[i]);
+        }
+        page.putInt(SIZE, to - from);
+    }
+
+    private void solveCreateNewRoot(byte[] indexKey, int child) {
+        int newRoot = allocatePage(false);
+        ByteBuffer page = store.pin(newRoot);
+        page.put(keyOffset(0), indexKey);
+        page.putInt(childOffset(0), root);
+        page.putInt(childOffset(1), child);
+        page.putInt(SIZE, 1);
+        store.unpin(newRoot, true);
+        this.root = newRoot;
+    }
+
+    private int allocatePage(boolean bottom) {
+        int pageId = pageCount++;
+        ByteBuffer page = store.pin(pageId);
+        page.put(BOTTOM, (byte) (bottom ? 1 : 0));
+        page.putInt(SIZE, 0);
+        page.putInt(LEFT, NONE);
+        page.putInt(RIGHT, NONE);
+        store.unpin(pageId, true);
+        return pageId;
+    }
+
+    private int keyOffset(int position) {
+        return KEYS + position * keySize;
+    }
+
+    private int valueOffset(int position) {
+        return KEYS + leafOrder * keySize + position * valueSerializer.size();
+    }
+
+    private int childOffset(int position) {
+        return KEYS + indexOrder * keySize + position * Integer.BYTES;
+    }
+
+    // 同一页内移动数据, 区间可能重叠, 先复制到scratch
+    private void move(ByteBuffer page, int from, int to, int length) {
+        if (length <= 0) {
+            return;
+        }
+        page.get(from, scratch, 0, length);
+        page.put(to, scratch, 0, length);
+    }
+
+    private static void copy(ByteBuffer from, int fromOffset, ByteBuffer to, int toOffset, int length) {
+        to.put(toOffset, from, fromOffset, length);
+    }
+
+}
@@ -0,0 +1,364 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/*
+        不可变(持久化)的红黑树: put/remove不修改当前的map, 返回一个新的map
+        新的map只复制从root到被修改位置路径上的节点(O(log n)个), 其余子树与旧版本共享
+        节点创建后不再修改, 没有parent指针, 任何版本都可以被任意多个线程无锁读取;
+        写线程把新版本赋值给一个volatile字段(或AtomicReference)即完成发布, 不再被引用的旧版本由GC回收
+
+        插入使用Okasaki的平衡方式: 沿路径重建时, 黑色节点下出现连续两个红色节点, 统一改写为红色节点带两个黑色儿子
+        删除使用Kahrs的方法: 从黑色节点的子树中删除会使黑高减一, 由balLeft/balRight在返回路径上修复;
+            删除的节点由append把左右子树合并后取代
+        最后把root染黑
+ */
+final class PersistentRBTreeMap<K extends Comparable<K>, V> implements Iterable<Map.Entry<K, V>> {
+
+    private static final PersistentRBTreeMap<?, ?> EMPTY = new PersistentRBTreeMap<>(null, 0);
+
+    private final Node<K, V> root;
+    private final int size;
+
+    private PersistentRBTreeMap(Node<K, V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<K>, V> PersistentRBTreeMap<K, V> empty() {
+        return (PersistentRBTreeMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public V get(K key) {
+        Node<K, V> node = findNode(key);
+        return node == null ? null : node.value;
+    }
+
+    public boolean containsKey(K key) {
+        return findNode(key) != null;
+    }
+
+    private Node<K, V> findNode(K key) {
+        Objects.requireNonNull(key);
+        Node<K, V> cur = root;
+        while (cur != null) {
+            int compare = cur.key.compareTo(key);
+            if (compare == 0) return cur;
+            cur = compare < 0 ? cur.right : cur.left;
+        }
+        return null;
+    }
+
+    // 返回包含key -> value的新版本, value与原来的相同(引用相同)时返回自身; 只做一次自顶向下的查找
+    public PersistentRBTreeMap<K, V> put(K key, V value) {
+        Objects.requireNonNull(key);
+        boolean[] added = new boolean[1];
+        Node<K, V> res = insert(root, key, value, added);
+        if (res == root) return this;
+        return new PersistentRBTreeMap<>(blacken(res), added[0] ? size + 1 : size);
+    }
+
+    // 返回不包含key的新版本, key不存在时返回自身
+    public PersistentRBTreeMap<K, V> remove(K key) {
+        Objects.requireNonNull(key);
+        Node<K, V> res = delete(root, key);
+        if (res == root) return this;
+        return new PersistentRBTreeMap<>(blacken(res), size - 1);
+    }
+
+    public K firstKey() {
+        if (root == null) throw new NoSuchElementException();
+        Node<K, V> cur = root;
+        while (cur.left != null) cur = cur.left;
+        return cur.key;
+    }
+
+    public K lastKey() {
+        if (root == null) throw new NoSuchElementException();
+        Node<K, V> cur = root;
+        while (cur.right != null) cur = cur.right;
+        return cur.key;
+    }
+
+    // 按key递增的顺序遍历
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (Map.Entry<K, V> entry : this) {
+            action.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /*
+            没有parent指针, 用栈记录还未访问的祖先, 栈的深度不超过树高; 返回的entry即树中的节点, 不可修改
+     */
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new Iterator<>() {
+            private final Deque<Node<K, V>> stack = new ArrayDeque<>();
+
+            {
+                pushLeft(root);
+            }
+
+            private void pushLeft(Node<K, V> node) {
+                for (Node<K, V> cur = node; cur != null; cur = cur.left) stack.push(cur);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                if (stack.isEmpty()) throw new NoSuchElementException();
+                Node<K, V> node = stack.pop();
+                pushLeft(node.right);
+                return node;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder res = new StringBuilder("{");
+        for (Map.Entry<K, V> entry : this) {
+            if (res.length() > 1) res.append(", ");
+            res.append(entry);
+        }
+        return res.append('}').toString();
+    }
+
+    // ---------------------------------------- 插入
+
+    /*
+            新增key时把added[0]置为true; key已经存在且value引用相同时返回node本身, 沿路径一直返回原来的节点, 不创建新节点
+     */
+    private static <K extends Comparable<K>, V> Node<K, V> insert(Node<K, V> node, K key, V value, boolean[] added) {
+        if (node == null) {
+            added[0] = true;
+            return new Node<>(key, value, null, null, true);
+        }
+        int compare = key.compareTo(node.key);
+        if (compare < 0) {
+            Node<K, V> l = insert(node.left, key, value, added);
+            return l == node.left ? node : balanceLeft(node.red, node.key, node.value, l, node.right);
+        }
+        if (compare > 0) {
+            Node<K, V> r = insert(node.right, key, value, added);
+            return r == node.right ? node : balanceRight(node.red, node.key, node.value, node.left, r);
+        }
+        return node.value == value ? node : new Node<>(key, value, node.left, node.right, node.red);
+    }
+
+    /*
+            左侧插入后: l为红色且有红色儿子时(只可能发生在当前节点为黑色时), 以中间的key为根, 改写为红色节点带两个黑色儿子
+                  z(黑)                 y(红)
+               x(红)   d    ->      x(黑)     z(黑)
+             a    y(红)            a    b    c    d
+                 b    c
+     */
+    private static <K extends Comparable<K>, V> Node<K, V> balanceLeft(boolean red, K key, V value, Node<K, V> l, Node<K, V> d) {
+        if (isRed(l) && isRed(l.left)) {
+            return new Node<>(l.key, l.value, blacken(l.left), new Node<>(key, value, l.right, d, false), true);
+        }
+        if (isRed(l) && isRed(l.right)) {
+            Node<K, V> y = l.right;
+            return new Node<>(y.key, y.value, new Node<>(l.key, l.value, l.left, y.left, false), new Node<>(key, value, y.right, d, false), true);
+        }
+        return new Node<>(key, value, l, d, red);
+    }
+
+    private static <K extends Comparable<K>, V> Node<K, V> balanceRight(boolean red, K key, V value, Node<K, V> a, Node<K, V> r) {
+        if (isRed(r) && isRed(r.left)) {
+            Node<K, V> y = r.left;
+            return new Node<>(y.key, y.value, new Node<>(key, value, a, y.left, false), new Node<>(r.key, r.value, y.right, r.right, false), true);
+        }
+        if (isRed(r) && isRed(r.right)) {
+            return new Node<>(r.key, r.value, new Node<>(key, value, a, r.left, false), blacken(r.right), true);
+        }
+        return new Node<>(key, value, a, r, red);
+    }
+
+    // ---------------------------------------- 删除
+
+    // key不存在时返回node本身, 沿路径一直返回原来的节点, 调用方据此判断是否删除了元素
+    private static <K extends Comparable<K>, V> Node<K, V> delete(Node<K, V> node, K key) {
+        if (node == null) return null;
+        int compare = key.compareTo(node.key);
+        if (compare < 0) {
+            Node<K, V> l = delete(node.left, key);
+            if (l == node.left) return node;
+            // 从黑色子树中删除后左侧黑高减一, 需要修复
+            if (isBlack(node.left)) return balLeft(node.key, node.value, l, node.right);
+            return new Node<>(node.key, node.value, l, node.right, true);
+        }
+        if (compare > 0) {
+            Node<K, V> r = delete(node.right, key);
+            if (r == node.right) return node;
+            if (isBlack(node.right)) return balRight(node.key, node.value, node.left, r);
+            return new Node<>(node.key, node.value, node.left, r, true);
+        }
+        return append(node.left, node.right);
+    }
+
+    // 左右两侧黑高相同时, 消除可能出现的连续红色节点
+    private static <K extends Comparable<K>, V> Node<K, V> balance(K key, V value, Node<K, V> tl, Node<K, V> tr) {
+        if (isRed(tl)) {
+            if (isRed(tr)) {
+                return new Node<>(key, value, blacken(tl), blacken(tr), true);
+            }
+            if (isRed(tl.left)) {
+                return new Node<>(tl.key, tl.value, blacken(tl.left), new Node<>(key, value, tl.right, tr, false), true);
+            }
+            if (isRed(tl.right)) {
+                Node<K, V> y = tl.right;
+                return new Node<>(y.key, y.value, new Node<>(tl.key, tl.value, tl.left, y.left, false), new Node<>(key, value, y.right, tr, false), true);
+            }
+        } else if (isRed(tr)) {
+            if (isRed(tr.right)) {
+                return new Node<>(tr.key, tr.value, new Node<>(key, value, tl, tr.left, false), blacken(tr.right), true);
+            }
+            if (isRed(tr.left)) {
+                Node<K, V> y = tr.left;
+                return new Node<>(y.key, y.value, new Node<>(key, value, tl, y.left, false), new Node<>(tr.key, tr.value, y.right, tr.right, false), true);
+            }
+        }
+        return new Node<>(key, value, tl, tr, false);
+    }
+
+    // tl的黑高比tr少一
+    private static <K extends Comparable<K>, V> Node<K, V> balLeft(K key, V value, Node<K, V> tl, Node<K, V> tr) {
+        if (isRed(tl)) {
+            return new Node<>(key, value, blacken(tl), tr, true);
+        }
+        if (isBlack(tr)) {
+            return balance(key, value, tl, redden(tr));
+        }
+        if (isRed(tr) && isBlack(tr.left)) {
+            Node<K, V> y = tr.left;
+            return new Node<>(y.key, y.value, new Node<>(key, value, tl, y.left, false),
+                    balance(tr.key, tr.value, y.right, redden(tr.right)), true);
+        }
+        throw new IllegalStateException("red-black invariant violated");
+    }
+
+    // tr的黑高比tl少一
+    private static <K extends Comparable<K>, V> Node<K, V> balRight(K key, V value, Node<K, V> tl, Node<K, V> tr) {
+        if (isRed(tr)) {
+            return new Node<>(key, value, tl, blacken(tr), true);
+        }
+        if (isBlack(tl)) {
+            return balance(key, value, redden(tl), tr);
+        }
+        if (isRed(tl) && isBlack(tl.right)) {
+            Node<K, V> y = tl.right;
+            return new Node<>(y.key, y.value, balance(tl.key, tl.value, redden(tl.left), y.left),
+                    new Node<>(key, value, y.right, tr, false), true);
+        }
+        throw new IllegalStateException("red-black invariant violated");
+    }
+
+    // 合并被删除节点的左右子树, tl中的key都小于tr, 两者黑高相同
+    private static <K extends Comparable<K>, V> Node<K, V> append(Node<K, V> tl, Node<K, V> tr) {
+        if (tl == null) return tr;
+        if (tr == null) return tl;
+        if (isRed(tl) && isRed(tr)) {
+            Node<K, V> bc = append(tl.right, tr.left);
+            if (isRed(bc)) {
+                return new Node<>(bc.key, bc.value, new Node<>(tl.key, tl.value, tl.left, bc.left, true),
+                        new Node<>(tr.key, tr.value, bc.right, tr.right, true), true);
+            }
+            return new Node<>(tl.key, tl.value, tl.left, new Node<>(tr.key, tr.value, bc, tr.right, true), true);
+        }
+        if (isBlack(tl) && isBlack(tr)) {
+            Node<K, V> bc = append(tl.right, tr.left);
+            if (isRed(bc)) {
+                return new Node<>(bc.key, bc.value, new Node<>(tl.key, tl.value, tl.left, bc.left, false),
+                        new Node<>(tr.key, tr.value, bc.right, tr.right, false), true);
+            }
+            return balLeft(tl.key, tl.value, tl.left, new Node<>(tr.key, tr.value, bc, tr.right, false));
+        }
+        if (isRed(tr)) {
+            return new Node<>(tr.key, tr.value, append(tl, tr.left), tr.right, true);
+        }
+        return new Node<>(tl.key, tl.value, tl.left, append(tl.right, tr), true);
+    }
+
+    // ---------------------------------------- 颜色
+
+    // null(叶子)既不是红色也不是黑色节点, 与上面的分支条件对应
+    private static boolean isRed(Node<?, ?> node) {
+        return node != null && node.red;
+    }
+
+    private static boolean isBlack(Node<?, ?> node) {
+        return node != null && !node.red;
+    }
+
+    private static <K extends Comparable<K>, V> Node<K, V> blacken(Node<K, V> node) {
+        return isRed(node) ? new Node<>(node.key, node.value, node.left, node.right, false) : node;
+    }
+
+    private static <K extends Comparable<K>, V> Node<K, V> redden(Node<K, V> node) {
+        return isBlack(node) ? new Node<>(node.key, node.value, node.left, node.right, true) : node;
+    }
+
+    static final class Node<K extends Comparable<K>, V> implements Map.Entry<K, V> {
+        final K key;
+        final V value;
+        final Node<K, V> left;
+        final Node<K, V> right;
+        final boolean red;
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right, boolean red) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.red = red;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException("persistent map entries are immutable");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Map.Entry<?, ?> e && Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+}
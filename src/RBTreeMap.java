@@ -1,8 +1,32 @@
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class RBTreeMap<K extends Comparable<K>, V> {
+/*
+        红黑树实现的NavigableMap, 可以替换java.util.TreeMap(按key的自然顺序, 不支持null key)
+        遍历沿parent指针移动: 后继为右子树中最左的节点, 没有右子树时向上找到第一个从左侧到达的祖先,
+            每一步均摊O(1), 不递归、不复制, 迭代器直接返回树中的节点, 每一步没有对象分配
+        subMap/headMap/tailMap/descendingMap/keySet都是视图, 只记录上下界与方向, 不复制数据
+        迭代器是fail-fast的: 迭代期间不通过该迭代器修改树时, 下一次操作抛出ConcurrentModificationException
+        删除有两个儿子的节点时, 后继节点的key/value被移入该节点, 实际摘除的是后继节点,
+            因此迭代器按引用比较结束位置的key而不是节点, 并在删除后把next改回当前节点
+        顺序统计: 每个节点记录子树中的节点个数count, 新增/摘除节点时沿parent更新所有祖先, 旋转时只需重算两个节点,
+            rank/select/countInRange以及视图的size都是一次自顶向下的查找, O(log n)
+        集合运算: 基于黑高的join(l, k, r)与split(key)实现split/join/union/intersect/difference, 见union的说明
+ */
+public class RBTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V> implements NavigableMap<K, V> {
     RBNode<K, V> root;
-    List<K> keyList;
+    int size;
+    // 结构修改(新增/删除节点)的次数, 用于迭代器的fail-fast检查
+    int modCount;
+    private EntrySet entrySet;
+    private KeySet navigableKeySet;
+    // 旋转次数, 一直记录, 通过metrics导出
+    long rotationCount;
+    private final TreeMetrics metrics = new TreeMetrics(this::structure);
 
     private void setRoot(RBNode<K, V> node) {
         this.root = node;
@@ -21,18 +45,37 @@ public class RBTreeMap<K extends Comparable<K>, V> {
 
     // 右旋操作
     private void rotateRight(RBNode<K, V> pivot, RBNode<K, V> cur) {
+        rotationCount++;
         beforeRotate(pivot, cur);
         RBNode<K, V> tempRight = pivot.right;
         pivot.setRight(cur);
         cur.setLeft(tempRight);
+        afterRotate(pivot, cur);
     }
 
     // 左旋操作
     private void rotateLeft(RBNode<K, V> pivot, RBNode<K, V> cur) {
+        rotationCount++;
         beforeRotate(pivot, cur);
         RBNode<K, V> tempLeft = pivot.left;
         pivot.setLeft(cur);
         cur.setRight(tempLeft);
+        afterRotate(pivot, cur);
+    }
+
+    // pivot取代cur成为这棵子树的根, 子树大小不变; cur的子树变化后重新计算
+    private static <K extends Comparable<K>, V> void afterRotate(RBNode<K, V> pivot, RBNode<K, V> cur) {
+        pivot.count = cur.count;
+        cur.count = 1 + count(cur.left) + count(cur.right);
+    }
+
+    private static int count(RBNode<?, ?> node) {
+        return node == null ? 0 : node.count;
+    }
+
+    // 新增或摘除一个节点后, 从其父节点开始调整所有祖先的子树大小
+    private static <K extends Comparable<K>, V> void updateCount(RBNode<K, V> parent, int delta) {
+        for (RBNode<K, V> cur = parent; cur != null; cur = cur.parent) cur.count += delta;
     }
 
     // 获取节点的祖父节点
@@ -67,46 +110,119 @@ public class RBTreeMap<K extends Comparable<K>, V> {
     }
 
     // 获取节点
-    public V get(K key) {
+    @Override
+    public V get(Object key) {
+        long start = TreeMetrics.ENABLED ? System.nanoTime() : 0;
         RBNode<K, V> node = findNode(key);
+        if (TreeMetrics.ENABLED) metrics.record(TreeMetrics.Op.GET, start);
         if (node != null) return node.value;
         return null;
     }
 
     // 添加节点
+    @Override
     public V put(K key, V value) {
+        Objects.requireNonNull(key);
+        long start = TreeMetrics.ENABLED ? System.nanoTime() : 0;
+        V res;
         // 如果节点未空，新增一个节点
         if (root == null) {
             this.setRoot(new RBNode<>(key, value, false));
-            return null;
+            size++;
+            modCount++;
+            res = null;
+        } else {
+            res = putVal(key, value);
         }
-        return putVal(key, value);
+        if (TreeMetrics.ENABLED) metrics.record(TreeMetrics.Op.PUT, start);
+        return res;
     }
 
     // 删除节点
-    public V remove(K key) {
+    @Override
+    public V remove(Object key) {
+        Objects.requireNonNull(key);
         if (root == null) return null;
-        return removeKey(key);
+        long start = TreeMetrics.ENABLED ? System.nanoTime() : 0;
+        V res = removeKey(key);
+        if (TreeMetrics.ENABLED) metrics.record(TreeMetrics.Op.REMOVE, start);
+        return res;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return findNode(key) != null;
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        size = 0;
+        root = null;
+    }
+
+    public TreeMetrics metrics() {
+        return metrics;
+    }
+
+    /*
+            遍历统计高度与节点个数, 每个节点只有一个元素, 填充率固定为1
+            与写线程并发时可能遇到旋转中途的环, 深度超过上限时放弃本次统计
+     */
+    private TreeMetrics.Structure structure() {
+        int height = 0;
+        long nodeCount = 0;
+        List<RBNode<K, V>> level = root == null ? List.of() : List.of(root);
+        while (!level.isEmpty()) {
+            if (++height > 128) throw new IllegalStateException("tree changed during traversal");
+            List<RBNode<K, V>> next = new ArrayList<>();
+            for (RBNode<K, V> node : level) {
+                nodeCount++;
+                if (node.left != null) next.add(node.left);
+                if (node.right != null) next.add(node.right);
+            }
+            level = next;
+        }
+        return new TreeMetrics.Structure(height, nodeCount, 1, 1, 0, 0, 0, rotationCount);
     }
 
-    // 搜索节点
-    private RBNode<K, V> findNode(K key) {
+    // 搜索节点, key的类型不对时由compareTo抛出ClassCastException
+    @SuppressWarnings("unchecked")
+    private RBNode<K, V> findNode(Object target) {
+        K key = (K) Objects.requireNonNull(target);
         if (root == null) return null;
         RBNode<K, V> cur = root;
+        int comparisons = 0;
+        // 每轮只调用一次compareTo, 同时得到是否相等与方向
         while (cur != null) {
-            if (cur.key.compareTo(key) == 0) return cur;
-            if (cur.key.compareTo(key) < 0) cur = cur.right;
+            if (TreeMetrics.ENABLED) comparisons++;
+            int compare = cur.key.compareTo(key);
+            if (compare == 0) break;
+            if (compare < 0) cur = cur.right;
             else cur = cur.left;
         }
-        return null;
+        if (TreeMetrics.ENABLED) metrics.search(comparisons);
+        return cur;
     }
 
     // 删除节点
-    private V removeKey(K key) {
+    private V removeKey(Object key) {
         // 向下寻找目标节点
         RBNode<K, V> waitDelete = findNode(key);
         // 如果树中没有该节点，则直接返回
         if (waitDelete == null) return null;
+        return deleteNode(waitDelete);
+    }
+
+    // 删除树中的节点, 返回被删除的value; 节点有两个儿子时实际摘除的是后继节点
+    private V deleteNode(RBNode<K, V> waitDelete) {
+        size--;
+        modCount++;
         V tempValue = waitDelete.value;
         // 获取节点儿子数量
         int sonNumber = waitDelete.getSonNumber();
@@ -141,6 +257,7 @@ public class RBTreeMap<K extends Comparable<K>, V> {
         RBNode<K, V> parent = node.parent;
         if (node == parent.left) parent.left = null;
         else parent.right = null;
+        updateCount(parent, -1);
     }
 
     // 直接删除节点，并用子结点代替该节点位置（出口情形）
@@ -155,6 +272,7 @@ public class RBTreeMap<K extends Comparable<K>, V> {
         RBNode<K, V> parent = node.parent;
         if (parent.left == node) parent.setLeft(replaceNode);
         else parent.setRight(replaceNode);
+        updateCount(parent, -1);
     }
 
     // 作一些前置处理
@@ -168,6 +286,7 @@ public class RBTreeMap<K extends Comparable<K>, V> {
         RBNode<K, V> parent = node.parent;
         if (parent.left == node) parent.left = null;
         else parent.right = null;
+        updateCount(parent, -1);
     }
 
     private void solveDeleteBlackNoSonTempBrotherRed(
@@ -310,34 +429,153 @@ public class RBTreeMap<K extends Comparable<K>, V> {
         else deleteBlackOneSon(replaceNode);
     }
 
-    // 寻找后置节点
-    private RBNode<K, V> successor(RBNode<K, V> node) {
-        RBNode<K, V> res = node.right;
-        while (res.left != null) res = res.left;
+    // 寻找后置节点: 有右子树时为右子树中最小的节点, 否则向上找到第一个从左侧到达的祖先
+    private static <K extends Comparable<K>, V> RBNode<K, V> successor(RBNode<K, V> node) {
+        if (node.right != null) {
+            RBNode<K, V> res = node.right;
+            while (res.left != null) res = res.left;
+            return res;
+        }
+        RBNode<K, V> cur = node;
+        while (cur.parent != null && cur.parent.right == cur) cur = cur.parent;
+        return cur.parent;
+    }
+
+    // 寻找前置节点, 与successor对称
+    private static <K extends Comparable<K>, V> RBNode<K, V> predecessor(RBNode<K, V> node) {
+        if (node.left != null) {
+            RBNode<K, V> res = node.left;
+            while (res.right != null) res = res.right;
+            return res;
+        }
+        RBNode<K, V> cur = node;
+        while (cur.parent != null && cur.parent.left == cur) cur = cur.parent;
+        return cur.parent;
+    }
+
+    private RBNode<K, V> firstNode() {
+        RBNode<K, V> cur = root;
+        if (cur != null) while (cur.left != null) cur = cur.left;
+        return cur;
+    }
+
+    private RBNode<K, V> lastNode() {
+        RBNode<K, V> cur = root;
+        if (cur != null) while (cur.right != null) cur = cur.right;
+        return cur;
+    }
+
+    // 第一个 >= key 的节点, inclusive为false时为第一个 > key 的节点
+    private RBNode<K, V> ceilingNode(K key, boolean inclusive) {
+        RBNode<K, V> res = null;
+        RBNode<K, V> cur = root;
+        while (cur != null) {
+            int compare = cur.key.compareTo(key);
+            if (compare > 0 || (inclusive && compare == 0)) {
+                res = cur;
+                cur = cur.left;
+            } else {
+                cur = cur.right;
+            }
+        }
+        return res;
+    }
+
+    // 最后一个 <= key 的节点, inclusive为false时为最后一个 < key 的节点
+    private RBNode<K, V> floorNode(K key, boolean inclusive) {
+        RBNode<K, V> res = null;
+        RBNode<K, V> cur = root;
+        while (cur != null) {
+            int compare = cur.key.compareTo(key);
+            if (compare < 0 || (inclusive && compare == 0)) {
+                res = cur;
+                cur = cur.right;
+            } else {
+                cur = cur.left;
+            }
+        }
+        return res;
+    }
+
+    /*
+            树中 < key 的元素个数, key存在时即为它按升序的下标(从0开始)
+     */
+    public int rank(K key) {
+        return rank(key, false);
+    }
+
+    // 树中 < key (inclusive为true时 <= key)的元素个数
+    private int rank(K key, boolean inclusive) {
+        int res = 0;
+        RBNode<K, V> cur = root;
+        while (cur != null) {
+            int compare = cur.key.compareTo(key);
+            if (compare < 0 || (inclusive && compare == 0)) {
+                res += count(cur.left) + 1;
+                cur = cur.right;
+            } else {
+                cur = cur.left;
+            }
+        }
         return res;
     }
 
+    // 升序第index个(从0开始)key
+    public K select(int index) {
+        Objects.checkIndex(index, size);
+        RBNode<K, V> cur = root;
+        for (; ; ) {
+            int leftCount = count(cur.left);
+            if (index == leftCount) return cur.key;
+            if (index < leftCount) {
+                cur = cur.left;
+            } else {
+                index -= leftCount + 1;
+                cur = cur.right;
+            }
+        }
+    }
+
+    // [from, to)中的元素个数, null表示没有限制
+    public int countInRange(K from, K to) {
+        if (from != null && to != null && from.compareTo(to) > 0) throw new IllegalArgumentException("from > to");
+        return (to == null ? size : rank(to, false)) - (from == null ? 0 : rank(from, false));
+    }
+
     // 添加节点
     private V putVal(K key, V value) {
         RBNode<K, V> current = root;
+        // 每轮只调用一次compareTo, 同时得到是否相等与方向
+        int comparisons = 1;
+        int compare;
         // 按照二叉搜索树的添加过程进行添加，先使用红色节点进行添加
-        while (current.key.compareTo(key) != 0) {
-            if (current.key.compareTo(key) < 0) {
+        while ((compare = current.key.compareTo(key)) != 0) {
+            if (compare < 0) {
                 if (current.right == null) {
+                    if (TreeMetrics.ENABLED) metrics.search(comparisons);
+                    size++;
+                    modCount++;
                     current.setRight(new RBNode<>(key, value, true));
+                    updateCount(current, 1);
                     balanceInsertion(current.right);
                     return null;
                 }
                 current = current.right;
             } else {
                 if (current.left == null) {
+                    if (TreeMetrics.ENABLED) metrics.search(comparisons);
+                    size++;
+                    modCount++;
                     current.setLeft(new RBNode<>(key, value, true));
+                    updateCount(current, 1);
                     balanceInsertion(current.left);
                     return null;
                 }
                 current = current.left;
             }
+            if (TreeMetrics.ENABLED) comparisons++;
         }
+        if (TreeMetrics.ENABLED) metrics.search(comparisons);
         V tempValue = current.value;
         current.value = value;
         return tempValue;
@@ -437,87 +675,1161 @@ public class RBTreeMap<K extends Comparable<K>, V> {
     }
 
 
-    public List<K> keySet() {
-        keyList = new ArrayList<>();
-        midOrder(root);
-        return keyList;
+    // 可以分裂的遍历, 用于并行流; 遍历期间修改树, 行为是未定义的
+    public Spliterator<Map.Entry<K, V>> spliterator() {
+        return spliterator(null, null);
     }
 
-    private void midOrder(RBNode<K, V> node) {
-        if (node == null) return;
-        midOrder(node.left);
-        keyList.add(node.key);
-        midOrder(node.right);
+    // [from, to), null表示没有限制
+    public Spliterator<Map.Entry<K, V>> spliterator(K from, K to) {
+        RBNode<K, V> first = from == null ? firstNode() : ceilingNode(from, true);
+        RBNode<K, V> fence = to == null ? null : ceilingNode(to, true);
+        if (first != null && fence != null && first.key.compareTo(fence.key) >= 0) {
+            first = null;
+        }
+        return new EntrySpliterator<>(this, first, fence, first == null ? 0 : countInRange(from, to));
     }
 
-    public static void main(String[] args) {
+    public Stream<Map.Entry<K, V>> stream() {
+        return StreamSupport.stream(spliterator(), false);
     }
 
-    static class RBNode<K extends Comparable<K>, V> implements Map.Entry<K, V> {
-        RBNode<K, V> parent;
-        RBNode<K, V> left;
-        RBNode<K, V> right;
-        K key;
-        V value;
-        boolean red;
+    public Stream<Map.Entry<K, V>> stream(K from, K to) {
+        return StreamSupport.stream(spliterator(from, to), false);
+    }
 
-        public RBNode(K key, V value, boolean red) {
-            this.key = key;
-            this.value = value;
-            this.red = red;
+    /*
+            遍历[current, fence)中的节点, 沿successor移动
+            分裂时从root向下找到严格位于(current, fence)之间的最高的节点s, 即这一段所在的最小子树的根,
+            [current, s)分出去, 自己保留[s, fence); 两部分的大小由rank相减得到, 是精确值(SIZED)
+     */
+    private static final class EntrySpliterator<K extends Comparable<K>, V> implements Spliterator<Map.Entry<K, V>> {
+        private final RBTreeMap<K, V> tree;
+        private RBNode<K, V> current;
+        private final RBNode<K, V> fence;
+        private long est;
+
+        EntrySpliterator(RBTreeMap<K, V> tree, RBNode<K, V> current, RBNode<K, V> fence, long est) {
+            this.tree = tree;
+            this.current = current;
+            this.fence = fence;
+            this.est = est;
         }
 
         @Override
-        public K getKey() {
-            return key;
+        public Spliterator<Map.Entry<K, V>> trySplit() {
+            if (current == null || current == fence) return null;
+            RBNode<K, V> s = tree.root;
+            while (s != null) {
+                if (s.key.compareTo(current.key) <= 0) s = s.right;
+                else if (fence != null && s.key.compareTo(fence.key) >= 0) s = s.left;
+                else break;
+            }
+            if (s == null) return null;
+            int prefixSize = tree.rank(s.key, false) - tree.rank(current.key, false);
+            EntrySpliterator<K, V> prefix = new EntrySpliterator<>(tree, current, s, prefixSize);
+            est -= prefixSize;
+            current = s;
+            return prefix;
         }
 
         @Override
-        public V getValue() {
-            return value;
+        public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action) {
+            RBNode<K, V> e = current;
+            if (e == null || e == fence) return false;
+            current = successor(e);
+            est--;
+            action.accept(new AbstractMap.SimpleImmutableEntry<>(e.key, e.value));
+            return true;
         }
 
         @Override
-        public V setValue(V value) {
-            V temp = this.value;
-            this.value = value;
-            return temp;
+        public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action) {
+            RBNode<K, V> e = current;
+            current = fence;
+            est = 0;
+            while (e != null && e != fence) {
+                action.accept(new AbstractMap.SimpleImmutableEntry<>(e.key, e.value));
+                e = successor(e);
+            }
         }
 
-        public boolean isRed() {
-            return this.red;
+        @Override
+        public long estimateSize() {
+            return est;
         }
 
-        public boolean isBlack() {
-            return !this.red;
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL
+                    | Spliterator.SIZED | Spliterator.SUBSIZED;
         }
 
+        @Override
+        public Comparator<? super Map.Entry<K, V>> getComparator() {
+            return Map.Entry.comparingByKey();
+        }
+    }
 
-        public void setRed() {
-            this.red = true;
+    // ---------------------------------------- join/split与集合运算
+
+    /*
+            把大于key(包括key)的元素移到返回的新map中, 自身只保留小于key的元素, O(log n)
+     */
+    public RBTreeMap<K, V> split(K key) {
+        Objects.requireNonNull(key);
+        Split<K, V> s = split(new Tree<>(root, blackHeight(root)), key);
+        Tree<K, V> high = s.found == null ? s.right : join(new Tree<>(null, 0), s.found, s.right);
+        setTree(s.left);
+        RBTreeMap<K, V> res = new RBTreeMap<>();
+        res.setTree(high);
+        return res;
+    }
+
+    /*
+            把higher中的所有元素移到自身, higher中的key必须都大于自身的key, 调用后higher为空, O(log n)
+     */
+    public void join(RBTreeMap<K, V> higher) {
+        if (higher.root == null) return;
+        if (root != null && lastNode().key.compareTo(higher.firstNode().key) >= 0) {
+            throw new IllegalArgumentException("keys of the joined map must be greater than all keys of this map");
         }
+        Tree<K, V> low = new Tree<>(root, blackHeight(root));
+        Split<K, V> first = splitFirst(new Tree<>(higher.root, blackHeight(higher.root)));
+        setTree(join(low, first.found, first.right));
+        higher.setTree(new Tree<>(null, 0));
+    }
 
-        public void setBlack() {
-            this.red = false;
+    /*
+            加入other中的所有元素, key相同时使用other的value(与putAll相同), other不变
+            以下三个集合运算都是按other的根节点split自身, 两侧递归后再join, 子问题足够大时并行执行;
+            自身有n个元素, other有m个元素时, 总的工作量为O(m log(n / m + 1)), 深度为O(log n log m)
+     */
+    public void union(RBTreeMap<K, V> other) {
+        Tree<K, V> tree = new Tree<>(root, blackHeight(root));
+        int otherHeight = blackHeight(other.root);
+        setTree(ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> union(tree, other.root, otherHeight))));
+    }
+
+    // 只保留other中也存在的key, value不变, other不变
+    public void intersect(RBTreeMap<K, ?> other) {
+        Tree<K, V> tree = new Tree<>(root, blackHeight(root));
+        int otherHeight = blackHeight(other.root);
+        setTree(ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> intersect(tree, other.root, otherHeight))));
+    }
+
+    // 删除other中存在的key, other不变
+    public void difference(RBTreeMap<K, ?> other) {
+        Tree<K, V> tree = new Tree<>(root, blackHeight(root));
+        int otherHeight = blackHeight(other.root);
+        setTree(ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> difference(tree, other.root, otherHeight))));
+    }
+
+    private void setTree(Tree<K, V> tree) {
+        this.root = tree.root;
+        if (root != null) {
+            root.parent = null;
+            root.setBlack();
         }
+        this.size = count(root);
+        modCount++;
+    }
 
-        public void setLeft(RBNode<K, V> node) {
-            this.left = node;
-            if (node != null)
-                node.parent = this;
+    // 以node为根的子树中, 从node到叶子路径上黑色节点的个数(包括node自身), 空树为0
+    private static int blackHeight(RBNode<?, ?> node) {
+        int res = 0;
+        for (RBNode<?, ?> cur = node; cur != null; cur = cur.left) {
+            if (cur.isBlack()) res++;
         }
+        return res;
+    }
 
-        public void setRight(RBNode<K, V> node) {
-            this.right = node;
-            if (node != null)
-                node.parent = this;
+    // 子节点的黑高
+    private static int childHeight(RBNode<?, ?> node, int blackHeight) {
+        return node.isBlack() ? blackHeight - 1 : blackHeight;
+    }
+
+    // 一棵子树与它的黑高, 黑高随递归传递, 不需要每次沿路径重新计算
+    private record Tree<K extends Comparable<K>, V>(RBNode<K, V> root, int blackHeight) {
+    }
+
+    // split的结果: left中的key都小于found, right中的key都大于found, found为等于key的节点(可能为null)
+    private record Split<K extends Comparable<K>, V>(Tree<K, V> left, RBNode<K, V> found, Tree<K, V> right) {
+    }
+
+    /*
+            用节点k连接l与r(l中的key < k.key < r中的key), 返回的子树根节点可能为红色
+            黑高较大的一侧沿右(左)边沿向下, 找到黑高相同的黑色节点后把k作为红色节点插入, 再在返回的路径上消除连续的红色节点,
+            时间为O(两侧黑高之差 + 1); 先把两侧的根染黑, 保证插入位置的另一侧不会出现红色的根
+     */
+    private static <K extends Comparable<K>, V> Tree<K, V> join(Tree<K, V> l, RBNode<K, V> k, Tree<K, V> r) {
+        l = blacken(l);
+        r = blacken(r);
+        if (l.blackHeight > r.blackHeight) {
+            RBNode<K, V> res = joinRight(l.root, l.blackHeight, k, r.root, r.blackHeight);
+            if (res.isRed() && isRed(res.right)) {
+                res.setBlack();
+                return new Tree<>(res, l.blackHeight + 1);
+            }
+            return new Tree<>(res, l.blackHeight);
         }
+        if (r.blackHeight > l.blackHeight) {
+            RBNode<K, V> res = joinLeft(l.root, l.blackHeight, k, r.root, r.blackHeight);
+            if (res.isRed() && isRed(res.left)) {
+                res.setBlack();
+                return new Tree<>(res, r.blackHeight + 1);
+            }
+            return new Tree<>(res, r.blackHeight);
+        }
+        return new Tree<>(link(l.root, k, r.root, true), l.blackHeight);
+    }
 
-        public int getSonNumber() {
-            int res = 0;
-            if (this.left != null) res++;
-            if (this.right != null) res++;
-            return res;
+    private static <K extends Comparable<K>, V> Tree<K, V> blacken(Tree<K, V> tree) {
+        if (!isRed(tree.root)) return tree;
+        tree.root.setBlack();
+        return new Tree<>(tree.root, tree.blackHeight + 1);
+    }
+
+    private static boolean isRed(RBNode<?, ?> node) {
+        return node != null && node.isRed();
+    }
+
+    // 把k作为left与right的父节点, 重新计算子树大小
+    private static <K extends Comparable<K>, V> RBNode<K, V> link(RBNode<K, V> left, RBNode<K, V> k, RBNode<K, V> right, boolean red) {
+        k.setLeft(left);
+        k.setRight(right);
+        k.red = red;
+        k.count = 1 + count(left) + count(right);
+        return k;
+    }
+
+    // t的黑高 > r的黑高
+    private static <K extends Comparable<K>, V> RBNode<K, V> joinRight(RBNode<K, V> t, int tHeight, RBNode<K, V> k, RBNode<K, V> r, int rHeight) {
+        if (t == null || (t.isBlack() && tHeight == rHeight)) return link(t, k, r, true);
+        RBNode<K, V> right = joinRight(t.right, childHeight(t, tHeight), k, r, rHeight);
+        link(t.left, t, right, t.red);
+        if (t.isBlack() && right.isRed() && isRed(right.right)) {
+            right.right.setBlack();
+            return rotateLeft(t);
+        }
+        return t;
+    }
+
+    private static <K extends Comparable<K>, V> RBNode<K, V> joinLeft(RBNode<K, V> l, int lHeight, RBNode<K, V> k, RBNode<K, V> t, int tHeight) {
+        if (t == null || (t.isBlack() && tHeight == lHeight)) return link(l, k, t, true);
+        RBNode<K, V> left = joinLeft(l, lHeight, k, t.left, childHeight(t, tHeight));
+        link(left, t, t.right, t.red);
+        if (t.isBlack() && left.isRed() && isRed(left.left)) {
+            left.left.setBlack();
+            return rotateRight(t);
+        }
+        return t;
+    }
+
+    // join内部使用的旋转, 子树之外的父节点由调用方连接
+    private static <K extends Comparable<K>, V> RBNode<K, V> rotateLeft(RBNode<K, V> t) {
+        RBNode<K, V> pivot = t.right;
+        link(t.left, t, pivot.left, t.red);
+        return link(t, pivot, pivot.right, pivot.red);
+    }
+
+    private static <K extends Comparable<K>, V> RBNode<K, V> rotateRight(RBNode<K, V> t) {
+        RBNode<K, V> pivot = t.left;
+        link(pivot.right, t, t.right, t.red);
+        return link(pivot.left, pivot, t, pivot.red);
+    }
+
+    // 按key拆分, 路径上的节点依次作为join的中间节点, 总时间O(log n)
+    private static <K extends Comparable<K>, V> Split<K, V> split(Tree<K, V> tree, K key) {
+        RBNode<K, V> t = tree.root;
+        if (t == null) return new Split<>(tree, null, tree);
+        int height = childHeight(t, tree.blackHeight);
+        Tree<K, V> left = new Tree<>(t.left, height);
+        Tree<K, V> right = new Tree<>(t.right, height);
+        int compare = key.compareTo(t.key);
+        if (compare == 0) return new Split<>(left, t, right);
+        if (compare < 0) {
+            Split<K, V> s = split(left, key);
+            return new Split<>(s.left, s.found, join(s.right, t, right));
+        }
+        Split<K, V> s = split(right, key);
+        return new Split<>(join(left, t, s.left), s.found, s.right);
+    }
+
+    // 拆出最小的节点, 结果中found为最小的节点, right为其余部分
+    private static <K extends Comparable<K>, V> Split<K, V> splitFirst(Tree<K, V> tree) {
+        RBNode<K, V> t = tree.root;
+        int height = childHeight(t, tree.blackHeight);
+        Tree<K, V> right = new Tree<>(t.right, height);
+        if (t.left == null) return new Split<>(null, t, right);
+        Split<K, V> s = splitFirst(new Tree<>(t.left, height));
+        return new Split<>(null, s.found, join(s.right, t, right));
+    }
+
+    // 拆出最大的节点, 结果中found为最大的节点, left为其余部分
+    private static <K extends Comparable<K>, V> Split<K, V> splitLast(Tree<K, V> tree) {
+        RBNode<K, V> t = tree.root;
+        int height = childHeight(t, tree.blackHeight);
+        Tree<K, V> left = new Tree<>(t.left, height);
+        if (t.right == null) return new Split<>(left, t, null);
+        Split<K, V> s = splitLast(new Tree<>(t.right, height));
+        return new Split<>(join(left, t, s.left), s.found, null);
+    }
+
+    // 没有中间节点的join: 拆出l中最大的节点作为中间节点
+    private static <K extends Comparable<K>, V> Tree<K, V> join2(Tree<K, V> l, Tree<K, V> r) {
+        if (l.root == null) return r;
+        if (r.root == null) return l;
+        Split<K, V> s = splitLast(l);
+        return join(s.left, s.found, r);
+    }
+
+    // 两个子问题的元素总数超过PARALLEL_THRESHOLD时, 左侧交给fork-join并行执行
+    static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    private static <K extends Comparable<K>, V> Tree<K, V> union(Tree<K, V> tree, RBNode<K, V> other, int otherHeight) {
+        if (other == null) return tree;
+        if (tree.root == null) return new Tree<>(copy(other), otherHeight);
+        Split<K, V> s = split(tree, other.key);
+        RBNode<K, V> k = s.found != null ? s.found : new RBNode<>(other.key, other.value, true);
+        k.value = other.value;
+        int height = childHeight(other, otherHeight);
+        Tree<K, V> left;
+        Tree<K, V> right;
+        if (count(s.left.root) + count(other.left) + count(s.right.root) + count(other.right) > PARALLEL_THRESHOLD) {
+            ForkJoinTask<Tree<K, V>> task = ForkJoinTask.adapt(() -> union(s.left, other.left, height)).fork();
+            right = union(s.right, other.right, height);
+            left = task.join();
+        } else {
+            left = union(s.left, other.left, height);
+            right = union(s.right, other.right, height);
+        }
+        return join(left, k, right);
+    }
+
+    private static <K extends Comparable<K>, V> Tree<K, V> intersect(Tree<K, V> tree, RBNode<K, ?> other, int otherHeight) {
+        if (tree.root == null || other == null) return new Tree<>(null, 0);
+        Split<K, V> s = split(tree, other.key);
+        int height = childHeight(other, otherHeight);
+        Tree<K, V> left;
+        Tree<K, V> right;
+        if (count(s.left.root) + count(other.left) + count(s.right.root) + count(other.right) > PARALLEL_THRESHOLD) {
+            ForkJoinTask<Tree<K, V>> task = ForkJoinTask.adapt(() -> intersect(s.left, other.left, height)).fork();
+            right = intersect(s.right, other.right, height);
+            left = task.join();
+        } else {
+            left = intersect(s.left, other.left, height);
+            right = intersect(s.right, other.right, height);
+        }
+        return s.found != null ? join(left, s.found, right) : join2(left, right);
+    }
+
+    private static <K extends Comparable<K>, V> Tree<K, V> difference(Tree<K, V> tree, RBNode<K, ?> other, int otherHeight) {
+        if (tree.root == null || other == null) return tree;
+        Split<K, V> s = split(tree, other.key);
+        int height = childHeight(other, otherHeight);
+        Tree<K, V> left;
+        Tree<K, V> right;
+        if (count(s.left.root) + count(other.left) + count(s.right.root) + count(other.right) > PARALLEL_THRESHOLD) {
+            ForkJoinTask<Tree<K, V>> task = ForkJoinTask.adapt(() -> difference(s.left, other.left, height)).fork();
+            right = difference(s.right, other.right, height);
+            left = task.join();
+        } else {
+            left = difference(s.left, other.left, height);
+            right = difference(s.right, other.right, height);
+        }
+        return join2(left, right);
+    }
+
+    // 复制子树, 颜色与子树大小不变, 用于把other中的整棵子树加入自身
+    private static <K extends Comparable<K>, V> RBNode<K, V> copy(RBNode<K, V> node) {
+        if (node == null) return null;
+        RBNode<K, V> res = new RBNode<>(node.key, node.value, node.red);
+        RBNode<K, V> left;
+        if (node.count > PARALLEL_THRESHOLD) {
+            ForkJoinTask<RBNode<K, V>> task = ForkJoinTask.adapt(() -> copy(node.left)).fork();
+            res.setRight(copy(node.right));
+            left = task.join();
+        } else {
+            left = copy(node.left);
+            res.setRight(copy(node.right));
+        }
+        res.setLeft(left);
+        res.count = node.count;
+        return res;
+    }
+
+    // ---------------------------------------- NavigableMap
+
+    // 导航方法返回不可修改的entry, 与TreeMap相同; 迭代器返回树中的节点, 可以setValue
+    private static <K extends Comparable<K>, V> Map.Entry<K, V> exportEntry(RBNode<K, V> node) {
+        return node == null ? null : new AbstractMap.SimpleImmutableEntry<>(node.key, node.value);
+    }
+
+    private static <K extends Comparable<K>> K keyOrNull(RBNode<K, ?> node) {
+        return node == null ? null : node.key;
+    }
+
+    private static <K extends Comparable<K>> K key(RBNode<K, ?> node) {
+        if (node == null) throw new NoSuchElementException();
+        return node.key;
+    }
+
+    // 删除节点并返回删除前的entry
+    private Map.Entry<K, V> pollNode(RBNode<K, V> node) {
+        Map.Entry<K, V> res = exportEntry(node);
+        if (node != null) deleteNode(node);
+        return res;
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return null;
+    }
+
+    @Override
+    public K firstKey() {
+        return key(firstNode());
+    }
+
+    @Override
+    public K lastKey() {
+        return key(lastNode());
+    }
+
+    @Override
+    public Map.Entry<K, V> firstEntry() {
+        return exportEntry(firstNode());
+    }
+
+    @Override
+    public Map.Entry<K, V> lastEntry() {
+        return exportEntry(lastNode());
+    }
+
+    @Override
+    public Map.Entry<K, V> pollFirstEntry() {
+        return pollNode(firstNode());
+    }
+
+    @Override
+    public Map.Entry<K, V> pollLastEntry() {
+        return pollNode(lastNode());
+    }
+
+    @Override
+    public Map.Entry<K, V> lowerEntry(K key) {
+        return exportEntry(floorNode(key, false));
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return keyOrNull(floorNode(key, false));
+    }
+
+    @Override
+    public Map.Entry<K, V> floorEntry(K key) {
+        return exportEntry(floorNode(key, true));
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return keyOrNull(floorNode(key, true));
+    }
+
+    @Override
+    public Map.Entry<K, V> ceilingEntry(K key) {
+        return exportEntry(ceilingNode(key, true));
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return keyOrNull(ceilingNode(key, true));
+    }
+
+    @Override
+    public Map.Entry<K, V> higherEntry(K key) {
+        return exportEntry(ceilingNode(key, false));
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return keyOrNull(ceilingNode(key, false));
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        if (entrySet == null) entrySet = new EntrySet(null);
+        return entrySet;
+    }
+
+    @Override
+    public NavigableSet<K> keySet() {
+        return navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+        if (navigableKeySet == null) navigableKeySet = new KeySet(this);
+        return navigableKeySet;
+    }
+
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    @Override
+    public NavigableMap<K, V> descendingMap() {
+        return new SubMap(null, false, null, false, true);
+    }
+
+    @Override
+    public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        if (fromKey.compareTo(toKey) > 0) throw new IllegalArgumentException("fromKey > toKey");
+        return new SubMap(fromKey, fromInclusive, toKey, toInclusive, false);
+    }
+
+    @Override
+    public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+        return new SubMap(null, false, Objects.requireNonNull(toKey), inclusive, false);
+    }
+
+    @Override
+    public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        return new SubMap(Objects.requireNonNull(fromKey), inclusive, null, false, false);
+    }
+
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public SortedMap<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    /*
+            按中序沿parent指针遍历, ascending为false时逆序
+            fenceKey为遍历结束位置(第一个不在范围内的节点)的key, 按引用比较, 没有结束位置时为null
+     */
+    private abstract class NodeIterator<T> implements Iterator<T> {
+        private RBNode<K, V> next;
+        private RBNode<K, V> lastReturned;
+        private final Object fenceKey;
+        private final boolean ascending;
+        private int expectedModCount = modCount;
+
+        NodeIterator(RBNode<K, V> first, RBNode<K, V> fence, boolean ascending) {
+            this.next = first;
+            this.fenceKey = fence == null ? null : fence.key;
+            this.ascending = ascending;
+        }
+
+        @Override
+        public final boolean hasNext() {
+            return next != null && next.key != fenceKey;
+        }
+
+        final RBNode<K, V> nextNode() {
+            RBNode<K, V> e = next;
+            if (e == null || e.key == fenceKey) throw new NoSuchElementException();
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            next = ascending ? successor(e) : predecessor(e);
+            lastReturned = e;
+            return e;
+        }
+
+        @Override
+        public final void remove() {
+            if (lastReturned == null) throw new IllegalStateException();
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            // 有两个儿子时后继节点的内容被移入lastReturned, 正序遍历的下一个元素变为lastReturned
+            if (ascending && lastReturned.left != null && lastReturned.right != null) next = lastReturned;
+            deleteNode(lastReturned);
+            expectedModCount = modCount;
+            lastReturned = null;
+        }
+    }
+
+    private final class EntryIterator extends NodeIterator<Map.Entry<K, V>> {
+        EntryIterator(RBNode<K, V> first, RBNode<K, V> fence, boolean ascending) {
+            super(first, fence, ascending);
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            return nextNode();
+        }
+    }
+
+    /*
+            整棵树(view为null)或者某个区间视图的entrySet
+     */
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        private final SubMap view;
+
+        EntrySet(SubMap view) {
+            this.view = view;
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return view == null ? new EntryIterator(firstNode(), null, true) : view.entryIterator();
+        }
+
+        @Override
+        public int size() {
+            return view == null ? size : view.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return view == null ? size == 0 : view.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            if (view == null) RBTreeMap.this.clear();
+            else super.clear();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return find(o) != null;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            RBNode<K, V> node = find(o);
+            if (node == null) return false;
+            deleteNode(node);
+            return true;
+        }
+
+        @Override
+        public Spliterator<Map.Entry<K, V>> spliterator() {
+            return view == null ? RBTreeMap.this.spliterator() : super.spliterator();
+        }
+
+        // key与value都相同的节点
+        @SuppressWarnings("unchecked")
+        private RBNode<K, V> find(Object o) {
+            if (!(o instanceof Map.Entry<?, ?> e) || e.getKey() == null) return null;
+            if (view != null && !view.inRange((K) e.getKey())) return null;
+            RBNode<K, V> node = findNode(e.getKey());
+            return node != null && Objects.equals(node.value, e.getValue()) ? node : null;
+        }
+    }
+
+    /*
+            NavigableMap的key视图, 所有操作都转发给m
+     */
+    private final class KeySet extends AbstractSet<K> implements NavigableSet<K> {
+        private final NavigableMap<K, V> m;
+
+        KeySet(NavigableMap<K, V> m) {
+            this.m = m;
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            Iterator<Map.Entry<K, V>> entries = m.entrySet().iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public K next() {
+                    return entries.next().getKey();
+                }
+
+                @Override
+                public void remove() {
+                    entries.remove();
+                }
+            };
+        }
+
+        @Override
+        public Iterator<K> descendingIterator() {
+            return descendingSet().iterator();
+        }
+
+        @Override
+        public int size() {
+            return m.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return m.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return m.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!m.containsKey(o)) return false;
+            m.remove(o);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            m.clear();
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return m.comparator();
+        }
+
+        @Override
+        public K first() {
+            return m.firstKey();
+        }
+
+        @Override
+        public K last() {
+            return m.lastKey();
+        }
+
+        @Override
+        public K lower(K k) {
+            return m.lowerKey(k);
+        }
+
+        @Override
+        public K floor(K k) {
+            return m.floorKey(k);
+        }
+
+        @Override
+        public K ceiling(K k) {
+            return m.ceilingKey(k);
+        }
+
+        @Override
+        public K higher(K k) {
+            return m.higherKey(k);
+        }
+
+        @Override
+        public K pollFirst() {
+            Map.Entry<K, V> e = m.pollFirstEntry();
+            return e == null ? null : e.getKey();
+        }
+
+        @Override
+        public K pollLast() {
+            Map.Entry<K, V> e = m.pollLastEntry();
+            return e == null ? null : e.getKey();
+        }
+
+        @Override
+        public NavigableSet<K> descendingSet() {
+            return new KeySet(m.descendingMap());
+        }
+
+        @Override
+        public NavigableSet<K> subSet(K fromElement, boolean fromInclusive, K toElement, boolean toInclusive) {
+            return new KeySet(m.subMap(fromElement, fromInclusive, toElement, toInclusive));
+        }
+
+        @Override
+        public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+            return new KeySet(m.headMap(toElement, inclusive));
+        }
+
+        @Override
+        public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+            return new KeySet(m.tailMap(fromElement, inclusive));
+        }
+
+        @Override
+        public SortedSet<K> subSet(K fromElement, K toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        @Override
+        public SortedSet<K> headSet(K toElement) {
+            return headSet(toElement, false);
+        }
+
+        @Override
+        public SortedSet<K> tailSet(K fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+
+    /*
+            区间视图: lo/hi为null表示没有下界/上界, descending为true时按逆序访问
+            先按自然顺序在区间内定位(absXxx), 再根据方向选择使用哪一个
+            所有操作都是常数次自顶向下的查找, size通过两次rank得到
+     */
+    private final class SubMap extends AbstractMap<K, V> implements NavigableMap<K, V> {
+        private final K lo;
+        private final boolean loInclusive;
+        private final K hi;
+        private final boolean hiInclusive;
+        private final boolean descending;
+        private EntrySet entrySet;
+
+        SubMap(K lo, boolean loInclusive, K hi, boolean hiInclusive, boolean descending) {
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+        }
+
+        private boolean tooLow(K key) {
+            if (lo == null) return false;
+            int compare = key.compareTo(lo);
+            return compare < 0 || (compare == 0 && !loInclusive);
+        }
+
+        private boolean tooHigh(K key) {
+            if (hi == null) return false;
+            int compare = key.compareTo(hi);
+            return compare > 0 || (compare == 0 && !hiInclusive);
+        }
+
+        boolean inRange(K key) {
+            return !tooLow(key) && !tooHigh(key);
+        }
+
+        // 子视图的边界可以等于本视图不包含的边界
+        private boolean inRange(K key, boolean inclusive) {
+            if (inclusive) return inRange(key);
+            return (lo == null || key.compareTo(lo) >= 0) && (hi == null || key.compareTo(hi) <= 0);
+        }
+
+        private RBNode<K, V> absLowest() {
+            RBNode<K, V> node = lo == null ? firstNode() : ceilingNode(lo, loInclusive);
+            return node == null || tooHigh(node.key) ? null : node;
+        }
+
+        private RBNode<K, V> absHighest() {
+            RBNode<K, V> node = hi == null ? lastNode() : floorNode(hi, hiInclusive);
+            return node == null || tooLow(node.key) ? null : node;
+        }
+
+        private RBNode<K, V> absCeiling(K key, boolean inclusive) {
+            if (tooLow(key)) return absLowest();
+            RBNode<K, V> node = ceilingNode(key, inclusive);
+            return node == null || tooHigh(node.key) ? null : node;
+        }
+
+        private RBNode<K, V> absFloor(K key, boolean inclusive) {
+            if (tooHigh(key)) return absHighest();
+            RBNode<K, V> node = floorNode(key, inclusive);
+            return node == null || tooLow(node.key) ? null : node;
+        }
+
+        // 区间之后/之前的第一个节点, 作为遍历的结束位置
+        private RBNode<K, V> absHighFence() {
+            return hi == null ? null : ceilingNode(hi, !hiInclusive);
+        }
+
+        private RBNode<K, V> absLowFence() {
+            return lo == null ? null : floorNode(lo, !loInclusive);
+        }
+
+        private RBNode<K, V> first() {
+            return descending ? absHighest() : absLowest();
+        }
+
+        private RBNode<K, V> last() {
+            return descending ? absLowest() : absHighest();
+        }
+
+        private RBNode<K, V> ceiling(K key, boolean inclusive) {
+            return descending ? absFloor(key, inclusive) : absCeiling(key, inclusive);
+        }
+
+        private RBNode<K, V> floor(K key, boolean inclusive) {
+            return descending ? absCeiling(key, inclusive) : absFloor(key, inclusive);
+        }
+
+        Iterator<Map.Entry<K, V>> entryIterator() {
+            return new EntryIterator(first(), descending ? absLowFence() : absHighFence(), !descending);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(Object key) {
+            return inRange((K) Objects.requireNonNull(key)) ? RBTreeMap.this.get(key) : null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean containsKey(Object key) {
+            return inRange((K) Objects.requireNonNull(key)) && RBTreeMap.this.containsKey(key);
+        }
+
+        @Override
+        public V put(K key, V value) {
+            if (!inRange(Objects.requireNonNull(key))) throw new IllegalArgumentException("key out of range: " + key);
+            return RBTreeMap.this.put(key, value);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V remove(Object key) {
+            return inRange((K) Objects.requireNonNull(key)) ? RBTreeMap.this.remove(key) : null;
+        }
+
+        @Override
+        public int size() {
+            int high = hi == null ? size : rank(hi, hiInclusive);
+            int low = lo == null ? 0 : rank(lo, !loInclusive);
+            return Math.max(0, high - low);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return first() == null;
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            if (entrySet == null) entrySet = new EntrySet(this);
+            return entrySet;
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return descending ? Collections.reverseOrder() : null;
+        }
+
+        @Override
+        public K firstKey() {
+            return key(first());
+        }
+
+        @Override
+        public K lastKey() {
+            return key(last());
+        }
+
+        @Override
+        public Map.Entry<K, V> firstEntry() {
+            return exportEntry(first());
+        }
+
+        @Override
+        public Map.Entry<K, V> lastEntry() {
+            return exportEntry(last());
+        }
+
+        @Override
+        public Map.Entry<K, V> pollFirstEntry() {
+            return pollNode(first());
+        }
+
+        @Override
+        public Map.Entry<K, V> pollLastEntry() {
+            return pollNode(last());
+        }
+
+        @Override
+        public Map.Entry<K, V> lowerEntry(K key) {
+            return exportEntry(floor(key, false));
+        }
+
+        @Override
+        public K lowerKey(K key) {
+            return keyOrNull(floor(key, false));
+        }
+
+        @Override
+        public Map.Entry<K, V> floorEntry(K key) {
+            return exportEntry(floor(key, true));
+        }
+
+        @Override
+        public K floorKey(K key) {
+            return keyOrNull(floor(key, true));
+        }
+
+        @Override
+        public Map.Entry<K, V> ceilingEntry(K key) {
+            return exportEntry(ceiling(key, true));
+        }
+
+        @Override
+        public K ceilingKey(K key) {
+            return keyOrNull(ceiling(key, true));
+        }
+
+        @Override
+        public Map.Entry<K, V> higherEntry(K key) {
+            return exportEntry(ceiling(key, false));
+        }
+
+        @Override
+        public K higherKey(K key) {
+            return keyOrNull(ceiling(key, false));
+        }
+
+        @Override
+        public NavigableSet<K> keySet() {
+            return navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<K> navigableKeySet() {
+            return new KeySet(this);
+        }
+
+        @Override
+        public NavigableSet<K> descendingKeySet() {
+            return descendingMap().navigableKeySet();
+        }
+
+        @Override
+        public NavigableMap<K, V> descendingMap() {
+            return new SubMap(lo, loInclusive, hi, hiInclusive, !descending);
+        }
+
+        @Override
+        public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+            if (!inRange(fromKey, fromInclusive)) throw new IllegalArgumentException("fromKey out of range: " + fromKey);
+            if (!inRange(toKey, toInclusive)) throw new IllegalArgumentException("toKey out of range: " + toKey);
+            int compare = fromKey.compareTo(toKey);
+            if (descending ? compare < 0 : compare > 0) throw new IllegalArgumentException("fromKey > toKey");
+            return descending ? new SubMap(toKey, toInclusive, fromKey, fromInclusive, true)
+                    : new SubMap(fromKey, fromInclusive, toKey, toInclusive, false);
+        }
+
+        @Override
+        public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+            if (!inRange(toKey, inclusive)) throw new IllegalArgumentException("toKey out of range: " + toKey);
+            return descending ? new SubMap(toKey, inclusive, hi, hiInclusive, true)
+                    : new SubMap(lo, loInclusive, toKey, inclusive, false);
+        }
+
+        @Override
+        public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+            if (!inRange(fromKey, inclusive)) throw new IllegalArgumentException("fromKey out of range: " + fromKey);
+            return descending ? new SubMap(lo, loInclusive, fromKey, inclusive, true)
+                    : new SubMap(fromKey, inclusive, hi, hiInclusive, false);
+        }
+
+        @Override
+        public SortedMap<K, V> subMap(K fromKey, K toKey) {
+            return subMap(fromKey, true, toKey, false);
+        }
+
+        @Override
+        public SortedMap<K, V> headMap(K toKey) {
+            return headMap(toKey, false);
+        }
+
+        @Override
+        public SortedMap<K, V> tailMap(K fromKey) {
+            return tailMap(fromKey, true);
+        }
+    }
+
+    public static void main(String[] args) {
+    }
+
+    static class RBNode<K extends Comparable<K>, V> implements Map.Entry<K, V> {
+        RBNode<K, V> parent;
+        RBNode<K, V> left;
+        RBNode<K, V> right;
+        K key;
+        V value;
+        boolean red;
+        // 以该节点为根的子树中的节点个数
+        int count = 1;
+
+        public RBNode(K key, V value, boolean red) {
+            this.key = key;
+            this.value = value;
+            this.red = red;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            V temp = this.value;
+            this.value = value;
+            return temp;
+        }
+
+        public boolean isRed() {
+            return this.red;
+        }
+
+        public boolean isBlack() {
+            return !this.red;
+        }
+
+
+        public void setRed() {
+            this.red = true;
+        }
+
+        public void setBlack() {
+            this.red = false;
+        }
+
+        public void setLeft(RBNode<K, V> node) {
+            this.left = node;
+            if (node != null)
+                node.parent = this;
+        }
+
+        public void setRight(RBNode<K, V> node) {
+            this.right = node;
+            if (node != null)
+                node.parent = this;
+        }
+
+        public int getSonNumber() {
+            int res = 0;
+            if (this.left != null) res++;
+            if (this.right != null) res++;
+            return res;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Map.Entry<?, ?> e && Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
         }
     }
 
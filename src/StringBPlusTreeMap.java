@@ -0,0 +1,547 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+        key为String的b+树, 语义与BPlusTreeMap相同(put/get/remove/keySet), 结构与IntBPlusTreeMap相同
+        针对有很长公共前缀的key(url, 带租户前缀的id)做了两种压缩:
+
+        1. 叶子节点前缀压缩: 节点中所有key的公共前缀只保存一次(prefix),
+           其余部分(后缀)连续存放在一个char[]中, offsets[i]到offsets[i + 1]为第i个后缀
+           每个叶子节点只有一个char[], 不为每个key保留String对象
+           比较时先比较前缀, 前缀相同时只比较后缀, 不需要拼出完整的key
+        2. 索引key后缀截断: 叶子节点之间的索引key不使用左侧的最大key,
+           而是取满足 左侧最大key <= s < 右侧最小key 的最短字符串, 例如:
+               ".../user/1043" | ".../user/2001"  ->  ".../user/2"
+           索引key更短, 占用更少的内存, 比较也更快
+
+        索引节点: keys[i] >= children[i]中所有的key, keys[i] < children[i + 1]中所有的key
+                  children[size]为最右侧的子节点
+ */
+class StringBPlusTreeMap<V> {
+
+    NodeGroup<V> root;
+    NodeGroup<V> head;
+    int order;
+    int halfOrder;
+    int minNumber;
+    int size;
+
+    public StringBPlusTreeMap(int order) {
+        this.order = order;
+        this.halfOrder = (this.order + 1) / 2;
+        this.minNumber = this.order / 2;
+        this.root = new NodeGroup<>(order, true);
+        this.head = root;
+    }
+
+    public V put(String key, V value) {
+        NodeGroup<V> leaf = searchLeaf(key);
+        int position = leaf.searchInsertPosition(key);
+        // 替换节点
+        if (position < leaf.size && leaf.compareKey(position, key) == 0) {
+            V temp = leaf.value(position);
+            leaf.values[position] = value;
+            return temp;
+        }
+        leaf.insertLeaf(position, key, value);
+        size++;
+        fixAfterInsertion(leaf);
+        return null;
+    }
+
+    public V get(String key) {
+        NodeGroup<V> leaf = searchLeaf(key);
+        int position = leaf.searchInsertPosition(key);
+        if (position < leaf.size && leaf.compareKey(position, key) == 0) {
+            return leaf.value(position);
+        }
+        return null;
+    }
+
+    public boolean containsKey(String key) {
+        NodeGroup<V> leaf = searchLeaf(key);
+        int position = leaf.searchInsertPosition(key);
+        return position < leaf.size && leaf.compareKey(position, key) == 0;
+    }
+
+    public V remove(String key) {
+        NodeGroup<V> leaf = searchLeaf(key);
+        int position = leaf.searchInsertPosition(key);
+        if (position >= leaf.size || leaf.compareKey(position, key) != 0) {
+            return null;
+        }
+        V value = leaf.value(position);
+        leaf.removeLeaf(position);
+        size--;
+        solveDelete(leaf);
+        return value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public List<String> keySet() {
+        List<String> res = new ArrayList<>(size);
+        NodeGroup<V> cur = head;
+        while (cur != null) {
+            for (int i = 0; i < cur.size; i++) {
+                res.add(cur.key(i));
+            }
+            cur = cur.right;
+        }
+        return res;
+    }
+
+    private NodeGroup<V> searchLeaf(String key) {
+        NodeGroup<V> cur = root;
+        while (!cur.bottom) {
+            cur = cur.children[cur.searchIndexPosition(key)];
+        }
+        return cur;
+    }
+
+    /*
+            返回满足 leftMax <= s < rightMin 的最短字符串
+            设两者第一个不同字符的位置为d:
+                d == leftMax.length(): leftMax是rightMin的前缀, leftMax本身最短
+                否则rightMin的前d + 1个字符已经 > leftMax, 只要它不等于rightMin本身就可以使用
+     */
+    static String shortestSeparator(String leftMax, String rightMin) {
+        int length = Math.min(leftMax.length(), rightMin.length());
+        int d = 0;
+        while (d < length && leftMax.charAt(d) == rightMin.charAt(d)) {
+            d++;
+        }
+        if (d == leftMax.length() || d + 1 >= rightMin.length()) {
+            return leftMax;
+        }
+        return rightMin.substring(0, d + 1);
+    }
+
+    /*
+            节点个数超过order时分裂, 前半部分移入新建的左侧节点, 当前节点保留后半部分
+            叶子节点分裂后两侧分别重新计算公共前缀, 索引key使用两侧之间最短的分隔字符串
+            索引节点分裂时中间的key上移到父节点
+     */
+    private void fixAfterInsertion(NodeGroup<V> nodeGroup) {
+        NodeGroup<V> cur = nodeGroup;
+        while (cur.size > this.order) {
+            NodeGroup<V> nodeGroupLeft = createSplitNodeGroup(cur);
+            String indexKey = cur.bottom ? splitLeaf(cur, nodeGroupLeft) : splitIndex(cur, nodeGroupLeft);
+            if (cur.parent == null) {
+                solveCreateNewRoot(indexKey, nodeGroupLeft, cur);
+                return;
+            }
+            NodeGroup<V> parent = cur.parent;
+            parent.insertIndex(parent.indexOf(cur), indexKey, nodeGroupLeft);
+            nodeGroupLeft.parent = parent;
+            cur = parent;
+        }
+    }
+
+    private String splitLeaf(NodeGroup<V> cur, NodeGroup<V> left) {
+        int number = halfOrder;
+        String[] keys = cur.keys(0, cur.size);
+        Object[] values = Arrays.copyOf(cur.values, cur.size);
+        left.setLeaf(keys, values, 0, number);
+        cur.setLeaf(keys, values, number, keys.length);
+        return shortestSeparator(keys[number - 1], keys[number]);
+    }
+
+    private String splitIndex(NodeGroup<V> cur, NodeGroup<V> left) {
+        int number = halfOrder;
+        String indexKey = cur.keys[number];
+        System.arraycopy(cur.keys, 0, left.keys, 0, number);
+        System.arraycopy(cur.children, 0, left.children, 0, number + 1);
+        left.size = number;
+        left.adoptChildren(0, number + 1);
+        int rest = cur.size - number - 1;
+        System.arraycopy(cur.keys, number + 1, cur.keys, 0, rest);
+        System.arraycopy(cur.children, number + 1, cur.children, 0, rest + 1);
+        Arrays.fill(cur.keys, rest, cur.size, null);
+        Arrays.fill(cur.children, rest + 1, cur.size + 1, null);
+        cur.size = rest;
+        return indexKey;
+    }
+
+    private void solveCreateNewRoot(String indexKey, NodeGroup<V> left, NodeGroup<V> right) {
+        NodeGroup<V> newRoot = new NodeGroup<>(order, false);
+        newRoot.keys[0] = indexKey;
+        newRoot.children[0] = left;
+        newRoot.children[1] = right;
+        newRoot.size = 1;
+        left.parent = newRoot;
+        right.parent = newRoot;
+        this.root = newRoot;
+    }
+
+    private NodeGroup<V> createSplitNodeGroup(NodeGroup<V> cur) {
+        NodeGroup<V> nodeGroupLeft = new NodeGroup<>(order, cur.bottom);
+        NodeGroup<V> temp = cur.left;
+        // 维护双向链表
+        nodeGroupLeft.right = cur;
+        cur.left = nodeGroupLeft;
+        nodeGroupLeft.left = temp;
+        if (temp != null) {
+            temp.right = nodeGroupLeft;
+        }
+        if (cur == this.head) {
+            this.head = nodeGroupLeft;
+        }
+        return nodeGroupLeft;
+    }
+
+    /*
+            节点个数小于order / 2时, 与同一父节点下的相邻节点合并, 或者从相邻节点借用
+            合并会让父节点少一个key, 需要继续向上处理
+            叶子节点之间移动元素时先解压成完整的key, 再按新的范围重新压缩
+     */
+    private void solveDelete(NodeGroup<V> nodeGroup) {
+        NodeGroup<V> cur = nodeGroup;
+        while (cur != root && cur.size < minNumber) {
+            NodeGroup<V> parent = cur.parent;
+            int index = parent.indexOf(cur);
+            NodeGroup<V> left = cur;
+            int indexPosition = index;
+            if (index > 0) {
+                left = parent.children[index - 1];
+                indexPosition = index - 1;
+            }
+            NodeGroup<V> right = parent.children[indexPosition + 1];
+            int mergeSize = left.size + right.size + (cur.bottom ? 0 : 1);
+            if (mergeSize <= order) {
+                solveMerge(left, right, indexPosition);
+                cur = parent;
+                continue;
+            }
+            if (left == cur) {
+                getNodeFromRight(cur, right, indexPosition);
+            } else {
+                getNodeFromLeft(cur, left, indexPosition);
+            }
+            break;
+        }
+        if (root.size == 0 && !root.bottom) {
+            root = root.children[0];
+            root.parent = null;
+        }
+    }
+
+    private void getNodeFromLeft(NodeGroup<V> current, NodeGroup<V> left, int indexPosition) {
+        NodeGroup<V> parent = current.parent;
+        int number = minNumber - current.size;
+        if (current.bottom) {
+            int from = left.size - number;
+            String[] keys = concat(left.keys(0, left.size), current.keys(0, current.size));
+            Object[] values = concat(Arrays.copyOf(left.values, left.size), Arrays.copyOf(current.values, current.size));
+            left.setLeaf(keys, values, 0, from);
+            current.setLeaf(keys, values, from, keys.length);
+            parent.keys[indexPosition] = shortestSeparator(keys[from - 1], keys[from]);
+            return;
+        }
+        int from = left.size - number + 1;
+        System.arraycopy(current.keys, 0, current.keys, number, current.size);
+        System.arraycopy(current.children, 0, current.children, number, current.size + 1);
+        current.keys[number - 1] = parent.keys[indexPosition];
+        System.arraycopy(left.keys, from, current.keys, 0, number - 1);
+        System.arraycopy(left.children, from, current.children, 0, number);
+        parent.keys[indexPosition] = left.keys[from - 1];
+        Arrays.fill(left.keys, from - 1, left.size, null);
+        Arrays.fill(left.children, from, left.size + 1, null);
+        left.size = from - 1;
+        current.size += number;
+        current.adoptChildren(0, number);
+    }
+
+    private void getNodeFromRight(NodeGroup<V> current, NodeGroup<V> right, int indexPosition) {
+        NodeGroup<V> parent = current.parent;
+        int number = minNumber - current.size;
+        if (current.bottom) {
+            int to = current.size + number;
+            String[] keys = concat(current.keys(0, current.size), right.keys(0, right.size));
+            Object[] values = concat(Arrays.copyOf(current.values, current.size), Arrays.copyOf(right.values, right.size));
+            current.setLeaf(keys, values, 0, to);
+            right.setLeaf(keys, values, to, keys.length);
+            parent.keys[indexPosition] = shortestSeparator(keys[to - 1], keys[to]);
+            return;
+        }
+        int start = current.size;
+        current.keys[start] = parent.keys[indexPosition];
+        System.arraycopy(right.keys, 0, current.keys, start + 1, number - 1);
+        System.arraycopy(right.children, 0, current.children, start + 1, number);
+        current.size += number;
+        current.adoptChildren(start + 1, start + 1 + number);
+        parent.keys[indexPosition] = right.keys[number - 1];
+        int rest = right.size - number;
+        System.arraycopy(right.keys, number, right.keys, 0, rest);
+        System.arraycopy(right.children, number, right.children, 0, rest + 1);
+        Arrays.fill(right.keys, rest, right.size, null);
+        Arrays.fill(right.children, rest + 1, right.size + 1, null);
+        right.size = rest;
+    }
+
+    // 将right合并进left, 并删除父节点中对应的key
+    private void solveMerge(NodeGroup<V> left, NodeGroup<V> right, int indexPosition) {
+        NodeGroup<V> parent = left.parent;
+        if (left.bottom) {
+            String[] keys = concat(left.keys(0, left.size), right.keys(0, right.size));
+            Object[] values = concat(Arrays.copyOf(left.values, left.size), Arrays.copyOf(right.values, right.size));
+            left.setLeaf(keys, values, 0, keys.length);
+        } else {
+            int start = left.size;
+            left.keys[start] = parent.keys[indexPosition];
+            System.arraycopy(right.keys, 0, left.keys, start + 1, right.size);
+            System.arraycopy(right.children, 0, left.children, start + 1, right.size + 1);
+            left.size += right.size + 1;
+            left.adoptChildren(start + 1, left.size + 1);
+        }
+        left.right = right.right;
+        if (right.right != null) {
+            right.right.left = left;
+        }
+        parent.removeIndex(indexPosition);
+    }
+
+    private static <T> T[] concat(T[] a, T[] b) {
+        T[] res = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, res, a.length, b.length);
+        return res;
+    }
+
+    private static class NodeGroup<V> {
+        // 索引节点的key(已截断)
+        String[] keys;
+        // 叶子节点: 公共前缀 + 连续存放的后缀
+        String prefix = "";
+        char[] chars;
+        int[] offsets;
+        Object[] values;
+        NodeGroup<V>[] children;
+        int size;
+        NodeGroup<V> parent;
+        NodeGroup<V> left;
+        NodeGroup<V> right;
+        boolean bottom;
+
+        @SuppressWarnings("unchecked")
+        public NodeGroup(int order, boolean bottom) {
+            this.bottom = bottom;
+            if (bottom) {
+                this.chars = new char[0];
+                this.offsets = new int[order + 2];
+                this.values = new Object[order + 1];
+            } else {
+                this.keys = new String[order + 1];
+                this.children = (NodeGroup<V>[]) new NodeGroup<?>[order + 2];
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        V value(int position) {
+            return (V) values[position];
+        }
+
+        String key(int position) {
+            return prefix.concat(new String(chars, offsets[position], offsets[position + 1] - offsets[position]));
+        }
+
+        String[] keys(int from, int to) {
+            String[] res = new String[to - from];
+            for (int i = from; i < to; i++) {
+                res[i - from] = key(i);
+            }
+            return res;
+        }
+
+        // 比较第position个后缀与key从from开始的部分, 与String.compareTo的结果一致
+        int compareSuffix(int position, String key, int from) {
+            int start = offsets[position];
+            int length = offsets[position + 1] - start;
+            int keyLength = key.length() - from;
+            int min = Math.min(length, keyLength);
+            for (int i = 0; i < min; i++) {
+                char a = chars[start + i];
+                char b = key.charAt(from + i);
+                if (a != b) {
+                    return a - b;
+                }
+            }
+            return length - keyLength;
+        }
+
+        // 与key(position).compareTo(key)的符号一致, key不以prefix开头时结果只由prefix决定
+        int compareKey(int position, String key) {
+            return key.startsWith(prefix) ? compareSuffix(position, key, prefix.length()) : -key.compareTo(prefix);
+        }
+
+        /*
+                叶子节点二分搜索, 搜索第一个 >= key 的位置
+                key不以prefix开头时, 要么小于所有key, 要么大于所有key
+         */
+        int searchInsertPosition(String key) {
+            int from = prefix.length();
+            int common = Math.min(from, key.length());
+            for (int i = 0; i < common; i++) {
+                char a = key.charAt(i);
+                char b = prefix.charAt(i);
+                if (a != b) {
+                    return a < b ? 0 : size;
+                }
+            }
+            if (key.length() < from) {
+                return 0;
+            }
+            int left = 0;
+            int right = size;
+            while (left < right) {
+                int mid = (left + right) >>> 1;
+                if (compareSuffix(mid, key, from) < 0) {
+                    left = mid + 1;
+                } else {
+                    right = mid;
+                }
+            }
+            return left;
+        }
+
+        // 索引节点二分搜索, 搜索第一个 >= key 的位置
+        int searchIndexPosition(String key) {
+            int left = 0;
+            int right = size;
+            while (left < right) {
+                int mid = (left + right) >>> 1;
+                if (keys[mid].compareTo(key) < 0) {
+                    left = mid + 1;
+                } else {
+                    right = mid;
+                }
+            }
+            return left;
+        }
+
+        int indexOf(NodeGroup<V> child) {
+            for (int i = 0; i <= size; i++) {
+                if (children[i] == child) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /*
+                key以prefix开头时直接插入后缀, 否则公共前缀变短, 解压后重新压缩整个节点
+         */
+        void insertLeaf(int position, String key, Object value) {
+            if (!key.startsWith(prefix)) {
+                String[] keys = new String[size + 1];
+                Object[] values = new Object[size + 1];
+                for (int i = 0, j = 0; i <= size; i++) {
+                    if (i == position) {
+                        keys[i] = key;
+                        values[i] = value;
+                        continue;
+                    }
+                    keys[i] = key(j);
+                    values[i] = this.values[j++];
+                }
+                setLeaf(keys, values, 0, keys.length);
+                return;
+            }
+            int length = key.length() - prefix.length();
+            int end = offsets[size];
+            if (end + length > chars.length) {
+                chars = Arrays.copyOf(chars, end + length + ((end + length) >> 2));
+            }
+            int start = offsets[position];
+            System.arraycopy(chars, start, chars, start + length, end - start);
+            key.getChars(prefix.length(), key.length(), chars, start);
+            for (int i = size + 1; i > position; i--) {
+                offsets[i] = offsets[i - 1] + length;
+            }
+            System.arraycopy(values, position, values, position + 1, size - position);
+            values[position] = value;
+            size++;
+        }
+
+        // 删除之后公共前缀可能变长, 下次重新压缩时再更新
+        void removeLeaf(int position) {
+            int start = offsets[position];
+            int length = offsets[position + 1] - start;
+            System.arraycopy(chars, start + length, chars, start, offsets[size] - start - length);
+            for (int i = position; i < size; i++) {
+                offsets[i] = offsets[i + 1] - length;
+            }
+            System.arraycopy(values, position + 1, values, position, size - position - 1);
+            size--;
+            values[size] = null;
+        }
+
+        // 用keys[from, to)重新压缩整个叶子节点, 公共前缀为第一个与最后一个key的公共前缀
+        void setLeaf(String[] keys, Object[] values, int from, int to) {
+            int count = to - from;
+            if (count == 0) {
+                prefix = "";
+                chars = new char[0];
+                offsets[0] = 0;
+                Arrays.fill(this.values, null);
+                size = 0;
+                return;
+            }
+            String first = keys[from];
+            String last = keys[to - 1];
+            int common = 0;
+            int max = Math.min(first.length(), last.length());
+            while (common < max && first.charAt(common) == last.charAt(common)) {
+                common++;
+            }
+            prefix = first.substring(0, common);
+            int total = 0;
+            for (int i = from; i < to; i++) {
+                total += keys[i].length() - common;
+            }
+            chars = new char[total];
+            int offset = 0;
+            for (int i = from; i < to; i++) {
+                offsets[i - from] = offset;
+                keys[i].getChars(common, keys[i].length(), chars, offset);
+                offset += keys[i].length() - common;
+            }
+            offsets[count] = offset;
+            Arrays.fill(this.values, null);
+            System.arraycopy(values, from, this.values, 0, count);
+            size = count;
+        }
+
+        // 删除position处的key以及其右侧的子节点
+        void removeIndex(int position) {
+            System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+            System.arraycopy(children, position + 2, children, position + 1, size - position - 1);
+            keys[size - 1] = null;
+            children[size] = null;
+            size--;
+        }
+
+        // 在position处插入key, child作为key左侧的子节点
+        void insertIndex(int position, String key, NodeGroup<V> child) {
+            System.arraycopy(keys, position, keys, position + 1, size - position);
+            System.arraycopy(children, position, children, position + 1, size + 1 - position);
+            keys[position] = key;
+            children[position] = child;
+            size++;
+        }
+
+        void adoptChildren(int from, int to) {
+            for (int i = from; i < to; i++) {
+                children[i].parent = this;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return bottom ? prefix + "*" + Arrays.toString(keys(0, size)) : Arrays.toString(Arrays.copyOf(keys, size));
+        }
+    }
+
+}
@@ -1,77 +1,1255 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Spliterator;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
 
 public class Test {
 
     public static void main(String[] args) {
         testTree();
+        testNavigableTree();
+        testRangeView();
+        testBulkLoad();
+        testBatch();
+        testStringTree();
+        testCompact();
+        testParallelStream();
+        testRetune();
+        testKeyCodec();
+        testFinger();
+        testOrderStatistic();
+        testPersistentTree();
+        testSnapshot();
+        testSetOperations();
+        testConcurrentTree();
+        testDurableTree();
+        testPagedTree();
+        testExternalSort();
     }
 
+    // 正确性测试: 随机插入，查询，删除, 结果与jdk红黑树对比, 性能测试见TreeBenchmark
     public static void testTree() {
         RBTreeMap<Integer, Integer> map = new RBTreeMap<>();
+        ArenaRBTreeMap<Integer, Integer> arenaMap = new ArenaRBTreeMap<>();
         TreeMap<Integer, Integer> treeMap = new TreeMap<>();
         BPlusTreeMap<Integer, Integer> bPlusTreeMap = new BPlusTreeMap<>(100);
+        BTreeMap<Integer, Integer> bTreeMap = new BTreeMap<>(5);
+        // 原始类型key的b+树用最小的阶, 每次插入删除都会分裂、借用或者合并; key平移到负数区间
+        IntBPlusTreeMap<Integer> intMap = new IntBPlusTreeMap<>(3);
+        LongBPlusTreeMap<Integer> longMap = new LongBPlusTreeMap<>(3);
         List<Integer> data = new ArrayList<>();
-        int testNumber = 2000000;
+        int testNumber = 200000;
+        int shift = testNumber / 2;
         for (int i = 0; i < testNumber; i++) {
             data.add(i);
         }
-        System.out.println("-------------------------------性能测试：" + testNumber + "个元素随机插入，查询，删除----------------------------------" );
+        System.out.println("-------------------------------正确性测试：" + testNumber + "个元素随机插入，查询，删除----------------------------------");
         // -------------------------------新增
         Collections.shuffle(data);
-        long startTime = System.currentTimeMillis();
         for (Integer datum : data) {
-            treeMap.put(datum, datum - 1);
+            Integer expected = treeMap.put(datum, datum - 1);
+            check("红黑插入", expected, map.put(datum, datum - 1));
+            check("arena红黑插入", expected, arenaMap.put(datum, datum - 1));
+            check("b+插入", expected, bPlusTreeMap.put(datum, datum - 1));
+            check("b插入", expected, bTreeMap.put(datum, datum - 1));
+            check("int b+插入", expected, intMap.put(datum - shift, datum - 1));
+            check("long b+插入", expected, longMap.put((long) datum - shift, datum - 1));
         }
-        System.out.println("jdk红黑树插入用时:" + (System.currentTimeMillis() - startTime));
-        startTime = System.currentTimeMillis();
-        for (Integer datum : data) {
-            map.put(datum, datum - 1);
-        }
-        System.out.println("手写红黑插入用时：" + (System.currentTimeMillis() - startTime));
-        startTime = System.currentTimeMillis();
-        for (Integer datum : data) {
-            bPlusTreeMap.put(datum, datum - 1);
-        }
-        System.out.println("手写b+插入用时：" + (System.currentTimeMillis() - startTime));
         // ---------------------------------查询
         Collections.shuffle(data);
-        startTime = System.currentTimeMillis();
-        for (Integer datum : data) {
-            treeMap.get(datum);
-        }
-        System.out.println("jdk红黑树查询用时:" + (System.currentTimeMillis() - startTime));
-        startTime = System.currentTimeMillis();
         for (Integer datum : data) {
-            map.get(datum);
+            Integer expected = treeMap.get(datum);
+            check("红黑查询", expected, map.get(datum));
+            check("arena红黑查询", expected, arenaMap.get(datum));
+            check("b+查询", expected, bPlusTreeMap.get(datum));
+            check("b查询", expected, bTreeMap.get(datum));
+            check("int b+查询", expected, intMap.get(datum - shift));
+            check("long b+查询", expected, longMap.get((long) datum - shift));
         }
-        System.out.println("手写红黑查询用时：" + (System.currentTimeMillis() - startTime));
-        startTime = System.currentTimeMillis();
-        for (Integer datum : data) {
-            bPlusTreeMap.get(datum);
-        }
-        System.out.println("手写b+查询用时：" + (System.currentTimeMillis() - startTime));
         //----------------------------------删除
         Collections.shuffle(data);
-        startTime = System.currentTimeMillis();
         for (int i = 0; i < testNumber - 20; i++) {
-            treeMap.remove(data.get(i));
+            Integer expected = treeMap.remove(data.get(i));
+            check("红黑删除", expected, map.remove(data.get(i)));
+            check("arena红黑删除", expected, arenaMap.remove(data.get(i)));
+            check("b+删除", expected, bPlusTreeMap.remove(data.get(i)));
+            check("b删除", expected, bTreeMap.remove(data.get(i)));
+            check("int b+删除", expected, intMap.remove(data.get(i) - shift));
+            check("long b+删除", expected, longMap.remove((long) data.get(i) - shift));
         }
-        System.out.println("jdk红黑删除用时：" + (System.currentTimeMillis() - startTime));
-        startTime = System.currentTimeMillis();
-        for (int i = 0; i < testNumber - 20; i++) {
-            map.remove(data.get(i));
+        List<Integer> expected = new ArrayList<>(treeMap.keySet());
+        check("红黑keySet", expected, new ArrayList<>(map.keySet()));
+        check("arena红黑keySet", expected, arenaMap.keySet());
+        check("b+keySet", expected, bPlusTreeMap.keySet());
+        check("b keySet", expected, bTreeMap.list());
+        List<Integer> intKeys = new ArrayList<>();
+        for (int key : intMap.keySet()) {
+            intKeys.add(key + shift);
         }
-        System.out.println("手写红黑删除用时：" + (System.currentTimeMillis() - startTime));
-        startTime = System.currentTimeMillis();
+        check("int b+keySet", expected, intKeys);
+        List<Integer> longKeys = new ArrayList<>();
+        for (long key : longMap.keySet()) {
+            longKeys.add((int) (key + shift));
+        }
+        check("long b+keySet", expected, longKeys);
+        check("int b+size", expected.size(), intMap.size());
+        check("long b+size", expected.size(), longMap.size());
+        System.out.println(expected);
+        // 删除的节点进入空闲链表, 重新插入同样多的元素时不再扩容
+        int capacity = arenaMap.capacity();
         for (int i = 0; i < testNumber - 20; i++) {
-            bPlusTreeMap.remove(data.get(i));
+            check("arena红黑重新插入", null, arenaMap.put(data.get(i), data.get(i)));
+        }
+        check("arena红黑容量", capacity, arenaMap.capacity());
+        check("arena红黑size", testNumber, arenaMap.size());
+        for (int i = 0; i < testNumber; i++) {
+            check("arena红黑查询", i < testNumber - 20 ? data.get(i) : treeMap.get(data.get(i)), arenaMap.get(data.get(i)));
+        }
+    }
+
+    // 视图测试: 红黑树的子视图、逆序视图、导航方法以及通过迭代器删除, 结果与jdk红黑树对比
+    public static void testNavigableTree() {
+        RBTreeMap<Integer, Integer> map = new RBTreeMap<>();
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        Random random = new Random(1);
+        int testNumber = 2000;
+        System.out.println("-------------------------------视图测试：" + testNumber + "轮随机视图操作----------------------------------");
+        // 与TreeMap相同, 空树也不接受null key
+        try {
+            map.remove(null);
+            throw new IllegalStateException("红黑删除null没有抛出异常");
+        } catch (NullPointerException e) {
+            // 期望的异常
+        }
+        for (int i = 0; i < testNumber * 5; i++) {
+            Integer key = random.nextInt(testNumber * 2);
+            check("红黑插入", treeMap.put(key, i), map.put(key, i));
+        }
+        for (int i = 0; i < testNumber; i++) {
+            int from = random.nextInt(testNumber * 2);
+            int to = from + random.nextInt(testNumber / 5);
+            boolean fromInclusive = random.nextBoolean();
+            boolean toInclusive = random.nextBoolean();
+            NavigableMap<Integer, Integer> expected;
+            NavigableMap<Integer, Integer> actual;
+            switch (random.nextInt(4)) {
+                case 0 -> {
+                    expected = treeMap.subMap(from, fromInclusive, to, toInclusive);
+                    actual = map.subMap(from, fromInclusive, to, toInclusive);
+                }
+                case 1 -> {
+                    expected = treeMap.headMap(to, toInclusive);
+                    actual = map.headMap(to, toInclusive);
+                }
+                case 2 -> {
+                    expected = treeMap.tailMap(from, fromInclusive);
+                    actual = map.tailMap(from, fromInclusive);
+                }
+                default -> {
+                    expected = treeMap.subMap(from, fromInclusive, to, toInclusive).descendingMap();
+                    actual = map.subMap(from, fromInclusive, to, toInclusive).descendingMap();
+                }
+            }
+            check("视图size", expected.size(), actual.size());
+            check("视图keySet", new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+            check("视图entrySet", new ArrayList<>(expected.entrySet()), new ArrayList<>(actual.entrySet()));
+            Integer probe = random.nextInt(testNumber * 2);
+            check("视图lowerKey", expected.lowerKey(probe), actual.lowerKey(probe));
+            check("视图floorKey", expected.floorKey(probe), actual.floorKey(probe));
+            check("视图ceilingKey", expected.ceilingKey(probe), actual.ceilingKey(probe));
+            check("视图higherKey", expected.higherKey(probe), actual.higherKey(probe));
+            check("视图get", expected.get(probe), actual.get(probe));
+            if (!expected.isEmpty()) {
+                check("视图firstKey", expected.firstKey(), actual.firstKey());
+                check("视图lastKey", expected.lastKey(), actual.lastKey());
+            }
+            // 通过视图的迭代器删除一部分元素, 再补回同样个数的随机元素
+            Iterator<Map.Entry<Integer, Integer>> expectedIterator = expected.entrySet().iterator();
+            Iterator<Map.Entry<Integer, Integer>> actualIterator = actual.entrySet().iterator();
+            int removed = 0;
+            while (expectedIterator.hasNext()) {
+                check("迭代器next", expectedIterator.next(), actualIterator.next());
+                if (random.nextInt(4) == 0) {
+                    expectedIterator.remove();
+                    actualIterator.remove();
+                    removed++;
+                }
+            }
+            check("迭代器hasNext", false, actualIterator.hasNext());
+            for (int j = 0; j < removed; j++) {
+                Integer key = random.nextInt(testNumber * 2);
+                check("红黑插入", treeMap.put(key, j), map.put(key, j));
+            }
+            if (i % 10 == 0) {
+                check("红黑pollFirst", treeMap.pollFirstEntry(), map.pollFirstEntry());
+                check("红黑pollLast", treeMap.pollLastEntry(), map.pollLastEntry());
+            }
+        }
+        check("红黑size", treeMap.size(), map.size());
+        check("红黑keySet", new ArrayList<>(treeMap.keySet()), new ArrayList<>(map.keySet()));
+        check("红黑descendingKeySet", new ArrayList<>(treeMap.descendingKeySet()), new ArrayList<>(map.descendingKeySet()));
+    }
+
+    // 区间视图测试: b+树的subMap/headMap/tailMap以及游标的双向移动, 结果与jdk红黑树对比
+    public static void testRangeView() {
+        BPlusTreeMap<Integer, Integer> map = new BPlusTreeMap<>(8);
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        Random random = new Random(2);
+        int testNumber = 2000;
+        System.out.println("-------------------------------区间视图测试：" + testNumber + "轮随机区间与游标操作----------------------------------");
+        for (int i = 0; i < testNumber * 5; i++) {
+            Integer key = random.nextInt(testNumber * 2);
+            check("b+插入", treeMap.put(key, i), map.put(key, i));
+        }
+        for (int i = 0; i < testNumber; i++) {
+            int from = random.nextInt(testNumber * 2);
+            int to = from + random.nextInt(testNumber / 5);
+            NavigableMap<Integer, Integer> expected;
+            BPlusTreeMap<Integer, Integer>.RangeView actual;
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    expected = treeMap.subMap(from, true, to, false);
+                    actual = map.subMap(from, to);
+                }
+                case 1 -> {
+                    expected = treeMap.headMap(to, false);
+                    actual = map.headMap(to);
+                }
+                default -> {
+                    expected = treeMap.tailMap(from, true);
+                    actual = map.tailMap(from);
+                }
+            }
+            List<Integer> keys = new ArrayList<>(expected.keySet());
+            List<Integer> descendingKeys = new ArrayList<>(expected.descendingKeySet());
+            check("区间keySet", keys, actual.keySet());
+            List<Map.Entry<Integer, Integer>> entries = new ArrayList<>();
+            for (Map.Entry<Integer, Integer> entry : actual) {
+                entries.add(entry);
+            }
+            check("区间迭代器", new ArrayList<>(expected.entrySet()), entries);
+            check("区间stream", new ArrayList<>(expected.entrySet()), actual.stream().toList());
+            for (int j = 0; j < 5; j++) {
+                Integer probe = from - testNumber / 10 + random.nextInt(testNumber / 2);
+                check("区间get", expected.get(probe), actual.get(probe));
+            }
+            // 游标先向后走到末尾, 再从末尾向前走回开头
+            BPlusTreeMap<Integer, Integer>.Cursor cursor = actual.cursor();
+            List<Integer> forward = new ArrayList<>();
+            while (cursor.next()) {
+                check("游标value", expected.get(cursor.key()), cursor.value());
+                forward.add(cursor.key());
+            }
+            check("游标next", keys, forward);
+            List<Integer> backward = new ArrayList<>();
+            while (cursor.prev()) {
+                backward.add(cursor.key());
+            }
+            check("游标prev", descendingKeys, backward);
+            cursor.seekLast();
+            backward.clear();
+            while (cursor.prev()) {
+                backward.add(cursor.key());
+            }
+            check("游标seekLast", descendingKeys, backward);
+            Integer probe = from - testNumber / 10 + random.nextInt(testNumber / 2);
+            cursor.seek(probe);
+            Integer ceiling = expected.ceilingKey(probe);
+            check("游标seek", ceiling != null, cursor.next());
+            if (ceiling != null) {
+                check("游标seek", ceiling, cursor.key());
+                check("游标seek后prev", ceiling, cursor.prev() ? cursor.key() : null);
+                check("游标seek后prev", expected.lowerKey(ceiling), cursor.prev() ? cursor.key() : null);
+            }
+            // 修改之后下一轮的视图重新定位
+            for (int j = 0; j < 10; j++) {
+                Integer key = random.nextInt(testNumber * 2);
+                if (random.nextBoolean()) {
+                    check("b+删除", treeMap.remove(key), map.remove(key));
+                } else {
+                    check("b+插入", treeMap.put(key, j), map.put(key, j));
+                }
+            }
+        }
+        check("b+keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+    }
+
+    // 批量构建测试: 不同的阶数、填充比例与元素个数, 构建之后再随机插入删除, 结果与jdk红黑树对比
+    public static void testBulkLoad() {
+        int testNumber = 5000;
+        Random random = new Random(3);
+        System.out.println("-------------------------------批量构建测试：不同填充比例构建" + testNumber + "个元素后随机插入删除----------------------------------");
+        for (int order : new int[]{4, 5, 32}) {
+            for (double fillFactor : new double[]{0.1, 0.5, 0.7, 1}) {
+                for (int number : new int[]{0, 1, order, order + 1, testNumber}) {
+                    TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+                    for (int i = 0; i < number; i++) {
+                        treeMap.put(i * 2 - number, i);
+                    }
+                    BPlusTreeMap<Integer, Integer> map = number % 2 == 0
+                            ? BPlusTreeMap.bulkLoad(order, treeMap.entrySet().iterator(), fillFactor)
+                            : BPlusTreeMap.bulkLoad(order, treeMap.keySet().toArray(new Integer[0]), treeMap.values().toArray(new Integer[0]), fillFactor);
+                    check("批量构建size", treeMap.size(), map.size());
+                    check("批量构建keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+                    for (int i = 0; i < number * 2; i++) {
+                        Integer key = random.nextInt(number * 4 + 1) - number * 2;
+                        if (random.nextBoolean()) {
+                            check("批量构建后删除", treeMap.remove(key), map.remove(key));
+                        } else {
+                            check("批量构建后插入", treeMap.put(key, -i), map.put(key, -i));
+                        }
+                    }
+                    check("批量构建后keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+                    for (int key = -number * 2; key <= number * 2; key++) {
+                        check("批量构建后查询", treeMap.get(key), map.get(key));
+                    }
+                }
+            }
+        }
+        try {
+            BPlusTreeMap.bulkLoad(4, List.of(Map.entry(1, 1), Map.entry(1, 2)).iterator(), 1);
+            throw new IllegalStateException("批量构建重复key没有抛出异常");
+        } catch (IllegalArgumentException e) {
+            // 期望的异常
+        }
+        try {
+            BPlusTreeMap.bulkLoad(4, Collections.<Map.Entry<Integer, Integer>>emptyIterator(), 0);
+            throw new IllegalStateException("批量构建填充比例为0没有抛出异常");
+        } catch (IllegalArgumentException e) {
+            // 期望的异常
+        }
+    }
+
+    // 批量修改测试: putAll/removeAll的批次无序、与树中已有的key重叠、批次内有重复的key, 结果与jdk红黑树对比
+    public static void testBatch() {
+        BPlusTreeMap<Integer, Integer> map = new BPlusTreeMap<>(6);
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        Random random = new Random(4);
+        int testNumber = 2000;
+        System.out.println("-------------------------------批量修改测试：" + testNumber + "轮随机putAll/removeAll----------------------------------");
+        for (int i = 0; i < testNumber; i++) {
+            int number = random.nextInt(100);
+            Map<Integer, Integer> batch = switch (random.nextInt(3)) {
+                case 0 -> new HashMap<>();
+                case 1 -> new LinkedHashMap<>();
+                default -> new TreeMap<>();
+            };
+            for (int j = 0; j < number; j++) {
+                batch.put(random.nextInt(testNumber * 2), i);
+            }
+            treeMap.putAll(batch);
+            map.putAll(batch);
+            List<Integer> keys = new ArrayList<>();
+            for (int j = random.nextInt(100); j > 0; j--) {
+                Integer key = random.nextInt(testNumber * 2);
+                keys.add(key);
+                // 同一个key在批次中出现多次
+                if (random.nextInt(4) == 0) {
+                    keys.add(key);
+                }
+            }
+            Collections.shuffle(keys, random);
+            int size = treeMap.size();
+            treeMap.keySet().removeAll(keys);
+            check("批量删除个数", size - treeMap.size(), map.removeAll(keys));
+            check("批量修改size", treeMap.size(), map.size());
+            if (i % 100 == 0) {
+                check("批量修改keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+            }
+        }
+        check("批量修改keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+        for (Map.Entry<Integer, Integer> entry : treeMap.entrySet()) {
+            check("批量修改查询", entry.getValue(), map.get(entry.getKey()));
+        }
+        // 1.0与1.00不相等但compareTo相同, 同一个Map中作为两个key出现, 按遍历顺序保留最后一个value
+        BPlusTreeMap<BigDecimal, Integer> decimalMap = new BPlusTreeMap<>(4);
+        TreeMap<BigDecimal, Integer> decimalTreeMap = new TreeMap<>();
+        for (int i = 0; i < 200; i++) {
+            Map<BigDecimal, Integer> batch = new HashMap<>();
+            for (int j = random.nextInt(20); j > 0; j--) {
+                batch.put(BigDecimal.valueOf(random.nextInt(100), random.nextInt(3)).setScale(3), i * 100 + j);
+                batch.put(BigDecimal.valueOf(random.nextInt(100)).setScale(random.nextInt(3)), i * 100 + j);
+            }
+            decimalTreeMap.putAll(batch);
+            decimalMap.putAll(batch);
+            check("批量重复key size", decimalTreeMap.size(), decimalMap.size());
+        }
+        for (Map.Entry<BigDecimal, Integer> entry : decimalTreeMap.entrySet()) {
+            check("批量重复key查询", entry.getValue(), decimalMap.get(entry.getKey()));
+        }
+    }
+
+    // 字符串key测试: 很长的公共前缀、互为前缀的key以及空字符串, 随机插入删除, 结果与jdk红黑树对比
+    public static void testStringTree() {
+        StringBPlusTreeMap<Integer> map = new StringBPlusTreeMap<>(4);
+        TreeMap<String, Integer> treeMap = new TreeMap<>();
+        Random random = new Random(6);
+        int testNumber = 50000;
+        String[] prefixes = {"https://example.com/tenant/00042/user/", "https://example.com/tenant/00042/", "https://example.com/tenant/00043/user/"};
+        String alphabet = "ab/0\0";
+        System.out.println("-------------------------------字符串测试：" + testNumber + "次随机插入删除，带公共前缀的key----------------------------------");
+        for (int i = 0; i < testNumber; i++) {
+            String prefix = prefixes[random.nextInt(prefixes.length)];
+            StringBuilder builder = new StringBuilder(prefix);
+            for (int j = random.nextInt(5); j > 0; j--) {
+                builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            // 一部分key截断成其他key的前缀, 包括空字符串
+            String key = random.nextInt(10) == 0 ? builder.substring(0, random.nextInt(builder.length() + 1)) : builder.toString();
+            if (random.nextInt(3) == 0) {
+                check("字符串删除", treeMap.remove(key), map.remove(key));
+            } else {
+                check("字符串插入", treeMap.put(key, i), map.put(key, i));
+            }
+            if (random.nextInt(4) == 0) {
+                check("字符串查询", treeMap.get(key), map.get(key));
+            }
+        }
+        check("字符串size", treeMap.size(), map.size());
+        check("字符串keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+        for (Map.Entry<String, Integer> entry : treeMap.entrySet()) {
+            check("字符串查询", entry.getValue(), map.get(entry.getKey()));
+        }
+        // 索引key: leftMax <= separator < rightMin, 并且separator更短的前缀都不满足
+        List<String> keys = new ArrayList<>(treeMap.keySet());
+        if (!treeMap.containsKey("")) {
+            keys.add(0, "");
+        }
+        for (int i = 0; i + 1 < keys.size(); i++) {
+            checkSeparator(keys.get(i), keys.get(i + 1));
+        }
+        checkSeparator("", "a");
+        checkSeparator("a", "a\0");
+        checkSeparator("abc", "abd");
+        checkSeparator("abc", "abdzz");
+        checkSeparator("abc", "abcd");
+        checkSeparator(".../user/1043", ".../user/2001");
+        check("字符串分隔key", ".../user/2", StringBPlusTreeMap.shortestSeparator(".../user/1043", ".../user/2001"));
+    }
+
+    private static void checkSeparator(String leftMax, String rightMin) {
+        String separator = StringBPlusTreeMap.shortestSeparator(leftMax, rightMin);
+        check("字符串分隔key下界", true, leftMax.compareTo(separator) <= 0);
+        check("字符串分隔key上界", true, separator.compareTo(rightMin) < 0);
+        for (int length = 0; length < separator.length(); length++) {
+            check("字符串分隔key最短", true, separator.substring(0, length).compareTo(leftMax) < 0);
+        }
+    }
+
+    // 宽松删除测试: 节点降到1个元素才合并, 大量删除后compact, 再继续插入删除, 结果与jdk红黑树对比
+    public static void testCompact() {
+        BPlusTreeMap<Integer, Integer> map = new BPlusTreeMap<>(16, 1);
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        Random random = new Random(7);
+        int testNumber = 20000;
+        System.out.println("-------------------------------宽松删除测试：" + testNumber + "个元素删除90%后compact----------------------------------");
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < testNumber; i++) {
+                Integer key = random.nextInt(testNumber * 2);
+                check("宽松插入", treeMap.put(key, i), map.put(key, i));
+            }
+            List<Integer> keys = new ArrayList<>(treeMap.keySet());
+            Collections.shuffle(keys, random);
+            for (Integer key : keys.subList(0, keys.size() * 9 / 10)) {
+                check("宽松删除", treeMap.remove(key), map.remove(key));
+            }
+            check("宽松删除keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+            long merges = map.mergeCount() + map.borrowCount();
+            map.compact();
+            check("compact合并", true, map.mergeCount() + map.borrowCount() > merges);
+            check("compact size", treeMap.size(), map.size());
+            check("compact keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+            // 已经整理过的树再compact不做任何修改
+            merges = map.mergeCount() + map.borrowCount();
+            map.compact();
+            check("重复compact", merges, map.mergeCount() + map.borrowCount());
+            for (int i = 0; i < testNumber; i++) {
+                Integer key = random.nextInt(testNumber * 2);
+                if (random.nextBoolean()) {
+                    check("compact后删除", treeMap.remove(key), map.remove(key));
+                } else {
+                    check("compact后插入", treeMap.put(key, -i), map.put(key, -i));
+                }
+            }
+            check("compact后keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+            for (int key = 0; key < testNumber * 2; key++) {
+                check("compact后查询", treeMap.get(key), map.get(key));
+            }
+        }
+        for (Integer key : new ArrayList<>(treeMap.keySet())) {
+            check("宽松删除", treeMap.remove(key), map.remove(key));
+        }
+        map.compact();
+        check("空树compact", Collections.emptyList(), map.keySet());
+        check("空树compact后插入", null, map.put(1, 1));
+        check("空树compact后查询", 1, map.get(1));
+    }
+
+    // 并行流测试: 整棵树与区间的parallel stream的个数、求和以及收集的顺序, 结果与jdk红黑树对比
+    public static void testParallelStream() {
+        RBTreeMap<Integer, Integer> map = new RBTreeMap<>();
+        BPlusTreeMap<Integer, Integer> bPlusTreeMap = new BPlusTreeMap<>(16);
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        Random random = new Random(9);
+        int testNumber = 100000;
+        System.out.println("-------------------------------并行流测试：" + testNumber + "个元素的整体与区间并行遍历----------------------------------");
+        for (int i = 0; i < testNumber; i++) {
+            Integer key = random.nextInt(testNumber * 2);
+            Integer expected = treeMap.put(key, i);
+            check("红黑插入", expected, map.put(key, i));
+            check("b+插入", expected, bPlusTreeMap.put(key, i));
+        }
+        checkParallelStream("红黑", new ArrayList<>(treeMap.entrySet()), map.stream());
+        checkParallelStream("b+", new ArrayList<>(treeMap.entrySet()), bPlusTreeMap.stream());
+        checkSplit("红黑", map.spliterator(), treeMap.size());
+        for (int i = 0; i < 100; i++) {
+            int from = random.nextInt(testNumber * 2);
+            int to = from + random.nextInt(testNumber / 2);
+            List<Map.Entry<Integer, Integer>> expected = new ArrayList<>(treeMap.subMap(from, true, to, false).entrySet());
+            checkParallelStream("红黑区间", expected, map.stream(from, to));
+            checkParallelStream("b+区间", expected, bPlusTreeMap.subMap(from, to).stream());
+            checkSplit("红黑区间", map.spliterator(from, to), expected.size());
+        }
+        checkParallelStream("红黑空区间", Collections.emptyList(), map.stream(testNumber * 3, testNumber * 4));
+        checkParallelStream("b+空区间", Collections.emptyList(), bPlusTreeMap.subMap(testNumber * 3, testNumber * 4).stream());
+    }
+
+    private static void checkParallelStream(String name, List<Map.Entry<Integer, Integer>> expected, Stream<Map.Entry<Integer, Integer>> stream) {
+        List<Map.Entry<Integer, Integer>> actual = stream.parallel().toList();
+        check(name + "并行收集", expected, actual);
+        check(name + "并行个数", (long) expected.size(), actual.parallelStream().count());
+        long sum = 0;
+        for (Map.Entry<Integer, Integer> entry : expected) {
+            sum += entry.getValue();
+        }
+        check(name + "并行求和", sum, actual.parallelStream().mapToLong(Map.Entry::getValue).sum());
+    }
+
+    // SIZED|SUBSIZED: 每次分裂后两部分的estimateSize之和不变, 并且等于实际遍历的个数
+    private static void checkSplit(String name, Spliterator<Map.Entry<Integer, Integer>> spliterator, long expected) {
+        check(name + "分裂SUBSIZED", true, spliterator.hasCharacteristics(Spliterator.SUBSIZED));
+        check(name + "分裂estimateSize", expected, spliterator.estimateSize());
+        Spliterator<Map.Entry<Integer, Integer>> prefix = expected > 16 ? spliterator.trySplit() : null;
+        if (prefix == null) {
+            long[] count = new long[1];
+            spliterator.forEachRemaining(entry -> count[0]++);
+            check(name + "分裂个数", expected, count[0]);
+            return;
+        }
+        long prefixSize = prefix.estimateSize();
+        check(name + "分裂大小", expected, prefixSize + spliterator.estimateSize());
+        checkSplit(name, prefix, prefixSize);
+        checkSplit(name, spliterator, expected - prefixSize);
+    }
+
+    // 重建测试: 非法参数, 重建期间的写入在换入后重放, 重建失败时保留当前的树, 结果与jdk红黑树对比
+    public static void testRetune() {
+        BPlusTreeMap<Integer, Integer> map = new BPlusTreeMap<>(4);
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        Random random = new Random(10);
+        int testNumber = 20000;
+        System.out.println("-------------------------------重建测试：" + testNumber + "个元素后台重建阶数----------------------------------");
+        for (double fillFactor : new double[]{0, -0.5, 1.5, Double.NaN}) {
+            try {
+                map.retune(64, fillFactor);
+                throw new IllegalStateException("重建填充比例" + fillFactor + "没有抛出异常");
+            } catch (IllegalArgumentException e) {
+                // 期望的异常
+            }
+        }
+        try {
+            map.retune(2, 0.5);
+            throw new IllegalStateException("重建阶数2没有抛出异常");
+        } catch (IllegalArgumentException e) {
+            // 期望的异常
+        }
+        for (int i = 0; i < testNumber; i++) {
+            Integer key = random.nextInt(testNumber * 2);
+            check("重建前插入", treeMap.put(key, i), map.put(key, i));
+        }
+        // 重建期间继续写入, 这些修改在换入新树之后重放
+        map.retune(64, 0.7);
+        for (int i = 0; i < testNumber; i++) {
+            Integer key = random.nextInt(testNumber * 2);
+            if (random.nextBoolean()) {
+                check("重建中删除", treeMap.remove(key), map.remove(key));
+            } else {
+                check("重建中插入", treeMap.put(key, -i), map.put(key, -i));
+            }
+        }
+        map.awaitRetune();
+        check("重建阶数", 64, map.order());
+        check("重建次数", 1L, map.retuneCount());
+        check("重建后size", treeMap.size(), map.size());
+        check("重建后keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+        for (int key = 0; key < testNumber * 2; key++) {
+            check("重建后查询", treeMap.get(key), map.get(key));
+        }
+        // 两个相邻的key之间比较时抛出异常, 后台重建失败, 期间的写入只使用普通的key
+        BPlusTreeMap<PoisonKey, Integer> poisonMap = new BPlusTreeMap<>(4);
+        TreeMap<Integer, Integer> poisonTreeMap = new TreeMap<>();
+        for (int i = 0; i < testNumber; i++) {
+            int key = random.nextInt(testNumber * 2) * 2;
+            check("重建失败前插入", poisonTreeMap.put(key, i), poisonMap.put(new PoisonKey(key), i));
+        }
+        PoisonKey first = new PoisonKey(-3);
+        PoisonKey second = new PoisonKey(-1);
+        poisonMap.put(first, 0);
+        poisonMap.put(second, 0);
+        poisonTreeMap.put(-3, 0);
+        poisonTreeMap.put(-1, 0);
+        first.poisoned = true;
+        second.poisoned = true;
+        poisonMap.retune(64, 0.7);
+        try {
+            poisonMap.awaitRetune();
+            throw new IllegalStateException("重建失败没有抛出异常");
+        } catch (IllegalStateException e) {
+            check("重建失败原因", "poisoned", e.getCause().getMessage());
+        }
+        // 再次重建, 失败可能在期间的某次写入时就被发现, 此时awaitRetune不再抛出异常
+        poisonMap.retune(64, 0.7);
+        for (int i = 0; i < testNumber; i++) {
+            int key = random.nextInt(testNumber * 2) * 2;
+            if (random.nextBoolean()) {
+                check("重建失败中删除", poisonTreeMap.remove(key), poisonMap.remove(new PoisonKey(key)));
+            } else {
+                check("重建失败中插入", poisonTreeMap.put(key, -i), poisonMap.put(new PoisonKey(key), -i));
+            }
+        }
+        try {
+            poisonMap.awaitRetune();
+        } catch (IllegalStateException e) {
+            check("重建失败原因", "poisoned", e.getCause().getMessage());
+        }
+        first.poisoned = false;
+        second.poisoned = false;
+        check("重建失败阶数", 4, poisonMap.order());
+        check("重建失败次数", 0L, poisonMap.retuneCount());
+        check("重建失败size", poisonTreeMap.size(), poisonMap.size());
+        List<Integer> keys = new ArrayList<>();
+        for (PoisonKey key : poisonMap.keySet()) {
+            keys.add(key.value);
+        }
+        check("重建失败keySet", new ArrayList<>(poisonTreeMap.keySet()), keys);
+        for (int i = 0; i < testNumber; i++) {
+            int key = random.nextInt(testNumber * 2) - 2;
+            check("重建失败后插入", poisonTreeMap.put(key, i), poisonMap.put(new PoisonKey(key), i));
+            check("重建失败后查询", poisonTreeMap.get(key + 1), poisonMap.get(new PoisonKey(key + 1)));
+        }
+    }
+
+    // 两个都被标记的key相互比较时抛出异常
+    private static final class PoisonKey implements Comparable<PoisonKey> {
+        final int value;
+        volatile boolean poisoned;
+
+        PoisonKey(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(PoisonKey o) {
+            if (poisoned && o.poisoned) {
+                throw new IllegalStateException("poisoned");
+            }
+            return Integer.compare(value, o.value);
+        }
+    }
+
+    // 编码测试: 编码后BinaryKey的顺序与编码前的自然顺序相同, 并且解码得到原来的值
+    public static void testKeyCodec() {
+        Random random = new Random(11);
+        int testNumber = 100000;
+        System.out.println("-------------------------------编码测试：" + testNumber + "组随机key比较顺序与解码----------------------------------");
+        int[] ints = {Integer.MIN_VALUE, Integer.MIN_VALUE + 1, -256, -255, -1, 0, 1, 255, 256, Integer.MAX_VALUE - 1, Integer.MAX_VALUE};
+        long[] longs = {Long.MIN_VALUE, Long.MIN_VALUE + 1, Integer.MIN_VALUE - 1L, -1, 0, 1, Integer.MAX_VALUE + 1L, Long.MAX_VALUE - 1, Long.MAX_VALUE};
+        for (int a : ints) {
+            for (int b : ints) {
+                checkCodec("int编码", KeyCodec.INT, a, b, Integer.compare(a, b));
+            }
+        }
+        for (long a : longs) {
+            for (long b : longs) {
+                checkCodec("long编码", KeyCodec.LONG, a, b, Long.compare(a, b));
+            }
+        }
+        String[] strings = {"", "\0", "\0\0", "a", "a\0", "a\0b", "ab", "a\u00ff", "\u00e9", "\u4e2d", "\u4e2d\0"};
+        for (String a : strings) {
+            for (String b : strings) {
+                checkCodec("字符串编码", KeyCodec.STRING, a, b, a.compareTo(b));
+            }
+        }
+        KeyCodec<Object[]> tuple = KeyCodec.tuple(KeyCodec.STRING, KeyCodec.INT);
+        for (int i = 0; i < testNumber; i++) {
+            int intA = randomInt(random);
+            int intB = random.nextInt(4) == 0 ? intA : randomInt(random);
+            checkCodec("int编码", KeyCodec.INT, intA, intB, Integer.compare(intA, intB));
+            long longA = random.nextInt(4) == 0 ? intA : random.nextLong();
+            long longB = random.nextInt(4) == 0 ? longA + random.nextInt(3) - 1 : random.nextLong();
+            checkCodec("long编码", KeyCodec.LONG, longA, longB, Long.compare(longA, longB));
+            String stringA = randomString(random);
+            // 一部分key是另一个key的前缀
+            String stringB = random.nextInt(4) == 0 ? stringA.substring(0, random.nextInt(stringA.length() + 1)) : randomString(random);
+            checkCodec("字符串编码", KeyCodec.STRING, stringA, stringB, stringA.compareTo(stringB));
+            Object[] tupleA = {stringA, intA};
+            Object[] tupleB = {random.nextBoolean() ? stringA : stringB, intB};
+            int expected = ((String) tupleA[0]).compareTo((String) tupleB[0]);
+            if (expected == 0) {
+                expected = Integer.compare(intA, intB);
+            }
+            check("组合编码顺序", Integer.signum(expected), Integer.signum(tuple.key(tupleA).compareTo(tuple.key(tupleB))));
+            check("组合编码解码", List.of(tupleA), List.of(tuple.decode(tuple.key(tupleA))));
+        }
+    }
+
+    private static <T> void checkCodec(String name, KeyCodec<T> codec, T a, T b, int expected) {
+        check(name + "顺序", Integer.signum(expected), Integer.signum(codec.key(a).compareTo(codec.key(b))));
+        check(name + "解码", a, codec.decode(codec.key(a)));
+        check(name + "解码", b, codec.decode(codec.key(b)));
+    }
+
+    // 偏向0附近与边界的int
+    private static int randomInt(Random random) {
+        return switch (random.nextInt(3)) {
+            case 0 -> random.nextInt(512) - 256;
+            case 1 -> random.nextBoolean() ? Integer.MIN_VALUE + random.nextInt(3) : Integer.MAX_VALUE - random.nextInt(3);
+            default -> random.nextInt();
+        };
+    }
+
+    // 包含'\0'、多字节UTF-8字符的短字符串, 都在U+E000之前, 码点顺序与String.compareTo相同
+    private static String randomString(Random random) {
+        String alphabet = "\0ab\u00ff\u00e9\u4e2d";
+        StringBuilder builder = new StringBuilder();
+        for (int i = random.nextInt(6); i > 0; i--) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+
+    // finger测试: 顺序追加, 再随机插入, 最后删除, 每次修改之后查询相邻的key, 确认分裂/合并之后不会使用过期的叶子
+    public static void testFinger() {
+        BPlusTreeMap<Integer, Integer> map = new BPlusTreeMap<>(4);
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        Random random = new Random(12);
+        int testNumber = 20000;
+        System.out.println("-------------------------------finger测试：" + testNumber + "个元素顺序追加，随机插入，删除----------------------------------");
+        for (int i = 0; i < testNumber; i++) {
+            Integer key = i * 4;
+            check("追加插入", treeMap.put(key, i), map.put(key, i));
+            check("追加查询", treeMap.get(key - 4), map.get(key - 4));
+        }
+        // 顺序追加总是落在最右侧的叶子, 除了分裂后的第一次都命中
+        check("追加finger命中", true, map.fingerHitCount() > testNumber);
+        check("追加keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+        for (int i = 0; i < testNumber; i++) {
+            Integer key = random.nextInt(testNumber * 4);
+            check("finger随机插入", treeMap.put(key, -i), map.put(key, -i));
+            for (int delta = -2; delta <= 2; delta++) {
+                check("finger随机查询", treeMap.get(key + delta), map.get(key + delta));
+            }
+        }
+        List<Integer> keys = new ArrayList<>(treeMap.keySet());
+        Collections.shuffle(keys, random);
+        for (Integer key : keys.subList(0, keys.size() - 10)) {
+            check("finger删除", treeMap.remove(key), map.remove(key));
+            Integer lower = treeMap.lowerKey(key);
+            Integer higher = treeMap.higherKey(key);
+            check("finger删除后查询", lower == null ? null : treeMap.get(lower), lower == null ? null : map.get(lower));
+            check("finger删除后查询", higher == null ? null : treeMap.get(higher), higher == null ? null : map.get(higher));
+            check("finger删除后查询", null, map.get(key));
+        }
+        check("finger keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+        // 删除之后再顺序追加
+        for (int i = 0; i < testNumber; i++) {
+            Integer key = testNumber * 4 + i;
+            check("删除后追加", treeMap.put(key, i), map.put(key, i));
+            check("删除后追加查询", treeMap.get(key - 1), map.get(key - 1));
+        }
+        check("删除后追加keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+    }
+
+    // 顺序统计测试: 随机插入删除过程中, rank/select/countInRange与jdk红黑树的headMap/subMap对比
+    public static void testOrderStatistic() {
+        RBTreeMap<Integer, Integer> map = new RBTreeMap<>();
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        Random random = new Random(2);
+        int testNumber = 20000;
+        System.out.println("-------------------------------顺序统计测试：" + testNumber + "次随机插入，删除----------------------------------");
+        for (int i = 0; i < testNumber; i++) {
+            Integer key = random.nextInt(testNumber);
+            if (random.nextInt(3) == 0) {
+                check("红黑删除", treeMap.remove(key), map.remove(key));
+            } else {
+                check("红黑插入", treeMap.put(key, i), map.put(key, i));
+            }
+            Integer probe = random.nextInt(testNumber + 2) - 1;
+            check("红黑rank", treeMap.headMap(probe).size(), map.rank(probe));
+            Integer to = probe + random.nextInt(testNumber / 10);
+            check("红黑countInRange", treeMap.subMap(probe, to).size(), map.countInRange(probe, to));
+            check("红黑countInRange", treeMap.tailMap(probe).size(), map.countInRange(probe, null));
+            check("红黑countInRange", treeMap.headMap(to).size(), map.countInRange(null, to));
+        }
+        List<Integer> keys = new ArrayList<>(treeMap.keySet());
+        for (int i = 0; i < keys.size(); i++) {
+            check("红黑select", keys.get(i), map.select(i));
+            check("红黑rank", i, map.rank(keys.get(i)));
+        }
+        try {
+            map.select(keys.size());
+            throw new IllegalStateException("红黑select越界没有抛出异常");
+        } catch (IndexOutOfBoundsException e) {
+            // 期望的异常
+        }
+    }
+
+    // 持久化测试: 每次修改得到新版本, 随机保留一部分旧版本, 最后确认旧版本没有被之后的修改影响
+    public static void testPersistentTree() {
+        PersistentRBTreeMap<Integer, Integer> map = PersistentRBTreeMap.empty();
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        List<PersistentRBTreeMap<Integer, Integer>> versions = new ArrayList<>();
+        List<TreeMap<Integer, Integer>> expectedVersions = new ArrayList<>();
+        Random random = new Random(3);
+        int testNumber = 20000;
+        System.out.println("-------------------------------持久化测试：" + testNumber + "次随机插入，删除----------------------------------");
+        for (int i = 0; i < testNumber; i++) {
+            Integer key = random.nextInt(testNumber / 4);
+            PersistentRBTreeMap<Integer, Integer> next;
+            if (random.nextInt(3) == 0) {
+                boolean present = treeMap.remove(key) != null;
+                next = map.remove(key);
+                check("持久化删除", present, next != map);
+            } else {
+                Integer value = treeMap.get(key);
+                if (value == null || random.nextBoolean()) {
+                    value = i;
+                }
+                boolean changed = !value.equals(treeMap.put(key, value));
+                next = map.put(key, value);
+                check("持久化插入", changed, next != map);
+            }
+            map = next;
+            check("持久化size", treeMap.size(), map.size());
+            check("持久化查询", treeMap.get(key), map.get(key));
+            if (i % 100 == 0) {
+                versions.add(map);
+                expectedVersions.add(new TreeMap<>(treeMap));
+            }
+        }
+        for (int i = 0; i < versions.size(); i++) {
+            List<Map.Entry<Integer, Integer>> actual = new ArrayList<>();
+            for (Map.Entry<Integer, Integer> entry : versions.get(i)) {
+                actual.add(entry);
+            }
+            check("持久化旧版本", new ArrayList<>(expectedVersions.get(i).entrySet()), actual);
+        }
+    }
+
+    // 快照测试: 随机插入删除过程中创建快照并随机关闭一部分, 最后确认仍然打开的快照没有被之后的分裂/合并影响
+    public static void testSnapshot() {
+        BPlusTreeMap<Integer, Integer> map = new BPlusTreeMap<>(4);
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        List<BPlusTreeMap<Integer, Integer>.Snapshot> snapshots = new ArrayList<>();
+        List<TreeMap<Integer, Integer>> expectedVersions = new ArrayList<>();
+        Random random = new Random(8);
+        int testNumber = 20000;
+        System.out.println("-------------------------------快照测试：" + testNumber + "次随机插入，删除----------------------------------");
+        for (int i = 0; i < testNumber; i++) {
+            Integer key = random.nextInt(testNumber / 4);
+            if (random.nextInt(3) == 0) {
+                check("快照删除", treeMap.remove(key), map.remove(key));
+            } else {
+                check("快照插入", treeMap.put(key, i), map.put(key, i));
+            }
+            if (i % 100 == 0) {
+                snapshots.add(map.snapshot());
+                expectedVersions.add(new TreeMap<>(treeMap));
+            }
+            if (i % 300 == 0 && !snapshots.isEmpty()) {
+                int index = random.nextInt(snapshots.size());
+                BPlusTreeMap<Integer, Integer>.Snapshot snapshot = snapshots.remove(index);
+                expectedVersions.remove(index);
+                snapshot.close();
+                try {
+                    snapshot.get(key);
+                    throw new IllegalStateException("关闭的快照查询没有抛出异常");
+                } catch (IllegalStateException e) {
+                    // 期望的异常
+                }
+            }
+        }
+        check("快照复制", true, map.copyCount() > 0);
+        check("快照keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+        for (int i = 0; i < snapshots.size(); i++) {
+            BPlusTreeMap<Integer, Integer>.Snapshot snapshot = snapshots.get(i);
+            TreeMap<Integer, Integer> expected = expectedVersions.get(i);
+            List<Map.Entry<Integer, Integer>> actual = new ArrayList<>();
+            for (Map.Entry<Integer, Integer> entry : snapshot) {
+                actual.add(entry);
+            }
+            check("快照旧版本", new ArrayList<>(expected.entrySet()), actual);
+            check("快照旧版本stream", new ArrayList<>(expected.entrySet()), snapshot.stream().toList());
+            check("快照旧版本size", expected.size(), snapshot.size());
+            for (int key = 0; key < testNumber / 4; key += 7) {
+                check("快照旧版本查询", expected.get(key), snapshot.get(key));
+            }
+        }
+        // 所有快照关闭之后不再复制节点
+        for (BPlusTreeMap<Integer, Integer>.Snapshot snapshot : snapshots) {
+            snapshot.close();
+        }
+        long copies = map.copyCount();
+        for (int i = 0; i < testNumber; i++) {
+            Integer key = random.nextInt(testNumber / 4);
+            if (random.nextInt(3) == 0) {
+                check("快照关闭后删除", treeMap.remove(key), map.remove(key));
+            } else {
+                check("快照关闭后插入", treeMap.put(key, -i), map.put(key, -i));
+            }
+        }
+        check("快照关闭后复制", copies, map.copyCount());
+        check("快照关闭后keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+    }
+
+    // 集合运算测试: split/join/union/intersect/difference与jdk红黑树对比, 最后5轮(每种运算一轮)的规模超过并行的阈值
+    public static void testSetOperations() {
+        Random random = new Random(4);
+        int rounds = 500;
+        System.out.println("-------------------------------集合运算测试：" + rounds + "轮随机split，join，union，intersect，difference----------------------------------");
+        for (int round = 0; round < rounds; round++) {
+            int testNumber = round >= rounds - 5 ? 100000 : random.nextInt(200);
+            int range = 1 + random.nextInt(testNumber * 3 + 1);
+            RBTreeMap<Integer, Integer> map = new RBTreeMap<>();
+            RBTreeMap<Integer, Integer> other = new RBTreeMap<>();
+            TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+            TreeMap<Integer, Integer> otherTreeMap = new TreeMap<>();
+            for (int i = 0; i < testNumber; i++) {
+                Integer key = random.nextInt(range);
+                map.put(key, i);
+                treeMap.put(key, i);
+                key = random.nextInt(range);
+                other.put(key, -i);
+                otherTreeMap.put(key, -i);
+            }
+            Integer key = random.nextInt(range + 2) - 1;
+            switch (round % 5) {
+                case 0 -> {
+                    map.union(other);
+                    treeMap.putAll(otherTreeMap);
+                }
+                case 1 -> {
+                    map.intersect(other);
+                    treeMap.keySet().retainAll(otherTreeMap.keySet());
+                }
+                case 2 -> {
+                    map.difference(other);
+                    treeMap.keySet().removeAll(otherTreeMap.keySet());
+                }
+                case 3 -> {
+                    RBTreeMap<Integer, Integer> high = map.split(key);
+                    checkSetOperation("红黑split", new TreeMap<>(treeMap.tailMap(key, true)), high);
+                    treeMap = new TreeMap<>(treeMap.headMap(key, false));
+                }
+                default -> {
+                    RBTreeMap<Integer, Integer> high = map.split(key);
+                    map.join(high);
+                    check("红黑join", 0, high.size());
+                }
+            }
+            checkSetOperation("红黑集合运算", treeMap, map);
+            checkSetOperation("红黑集合运算other", otherTreeMap, other);
+            // 运算之后的树还可以继续正常修改
+            for (int i = 0; i < 20; i++) {
+                key = random.nextInt(range + 2) - 1;
+                if (random.nextBoolean()) {
+                    check("红黑插入", treeMap.put(key, i), map.put(key, i));
+                } else {
+                    check("红黑删除", treeMap.remove(key), map.remove(key));
+                }
+            }
+            checkSetOperation("红黑集合运算后修改", treeMap, map);
+        }
+        RBTreeMap<Integer, Integer> low = new RBTreeMap<>();
+        RBTreeMap<Integer, Integer> high = new RBTreeMap<>();
+        low.put(5, 5);
+        high.put(3, 3);
+        try {
+            low.join(high);
+            throw new IllegalStateException("红黑join范围重叠没有抛出异常");
+        } catch (IllegalArgumentException e) {
+            // 期望的异常
+        }
+    }
+
+    // 内容、逆序遍历(沿parent指针)以及select/rank(依赖子树大小)都与期望相同
+    private static void checkSetOperation(String name, TreeMap<Integer, Integer> expected, RBTreeMap<Integer, Integer> actual) {
+        check(name + " size", expected.size(), actual.size());
+        check(name + " entrySet", new ArrayList<>(expected.entrySet()), new ArrayList<>(actual.entrySet()));
+        check(name + " descendingKeySet", new ArrayList<>(expected.descendingKeySet()), new ArrayList<>(actual.descendingKeySet()));
+        List<Integer> keys = new ArrayList<>(expected.keySet());
+        for (int i = 0; i < keys.size(); i++) {
+            check(name + " select", keys.get(i), actual.select(i));
+            check(name + " rank", i, actual.rank(keys.get(i)));
+        }
+    }
+
+    // 并发测试: 每个线程在自己的key范围内随机插入删除, 结果与ConcurrentSkipListMap对比
+    public static void testConcurrentTree() {
+        int threadNumber = 8;
+        int range = 20000;
+        ConcurrentBPlusTreeMap<Integer, Integer> map = new ConcurrentBPlusTreeMap<>(8);
+        ConcurrentSkipListMap<Integer, Integer> skipListMap = new ConcurrentSkipListMap<>();
+        System.out.println("-------------------------------并发测试：" + threadNumber + "个线程随机插入，删除----------------------------------");
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < threadNumber; t++) {
+            int from = t * range;
+            Random random = new Random(t);
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < range * 10; i++) {
+                    Integer key = from + random.nextInt(range);
+                    // 前一半以插入为主, 后一半以删除为主, 让叶子节点先分裂再变空
+                    if (random.nextInt(10) < (i < range * 5 ? 7 : 2)) {
+                        check("并发插入", skipListMap.put(key, i), map.put(key, i));
+                    } else {
+                        check("并发删除", skipListMap.remove(key), map.remove(key));
+                    }
+                    check("并发查询", skipListMap.get(key), map.get(key));
+                }
+            });
+            thread.setUncaughtExceptionHandler((th, e) -> errors.add(e));
+            threads.add(thread);
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        check("并发异常", List.of(), errors);
+        check("并发size", skipListMap.size(), map.size());
+        check("并发keySet", new ArrayList<>(skipListMap.keySet()), map.keySet());
+        for (int key = 0; key < threadNumber * range; key++) {
+            check("并发查询", skipListMap.get(key), map.get(key));
+        }
+    }
+
+    // 恢复测试: 写入, checkpoint两次, 再写入, 不关闭直接重新打开(模拟崩溃), 结果与jdk红黑树对比
+    public static void testDurableTree() {
+        int testNumber = 20000;
+        System.out.println("-------------------------------恢复测试：" + testNumber + "次随机写入，checkpoint后重新打开----------------------------------");
+        testDurableTree(testNumber, Long.MAX_VALUE);
+        // 日志很小时写入线程多次自动checkpoint
+        testDurableTree(testNumber, 4096);
+    }
+
+    private static void testDurableTree(int testNumber, long checkpointBytes) {
+        TreeMap<Integer, Long> treeMap = new TreeMap<>();
+        Random random = new Random(0);
+        try {
+            Path directory = Files.createTempDirectory("durable");
+            DurableBPlusTreeMap<Integer, Long> map = new DurableBPlusTreeMap<>(directory, 16, PageSerializer.INT, PageSerializer.LONG, checkpointBytes);
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < testNumber; i++) {
+                    Integer key = random.nextInt(testNumber);
+                    if (random.nextInt(4) == 0) {
+                        check("持久化删除", treeMap.remove(key), map.remove(key));
+                    } else {
+                        check("持久化插入", treeMap.put(key, (long) i), map.put(key, (long) i));
+                        // put返回时日志已经落盘, 超过checkpointBytes的日志已经被checkpoint清空
+                        check("持久化日志大小", true, Files.size(directory.resolve("wal")) < checkpointBytes);
+                    }
+                }
+                if (round < 2) {
+                    map.checkpoint();
+                }
+            }
+            DurableBPlusTreeMap<Integer, Long> recovered = new DurableBPlusTreeMap<>(directory, 16, PageSerializer.INT, PageSerializer.LONG, checkpointBytes);
+            check("恢复size", treeMap.size(), recovered.size());
+            for (int key = 0; key < testNumber; key++) {
+                check("恢复查询", treeMap.get(key), recovered.get(key));
+            }
+            map.close();
+            recovered.close();
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 分页测试: 文件中的b+树(映射文件、只有8个页框的缓存)随机插入删除, 关闭后重新打开; 堆外内存中的b+树随机插入删除; 结果与jdk红黑树对比
+    public static void testPagedTree() {
+        int testNumber = 20000;
+        int pageSize = 256;
+        Random random = new Random(5);
+        System.out.println("-------------------------------分页测试：" + testNumber + "次随机写入，关闭后重新打开----------------------------------");
+        try {
+            Path file = Files.createTempFile("paged", ".db");
+            TreeMap<Integer, Long> treeMap = new TreeMap<>();
+            PagedBPlusTreeMap<Integer, Long> map = new PagedBPlusTreeMap<>(new MappedPageStore(file, pageSize), PageSerializer.INT, PageSerializer.LONG);
+            checkPagedTree("映射文件", map, treeMap, random, testNumber);
+            map.close();
+            map = new PagedBPlusTreeMap<>(new MappedPageStore(file, pageSize), PageSerializer.INT, PageSerializer.LONG);
+            checkPagedContent("映射文件重新打开", map, treeMap, testNumber);
+            checkPagedTree("映射文件重新打开后", map, treeMap, random, testNumber);
+            map.close();
+            Files.delete(file);
+            // 只有8个页框的缓存, 几乎每次访问叶子都要淘汰
+            file = Files.createTempFile("pool", ".db");
+            treeMap.clear();
+            BufferPool pool = new BufferPool(file, pageSize, 8L * pageSize);
+            check("缓存页框个数", 8, pool.capacity());
+            map = new PagedBPlusTreeMap<>(pool, PageSerializer.INT, PageSerializer.LONG);
+            checkPagedTree("小缓存", map, treeMap, random, testNumber);
+            check("小缓存淘汰", true, pool.evictionCount() > 0);
+            check("小缓存写回", true, pool.writeCount() > 0);
+            // 只访问过一次的页最先被淘汰, 同一个key查询两次之后搜索路径上的页都有两次访问, 第三次全部命中
+            Integer key = treeMap.firstKey();
+            map.get(key);
+            map.get(key);
+            long hits = pool.hitCount();
+            long misses = pool.missCount();
+            long evictions = pool.evictionCount();
+            check("小缓存查询", treeMap.get(key), map.get(key));
+            check("小缓存命中", true, pool.hitCount() > hits);
+            check("小缓存未命中", misses, pool.missCount());
+            check("小缓存淘汰", evictions, pool.evictionCount());
+            map.close();
+            pool = new BufferPool(file, pageSize, 8L * pageSize);
+            map = new PagedBPlusTreeMap<>(pool, PageSerializer.INT, PageSerializer.LONG);
+            checkPagedContent("小缓存重新打开", map, treeMap, testNumber);
+            // 顺序扫描所有叶子, 每个叶子只访问一次
+            evictions = pool.evictionCount();
+            map.keySet();
+            check("小缓存扫描淘汰", true, pool.evictionCount() > evictions);
+            map.close();
+            Files.delete(file);
+            // 堆外内存中的页, 默认页大小以及与上面相同的小页
+            treeMap.clear();
+            map = PagedBPlusTreeMap.offHeap(PageSerializer.INT, PageSerializer.LONG);
+            checkPagedTree("堆外", map, treeMap, random, testNumber);
+            checkPagedTree("堆外", map, treeMap, random, testNumber);
+            map.close();
+            treeMap.clear();
+            map = new PagedBPlusTreeMap<>(new DirectPageStore(pageSize), PageSerializer.INT, PageSerializer.LONG);
+            checkPagedTree("堆外小页", map, treeMap, random, testNumber);
+            checkPagedTree("堆外小页", map, treeMap, random, testNumber);
+            map.close();
+            try {
+                new BufferPool(file, pageSize, 7L * pageSize);
+                throw new IllegalStateException("缓存少于8个页框没有抛出异常");
+            } catch (IllegalArgumentException e) {
+                // 期望的异常
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 随机插入删除, 包括负数key
+    private static void checkPagedTree(String name, PagedBPlusTreeMap<Integer, Long> map, TreeMap<Integer, Long> treeMap, Random random, int testNumber) {
+        for (int i = 0; i < testNumber; i++) {
+            Integer key = random.nextInt(testNumber) - testNumber / 2;
+            if (random.nextInt(3) == 0) {
+                check(name + "删除", treeMap.remove(key), map.remove(key));
+            } else {
+                check(name + "插入", treeMap.put(key, (long) i), map.put(key, (long) i));
+            }
+        }
+        checkPagedContent(name, map, treeMap, testNumber);
+    }
+
+    private static void checkPagedContent(String name, PagedBPlusTreeMap<Integer, Long> map, TreeMap<Integer, Long> treeMap, int testNumber) {
+        check(name + "size", (long) treeMap.size(), map.size());
+        check(name + "keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+        for (int key = -testNumber / 2; key < testNumber / 2; key++) {
+            check(name + "查询", treeMap.get(key), map.get(key));
+        }
+    }
+
+    // 外部排序测试: 带重复key的无序输入分成很多run并多轮归并, 导入之后再随机写入, 结果与jdk红黑树对比
+    public static void testExternalSort() {
+        int testNumber = 20000;
+        int runSize = 4;
+        TreeMap<Integer, Long> treeMap = new TreeMap<>();
+        List<Map.Entry<Integer, Long>> input = new ArrayList<>();
+        Random random = new Random(0);
+        for (int i = 0; i < testNumber; i++) {
+            Integer key = random.nextInt(testNumber / 4) - testNumber / 8;
+            input.add(Map.entry(key, (long) i));
+            treeMap.put(key, (long) i);
+        }
+        System.out.println("-------------------------------外部排序测试：" + testNumber + "个元素每" + runSize + "个一个run，多轮归并后导入----------------------------------");
+        try {
+            Path tempDir = Files.createTempDirectory("runs");
+            Path file = Files.createTempFile("sorted", ".db");
+            ExternalSortLoader<Integer, Long> loader = new ExternalSortLoader<>(PageSerializer.INT, PageSerializer.LONG, tempDir, runSize);
+            PagedBPlusTreeMap<Integer, Long> map = PagedBPlusTreeMap.open(file, PageSerializer.INT, PageSerializer.LONG);
+            loader.load(input.iterator(), map, 0.7);
+            // 5000个run: 第一轮归并成79个, 第二轮归并成2个
+            int runs = testNumber / runSize;
+            int firstPass = (runs + ExternalSortLoader.MAX_FAN_IN - 1) / ExternalSortLoader.MAX_FAN_IN;
+            check("外部排序run个数", runs + firstPass + 2, loader.runCount());
+            try (Stream<Path> files = Files.list(tempDir)) {
+                check("外部排序临时文件", 0L, files.count());
+            }
+            check("外部排序size", (long) treeMap.size(), map.size());
+            check("外部排序keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+            for (Map.Entry<Integer, Long> entry : treeMap.entrySet()) {
+                check("外部排序查询", entry.getValue(), map.get(entry.getKey()));
+            }
+            for (int i = 0; i < testNumber; i++) {
+                Integer key = random.nextInt(testNumber / 2) - testNumber / 4;
+                if (random.nextInt(3) == 0) {
+                    check("外部排序后删除", treeMap.remove(key), map.remove(key));
+                } else {
+                    check("外部排序后插入", treeMap.put(key, (long) -i), map.put(key, (long) -i));
+                }
+            }
+            check("外部排序后keySet", new ArrayList<>(treeMap.keySet()), map.keySet());
+            for (int key = -testNumber / 4; key < testNumber / 4; key++) {
+                check("外部排序后查询", treeMap.get(key), map.get(key));
+            }
+            map.close();
+            // 所有元素都在一个run中时不写临时文件
+            ExternalSortLoader<Integer, Long> memoryLoader = new ExternalSortLoader<>(PageSerializer.INT, PageSerializer.LONG, tempDir, testNumber);
+            PagedBPlusTreeMap<Integer, Long> memoryMap = PagedBPlusTreeMap.offHeap(PageSerializer.INT, PageSerializer.LONG);
+            memoryLoader.load(input.iterator(), memoryMap, 1);
+            check("内存排序run个数", 0, memoryLoader.runCount());
+            memoryMap.close();
+            Files.delete(file);
+            Files.delete(tempDir);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void check(String name, Object expected, Object actual) {
+        if (!Objects.equals(expected, actual)) {
+            throw new IllegalStateException(name + "结果错误, 期望: " + expected + ", 实际: " + actual);
         }
-        System.out.println("手写b+删除用时：" + (System.currentTimeMillis() - startTime));
-        System.out.println(treeMap.keySet());
-        System.out.println(map.keySet());
-        System.out.println(bPlusTreeMap.keySet());
     }
 }
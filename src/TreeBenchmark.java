@@ -0,0 +1,336 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/*
+        RBTreeMap / ArenaRBTreeMap / BTreeMap / BPlusTreeMap / java.util.TreeMap 的性能测试
+        参数(key=value, 多个取值用逗号分隔, 对所有组合分别测试):
+            impl          实现, 默认全部
+            size          预先插入的元素个数, key的范围为[0, size)
+            order         b树/b+树的阶数, auto表示使用无参构造方法自动选择, 红黑树忽略
+            distribution  操作key的分布: sequential(顺序循环) / uniform / zipfian
+            mix           get:put:remove的比例, 如 90:9:1
+            ops           每轮执行的操作数
+            warmup        预热轮数, 结果丢弃, 用于让JIT完成编译
+            iterations    计时轮数
+            fork          true(默认): 每组参数在单独的JVM中运行, 继承当前JVM的启动参数; false: 全部在当前JVM中运行
+        所有实现都通过Target中相同的Function调用点执行, 在同一个JVM中依次测试时调用点会变成多态的,
+        后测试的实现受到之前实现留下的JIT profile的影响, 所以默认每组参数fork一个新的JVM
+        每组参数使用新的map和相同的操作序列(同一个随机种子), 操作序列在计时之前生成
+        每轮统计耗时、当前线程分配的字节数(com.sun.management.ThreadMXBean)以及GC次数和时间
+        输出计时轮的吞吐量(平均值 +- 标准差)、每次操作耗时和每次操作分配的字节数
+
+        例: java TreeBenchmark impl=BPlusTreeMap,TreeMap size=100000,1000000 order=16,64,128 distribution=zipfian mix=50:45:5
+ */
+public class TreeBenchmark {
+
+    private static final long SEED = 42;
+    private static final double ZIPFIAN_THETA = 0.99;
+
+    private static final int GET = 0;
+    private static final int PUT = 1;
+    private static final int REMOVE = 2;
+    private static final String ROW_FORMAT = "%-13s %9s %6s %-11s %-9s %22s %10.1f %10.1f %8d %8d%n";
+
+    // 防止结果没有被使用而被JIT消除
+    private static long sink;
+
+    public static void main(String[] args) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("impl", "RBTreeMap,BTreeMap,BPlusTreeMap,TreeMap");
+        params.put("size", "100000,1000000");
+        params.put("order", "16,64");
+        params.put("distribution", "sequential,uniform,zipfian");
+        params.put("mix", "90:9:1,50:45:5");
+        params.put("ops", "1000000");
+        params.put("warmup", "5");
+        params.put("iterations", "10");
+        params.put("fork", "true");
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split < 0 || !params.containsKey(arg.substring(0, split))) {
+                throw new IllegalArgumentException("unknown argument: " + arg + ", expected one of " + params.keySet());
+            }
+            params.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        int ops = Integer.parseInt(params.get("ops"));
+        int warmup = Integer.parseInt(params.get("warmup"));
+        int iterations = Integer.parseInt(params.get("iterations"));
+        boolean fork = Boolean.parseBoolean(params.get("fork"));
+
+        System.out.printf("%-13s %9s %6s %-11s %-9s %22s %10s %10s %8s %8s%n",
+                "impl", "size", "order", "dist", "mix", "ops/s", "ns/op", "B/op", "gc", "gc ms");
+        for (String size : params.get("size").split(",")) {
+            for (String distribution : params.get("distribution").split(",")) {
+                for (String mix : params.get("mix").split(",")) {
+                    Workload workload = fork ? null : new Workload(Integer.parseInt(size), distribution, mix, ops);
+                    for (String impl : params.get("impl").split(",")) {
+                        // 红黑树没有阶数, 只测试一次
+                        String[] orders = impl.equals("BTreeMap") || impl.equals("BPlusTreeMap") ? params.get("order").split(",") : new String[]{"-"};
+                        for (String order : orders) {
+                            if (fork) {
+                                System.out.print(fork(impl, size, order, distribution, mix, params));
+                                continue;
+                            }
+                            Result result = run(impl, order, workload, warmup, iterations);
+                            System.out.printf(ROW_FORMAT, impl, size, order, distribution, mix, result.summary(), result.nsPerOp, result.bytesPerOp, result.gcCount, result.gcMillis);
+                        }
+                    }
+                }
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /*
+            在新的JVM中以fork=false运行一组参数, 返回结果行(子进程输出的最后一行)
+            子进程的标准错误直接输出到当前进程, 退出码不为0时抛出异常
+     */
+    private static String fork(String impl, String size, String order, String distribution, String mix, Map<String, String> params) {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(TreeBenchmark.class.getName());
+        command.add("impl=" + impl);
+        command.add("size=" + size);
+        command.add("order=" + order);
+        command.add("distribution=" + distribution);
+        command.add("mix=" + mix);
+        for (String key : List.of("ops", "warmup", "iterations")) {
+            command.add(key + "=" + params.get(key));
+        }
+        command.add("fork=false");
+        try {
+            Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            String last = null;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    last = line;
+                }
+            }
+            int exit = process.waitFor();
+            if (exit != 0 || last == null) {
+                throw new IllegalStateException("benchmark fork for " + impl + " exited with " + exit);
+            }
+            return last + System.lineSeparator();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for benchmark fork", e);
+        }
+    }
+
+    private static Result run(String impl, String order, Workload workload, int warmup, int iterations) {
+        Target target = create(impl, order.equals("-") || order.equals("auto") ? 0 : Integer.parseInt(order));
+        for (int i = 0; i < workload.size; i++) {
+            target.put(i, i);
+        }
+        System.gc();
+        for (int i = 0; i < warmup; i++) {
+            runOnce(target, workload);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        double[] throughput = new double[iterations];
+        long totalNanos = 0;
+        long allocated = 0;
+        long gcCount = -gcCount();
+        long gcMillis = -gcMillis();
+        for (int i = 0; i < iterations; i++) {
+            long bytes = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            runOnce(target, workload);
+            long nanos = System.nanoTime() - start;
+            allocated += threads.getThreadAllocatedBytes(threadId) - bytes;
+            totalNanos += nanos;
+            throughput[i] = workload.ops * 1e9 / nanos;
+        }
+        gcCount += gcCount();
+        gcMillis += gcMillis();
+        long totalOps = (long) workload.ops * iterations;
+        return new Result(throughput, (double) totalNanos / totalOps, (double) allocated / totalOps, gcCount, gcMillis);
+    }
+
+    private static void runOnce(Target target, Workload workload) {
+        Integer[] keys = workload.keys;
+        byte[] types = workload.types;
+        long res = 0;
+        for (int i = 0; i < keys.length; i++) {
+            Integer key = keys[i];
+            Integer value = switch (types[i]) {
+                case GET -> target.get(key);
+                case PUT -> target.put(key, key);
+                default -> target.remove(key);
+            };
+            if (value != null) {
+                res += value;
+            }
+        }
+        sink += res;
+    }
+
+    private static long gcCount() {
+        long res = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            res += Math.max(0, bean.getCollectionCount());
+        }
+        return res;
+    }
+
+    private static long gcMillis() {
+        long res = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            res += Math.max(0, bean.getCollectionTime());
+        }
+        return res;
+    }
+
+    private static Target create(String impl, int order) {
+        switch (impl) {
+            case "RBTreeMap": {
+                RBTreeMap<Integer, Integer> map = new RBTreeMap<>();
+                return new Target(map::get, map::put, map::remove);
+            }
+            case "ArenaRBTreeMap": {
+                ArenaRBTreeMap<Integer, Integer> map = new ArenaRBTreeMap<>();
+                return new Target(map::get, map::put, map::remove);
+            }
+            case "BTreeMap": {
+                BTreeMap<Integer, Integer> map = order == 0 ? new BTreeMap<>() : new BTreeMap<>(order);
+                return new Target(map::get, map::put, map::remove);
+            }
+            case "BPlusTreeMap": {
+                BPlusTreeMap<Integer, Integer> map = order == 0 ? new BPlusTreeMap<>() : new BPlusTreeMap<>(order);
+                return new Target(map::get, map::put, map::remove);
+            }
+            case "TreeMap": {
+                TreeMap<Integer, Integer> map = new TreeMap<>();
+                return new Target(map::get, map::put, map::remove);
+            }
+            default:
+                throw new IllegalArgumentException("unknown impl: " + impl);
+        }
+    }
+
+    private record Target(Function<Integer, Integer> getter, BiFunction<Integer, Integer, Integer> putter, Function<Integer, Integer> remover) {
+
+        Integer get(Integer key) {
+            return getter.apply(key);
+        }
+
+        Integer put(Integer key, Integer value) {
+            return putter.apply(key, value);
+        }
+
+        Integer remove(Integer key) {
+            return remover.apply(key);
+        }
+    }
+
+    private record Result(double[] throughput, double nsPerOp, double bytesPerOp, long gcCount, long gcMillis) {
+
+        String summary() {
+            double mean = Arrays.stream(throughput).average().orElse(0);
+            double variance = Arrays.stream(throughput).map(item -> (item - mean) * (item - mean)).sum() / Math.max(1, throughput.length - 1);
+            return String.format(Locale.ROOT, "%.0f +- %.0f", mean, Math.sqrt(variance));
+        }
+    }
+
+    // 预先生成的操作序列, key提前装箱, 分配统计中只包含树本身的分配
+    private static class Workload {
+        final int size;
+        final int ops;
+        final Integer[] keys;
+        final byte[] types;
+
+        Workload(int size, String distribution, String mix, int ops) {
+            this.size = size;
+            this.ops = ops;
+            this.keys = new Integer[ops];
+            this.types = new byte[ops];
+            int[] weights = Arrays.stream(mix.split(":")).mapToInt(Integer::parseInt).toArray();
+            if (weights.length != 3 || Arrays.stream(weights).sum() <= 0) {
+                throw new IllegalArgumentException("mix must be get:put:remove, got " + mix);
+            }
+            int total = weights[0] + weights[1] + weights[2];
+            Random random = new Random(SEED);
+            ZipfianGenerator zipfian = distribution.equals("zipfian") ? new ZipfianGenerator(size, ZIPFIAN_THETA) : null;
+            for (int i = 0; i < ops; i++) {
+                keys[i] = switch (distribution) {
+                    case "sequential" -> i % size;
+                    case "uniform" -> random.nextInt(size);
+                    case "zipfian" -> scramble(zipfian.next(random), size);
+                    default -> throw new IllegalArgumentException("unknown distribution: " + distribution);
+                };
+                int type = random.nextInt(total);
+                types[i] = (byte) (type < weights[0] ? GET : type < weights[0] + weights[1] ? PUT : REMOVE);
+            }
+        }
+
+        // 把排名打散到整个key范围, 避免热点key全部相邻
+        private static int scramble(long rank, int size) {
+            long hash = rank * 0x9E3779B97F4A7C15L;
+            return (int) Math.floorMod(hash ^ (hash >>> 32), (long) size);
+        }
+    }
+
+    /*
+            zipf分布, 排名为i的元素出现概率正比于 1 / i^theta
+            使用Gray等人的快速生成方法(YCSB中的ZipfianGenerator), 初始化时计算一次zeta(n)
+     */
+    private static class ZipfianGenerator {
+        private final long items;
+        private final double theta;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+
+        ZipfianGenerator(long items, double theta) {
+            this.items = items;
+            this.theta = theta;
+            this.alpha = 1.0 / (1.0 - theta);
+            this.zetan = zeta(items, theta);
+            double zeta2 = zeta(2, theta);
+            this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+        }
+
+        long next(Random random) {
+            double u = random.nextDouble();
+            double uz = u * zetan;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, theta)) {
+                return 1;
+            }
+            return Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+        }
+
+        private static double zeta(long n, double theta) {
+            double sum = 0;
+            for (long i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+        树的运行指标, 分为两部分:
+            操作指标: 查找次数、每次查找比较的次数、get/put/remove的延迟直方图, 使用LongAdder累加
+                只有 -Dtree.metrics=true 时才记录, ENABLED为static final, 关闭时JIT直接去掉记录代码, 热路径没有开销
+            结构指标: 高度、节点个数、平均/最小填充率, 以及分裂、合并、借用、旋转的次数
+                由树在需要时遍历计算, 分裂等次数是树中的普通计数器, 发生频率低, 一直记录
+        延迟直方图按log2分桶: 第i个桶为[2^(i-1), 2^i)纳秒, 分位数返回所在桶的上界
+        结构指标在写线程之外读取时只是近似值, 遍历失败时保留上一次的结果; 最多每秒计算一次
+ */
+final class TreeMetrics implements TreeMetricsMXBean {
+
+    static final boolean ENABLED = Boolean.getBoolean("tree.metrics");
+
+    private static final int BUCKETS = 64;
+    private static final long STRUCTURE_TTL_NANOS = 1_000_000_000L;
+
+    enum Op {
+        GET, PUT, REMOVE
+    }
+
+    /*
+            树的结构, fill为节点中元素个数与容量的比值, 最小填充率不包括根节点
+     */
+    record Structure(int height, long nodeCount, double averageFill, double minFill,
+                     long splits, long merges, long borrows, long rotations) {
+
+        static final Structure EMPTY = new Structure(0, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    record Snapshot(Structure structure, long searches, double comparisonsPerSearch,
+                    long[] counts, double[] meanNanos, long[] p50Nanos, long[] p99Nanos) {
+
+        @Override
+        public String toString() {
+            StringBuilder res = new StringBuilder();
+            res.append(String.format("height %d, nodes %d, fill avg %.2f min %.2f, splits %d, merges %d, borrows %d, rotations %d, searches %d, comparisons/search %.2f",
+                    structure.height, structure.nodeCount, structure.averageFill, structure.minFill,
+                    structure.splits, structure.merges, structure.borrows, structure.rotations, searches, comparisonsPerSearch));
+            for (Op op : Op.values()) {
+                int i = op.ordinal();
+                res.append(String.format(", %s %d mean %.0f p50 %d p99 %d ns", op.name().toLowerCase(), counts[i], meanNanos[i], p50Nanos[i], p99Nanos[i]));
+            }
+            return res.toString();
+        }
+    }
+
+    private final Supplier<Structure> structureSupplier;
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder comparisons = new LongAdder();
+    // 未开启时不创建直方图
+    private final LongAdder[][] histograms;
+    private final LongAdder[] totalNanos;
+    private volatile Structure structure = Structure.EMPTY;
+    private volatile long structureTime;
+    private ObjectName registeredName;
+
+    TreeMetrics(Supplier<Structure> structureSupplier) {
+        this.structureSupplier = structureSupplier;
+        if (!ENABLED) {
+            this.histograms = null;
+            this.totalNanos = null;
+            return;
+        }
+        this.histograms = new LongAdder[Op.values().length][BUCKETS];
+        this.totalNanos = new LongAdder[Op.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            for (int j = 0; j < BUCKETS; j++) {
+                histograms[i][j] = new LongAdder();
+            }
+            totalNanos[i] = new LongAdder();
+        }
+    }
+
+    // 调用方先判断ENABLED, start为System.nanoTime()
+    void record(Op op, long start) {
+        long nanos = System.nanoTime() - start;
+        histograms[op.ordinal()][64 - Long.numberOfLeadingZeros(nanos)].increment();
+        totalNanos[op.ordinal()].add(nanos);
+    }
+
+    // 一次自顶向下的查找, comparisons为比较的次数
+    void search(int comparisons) {
+        this.searches.increment();
+        this.comparisons.add(comparisons);
+    }
+
+    // 节点中二分查找size个元素最多比较的次数
+    static int binarySearchComparisons(int size) {
+        return 32 - Integer.numberOfLeadingZeros(size);
+    }
+
+    public Snapshot snapshot() {
+        int ops = Op.values().length;
+        long[] counts = new long[ops];
+        double[] means = new double[ops];
+        long[] p50 = new long[ops];
+        long[] p99 = new long[ops];
+        for (int i = 0; i < ops; i++) {
+            counts[i] = count(i);
+            means[i] = counts[i] == 0 ? 0 : (double) totalNanos[i].sum() / counts[i];
+            p50[i] = percentile(i, 0.5);
+            p99[i] = percentile(i, 0.99);
+        }
+        long searchCount = searches.sum();
+        double perSearch = searchCount == 0 ? 0 : (double) comparisons.sum() / searchCount;
+        return new Snapshot(structure(), searchCount, perSearch, counts, means, p50, p99);
+    }
+
+    private long count(int op) {
+        if (histograms == null) {
+            return 0;
+        }
+        long res = 0;
+        for (LongAdder bucket : histograms[op]) {
+            res += bucket.sum();
+        }
+        return res;
+    }
+
+    private long percentile(int op, double p) {
+        long total = count(op);
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * p);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histograms[op][i].sum();
+            if (seen >= target) {
+                return i == 0 ? 0 : 1L << Math.min(i, 62);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private Structure structure() {
+        long now = System.nanoTime();
+        if (structureTime != 0 && now - structureTime < STRUCTURE_TTL_NANOS) {
+            return structure;
+        }
+        try {
+            structure = structureSupplier.get();
+        } catch (RuntimeException e) {
+            // 与写线程并发遍历时可能看到不一致的节点, 保留上一次的结果
+        }
+        structureTime = now;
+        return structure;
+    }
+
+    // 注册到平台MBeanServer, 名称为 tree:type=TreeMetrics,name=<name>
+    public void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("tree:type=TreeMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+            this.registeredName = objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot register tree metrics " + name, e);
+        }
+    }
+
+    public void unregister() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot unregister tree metrics " + registeredName, e);
+        }
+        registeredName = null;
+    }
+
+    @Override
+    public int getHeight() {
+        return structure().height;
+    }
+
+    @Override
+    public long getNodeCount() {
+        return structure().nodeCount;
+    }
+
+    @Override
+    public double getAverageFill() {
+        return structure().averageFill;
+    }
+
+    @Override
+    public double getMinFill() {
+        return structure().minFill;
+    }
+
+    @Override
+    public long getSplits() {
+        return structure().splits;
+    }
+
+    @Override
+    public long getMerges() {
+        return structure().merges;
+    }
+
+    @Override
+    public long getBorrows() {
+        return structure().borrows;
+    }
+
+    @Override
+    public long getRotations() {
+        return structure().rotations;
+    }
+
+    @Override
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    @Override
+    public double getComparisonsPerSearch() {
+        long searchCount = searches.sum();
+        return searchCount == 0 ? 0 : (double) comparisons.sum() / searchCount;
+    }
+
+    @Override
+    public long getGetCount() {
+        return count(Op.GET.ordinal());
+    }
+
+    @Override
+    public double getGetMeanNanos() {
+        return mean(Op.GET);
+    }
+
+    @Override
+    public long getGetP99Nanos() {
+        return percentile(Op.GET.ordinal(), 0.99);
+    }
+
+    @Override
+    public long getPutCount() {
+        return count(Op.PUT.ordinal());
+    }
+
+    @Override
+    public double getPutMeanNanos() {
+        return mean(Op.PUT);
+    }
+
+    @Override
+    public long getPutP99Nanos() {
+        return percentile(Op.PUT.ordinal(), 0.99);
+    }
+
+    @Override
+    public long getRemoveCount() {
+        return count(Op.REMOVE.ordinal());
+    }
+
+    @Override
+    public double getRemoveMeanNanos() {
+        return mean(Op.REMOVE);
+    }
+
+    @Override
+    public long getRemoveP99Nanos() {
+        return percentile(Op.REMOVE.ordinal(), 0.99);
+    }
+
+    private double mean(Op op) {
+        long count = count(op.ordinal());
+        return count == 0 ? 0 : (double) totalNanos[op.ordinal()].sum() / count;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+        TreeMetrics通过JMX导出的属性, 延迟为纳秒, 分位数为所在log2区间的上界
+ */
+public interface TreeMetricsMXBean {
+
+    int getHeight();
+
+    long getNodeCount();
+
+    double getAverageFill();
+
+    double getMinFill();
+
+    long getSplits();
+
+    long getMerges();
+
+    long getBorrows();
+
+    long getRotations();
+
+    long getSearches();
+
+    double getComparisonsPerSearch();
+
+    long getGetCount();
+
+    double getGetMeanNanos();
+
+    long getGetP99Nanos();
+
+    long getPutCount();
+
+    double getPutMeanNanos();
+
+    long getPutP99Nanos();
+
+    long getRemoveCount();
+
+    double getRemoveMeanNanos();
+
+    long getRemoveP99Nanos();
+}
@@ -0,0 +1,241 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/*
+        预写日志(redo log), 每条记录是一次逻辑修改:
+            crc(int) | type(byte) | key | value(只有PUT有)
+        key/value通过PageSerializer编码为定长, 记录长度由type决定, crc覆盖type之后的全部内容
+
+        组提交(group commit):
+            append只把记录写入内存缓冲区并返回日志位置(lsn), 不访问磁盘
+            sync(lsn)等待该位置之前的记录落盘: 第一个到达的线程成为leader, 交换缓冲区后写入并force,
+            其余线程等待leader完成, 一次force同时提交期间所有线程追加的记录
+        replay从头读取日志, 遇到长度不足或crc不匹配的记录(崩溃时写了一半)就停止, 并截断之后的内容
+ */
+class WriteAheadLog<K extends Comparable<K>, V> implements Closeable {
+
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+
+    private static final int HEADER = Integer.BYTES + 1;
+
+    private final FileChannel channel;
+    private final PageSerializer<K> keySerializer;
+    private final PageSerializer<V> valueSerializer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition synced = lock.newCondition();
+    private final CRC32C crc = new CRC32C();
+
+    // pending接收新的记录, writing只由正在force的leader使用
+    private ByteBuffer pending;
+    private ByteBuffer writing;
+    // 日志位置单调递增, truncate之后也不会重置, base是当前文件开头对应的位置
+    // appended: 已追加的位置, durable: 已落盘的位置
+    private long base;
+    private long appended;
+    private long durable;
+    private boolean syncing;
+    // 写入失败之后缓冲区中的记录已经丢失, 之后的sync全部失败
+    private IOException failure;
+
+    public WriteAheadLog(Path file, PageSerializer<K> keySerializer, PageSerializer<V> valueSerializer) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        int capacity = Math.max(1 << 16, 64 * (HEADER + keySerializer.size() + valueSerializer.size()));
+        this.pending = ByteBuffer.allocate(capacity);
+        this.writing = ByteBuffer.allocate(capacity);
+    }
+
+    // 追加一条记录, 返回记录结束的日志位置
+    public long append(byte type, K key, V value) {
+        int length = HEADER + keySerializer.size() + (type == PUT ? valueSerializer.size() : 0);
+        lock.lock();
+        try {
+            if (pending.remaining() < length) {
+                pending = grow(pending, pending.position() + length);
+            }
+            int start = pending.position();
+            pending.put(start + Integer.BYTES, type);
+            keySerializer.write(pending, start + HEADER, key);
+            if (type == PUT) {
+                valueSerializer.write(pending, start + HEADER + keySerializer.size(), value);
+            }
+            crc.reset();
+            crc.update(pending.slice(start + Integer.BYTES, length - Integer.BYTES));
+            pending.putInt(start, (int) crc.getValue());
+            pending.position(start + length);
+            appended += length;
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 等待lsn之前的记录全部落盘
+    public void sync(long lsn) {
+        lock.lock();
+        try {
+            while (durable < lsn) {
+                if (failure != null) {
+                    throw new UncheckedIOException(failure);
+                }
+                if (syncing) {
+                    synced.awaitUninterruptibly();
+                    continue;
+                }
+                // 成为leader: 交换缓冲区, 释放锁之后再写磁盘, 期间其他线程可以继续append
+                syncing = true;
+                ByteBuffer batch = pending;
+                pending = writing;
+                writing = batch;
+                long target = appended;
+                lock.unlock();
+                boolean success = false;
+                try {
+                    batch.flip();
+                    while (batch.hasRemaining()) {
+                        channel.write(batch);
+                    }
+                    batch.clear();
+                    channel.force(false);
+                    success = true;
+                } catch (IOException e) {
+                    failure = e;
+                    throw new UncheckedIOException(e);
+                } finally {
+                    lock.lock();
+                    if (success) {
+                        durable = target;
+                    }
+                    syncing = false;
+                    synced.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 已追加的最后位置
+    public long position() {
+        lock.lock();
+        try {
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 日志文件中的字节数(包括还没有落盘的)
+    public long size() {
+        lock.lock();
+        try {
+            return appended - base;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+            按顺序重放日志中完整的记录, 返回重放的记录数
+            最后一条不完整的记录以及之后的内容会被截断, 新的记录从截断处开始追加
+     */
+    public long replay(BPlusTreeMap<K, V> map) throws IOException {
+        int keySize = keySerializer.size();
+        int putLength = HEADER + keySize + valueSerializer.size();
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(1 << 16, putLength));
+        long position = 0;
+        long count = 0;
+        channel.position(0);
+        buffer.limit(0);
+        for (; ; ) {
+            if (buffer.remaining() < putLength) {
+                buffer.compact();
+                while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                }
+                buffer.flip();
+            }
+            if (buffer.remaining() < HEADER) {
+                break;
+            }
+            int start = buffer.position();
+            byte type = buffer.get(start + Integer.BYTES);
+            int length = type == PUT ? putLength : HEADER + keySize;
+            if ((type != PUT && type != REMOVE) || buffer.remaining() < length) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.slice(start + Integer.BYTES, length - Integer.BYTES));
+            if (buffer.getInt(start) != (int) crc.getValue()) {
+                break;
+            }
+            K key = keySerializer.read(buffer, start + HEADER);
+            if (type == PUT) {
+                map.put(key, valueSerializer.read(buffer, start + HEADER + keySize));
+            } else {
+                map.remove(key);
+            }
+            buffer.position(start + length);
+            position += length;
+            count++;
+        }
+        channel.truncate(position);
+        channel.position(position);
+        lock.lock();
+        try {
+            appended = base + position;
+            durable = appended;
+        } finally {
+            lock.unlock();
+        }
+        return count;
+    }
+
+    /*
+            清空日志, 调用方需要保证所有记录都已经持久化到别处(checkpoint)且没有并发的append
+     */
+    public void truncate() {
+        lock.lock();
+        try {
+            while (syncing) {
+                synced.awaitUninterruptibly();
+            }
+            pending.clear();
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(false);
+            base = appended;
+            durable = appended;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        sync(position());
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int minCapacity) {
+        ByteBuffer res = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minCapacity));
+        buffer.flip();
+        res.put(buffer);
+        return res;
+    }
+}